@@ -0,0 +1,284 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link MavenArchiver#createArchive(MavenSession, MavenProject, MavenArchiveConfiguration)} from end to
+ * end: cloning the project, the Maven descriptor, <code>pom.properties</code>, the manifest, the index of 100
+ * dependency jars and writing the archive. The classes are
+ * <ul>
+ * <li><code>tiny</code>: 20,000 small classes in 200 packages,</li>
+ * <li><code>huge</code>: three resources of 32 MB each,</li>
+ * <li><code>mixed</code>: 5,000 classes and ten resources of 4 MB each,</li>
+ * </ul>
+ * archived forced or not (when the journal finds the archive up to date), compressed or stored, and by the jar
+ * archiver or our own jar writer. Run with
+ * <code>mvn -Pbenchmarks verify -Djmh.args="ArchiveBenchmark"</code>.
+ * <p>
+ * Besides the archives per second, the <code>megabytes</code> and <code>entries</code> counters give the
+ * throughput in MB and entries per second. The <code>...Millis</code> counters add up the time spent in each
+ * {@link ArchiverPhase}, and (our own jar writer only) deflating the entries, per second of the benchmark: divide
+ * them by 10 for the percentage of the time spent in each phase. The deflating time is summed over the compressing
+ * threads, so it may exceed the writing time.
+ *
+ * @version $Id$
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class ArchiveBenchmark
+{
+    private static final int DEPENDENCIES = 100;
+
+    private static final int MB = 1024 * 1024;
+
+    @Param( { "tiny", "huge", "mixed" } )
+    public String shape;
+
+    @Param( { "true", "false" } )
+    public boolean forced;
+
+    @Param( { "true", "false" } )
+    public boolean compress;
+
+    /**
+     * 1 for the jar archiver, more for our own jar writer compressing in parallel.
+     */
+    @Param( { "1", "4" } )
+    public int compressionThreads;
+
+    private MavenSession session;
+
+    private MavenProject project;
+
+    private File classes;
+
+    private File archiveFile;
+
+    private long size;
+
+    private int entryCount;
+
+    @Setup( Level.Trial )
+    public void setUp()
+        throws Exception
+    {
+        File dir = new File( "target/benchmark/archive" );
+        session = BenchmarkProjects.createSession();
+        project = BenchmarkProjects.createProject( dir, DEPENDENCIES );
+        classes = new File( dir, "classes" );
+        archiveFile = new File( dir, "benchmark.jar" );
+
+        Random random = new Random( 42 );
+        if ( "tiny".equals( shape ) || "mixed".equals( shape ) )
+        {
+            int count = "tiny".equals( shape ) ? 20000 : 5000;
+            for ( int i = 0; i < count; i++ )
+            {
+                createFile( "org/apache/benchmark/p" + ( i % 200 ) + "/Class" + i + ".class",
+                            200 + random.nextInt( 1800 ), random );
+            }
+        }
+        if ( "huge".equals( shape ) || "mixed".equals( shape ) )
+        {
+            int count = "huge".equals( shape ) ? 3 : 10;
+            for ( int i = 0; i < count; i++ )
+            {
+                createFile( "resources/data" + i + ".bin", "huge".equals( shape ) ? 32 * MB : 4 * MB, random );
+            }
+        }
+
+        // the non forced benchmarks find the archive of the first run up to date
+        createArchive( Counters.NONE );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( classes );
+    }
+
+    @Benchmark
+    public File createArchive( Counters counters )
+        throws Exception
+    {
+        JarArchiver jarArchiver = new JarArchiver();
+        jarArchiver.addDirectory( classes );
+        MavenArchiver archiver = new MavenArchiver();
+        archiver.setArchiver( jarArchiver );
+        archiver.setOutputFile( archiveFile );
+        archiver.setListener( counters );
+
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setForced( forced );
+        config.setCompress( compress );
+        config.setIndex( true );
+        config.setCompressionThreads( compressionThreads );
+        config.getManifest().setAddClasspath( true );
+
+        archiver.createArchive( session, project, config );
+
+        counters.megabytes += (double) size / MB;
+        counters.entries += entryCount;
+        CompressionStatistics statistics = archiver.getCompressionStatistics();
+        if ( statistics != null )
+        {
+            counters.deflateMillis += statistics.getDeflateTime() / 1e6;
+        }
+        return archiveFile;
+    }
+
+    /**
+     * Writes a file whose contents compress about as well as class files do: random bytes, mostly taken from a
+     * small alphabet.
+     */
+    private void createFile( String name, int length, Random random )
+        throws IOException
+    {
+        File file = new File( classes, name );
+        file.getParentFile().mkdirs();
+        byte[] contents = new byte[length];
+        random.nextBytes( contents );
+        for ( int i = 0; i < length; i++ )
+        {
+            if ( ( contents[i] & 3 ) != 0 )
+            {
+                contents[i] = (byte) ( 'a' + ( contents[i] & 0x7f ) % 16 );
+            }
+        }
+        OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( contents );
+        }
+        finally
+        {
+            out.close();
+        }
+        size += length;
+        entryCount++;
+    }
+
+    /**
+     * The throughput in MB and entries, and the time spent in each phase.
+     */
+    @State( Scope.Thread )
+    @AuxCounters( AuxCounters.Type.EVENTS )
+    public static class Counters
+        implements ArchiverListener
+    {
+        static final Counters NONE = new Counters();
+
+        public double megabytes;
+
+        public long entries;
+
+        public double descriptorMillis;
+
+        public double classpathMillis;
+
+        public double manifestMillis;
+
+        public double journalMillis;
+
+        public double indexMillis;
+
+        public double writeMillis;
+
+        public double deflateMillis;
+
+        @Setup( Level.Iteration )
+        public void reset()
+        {
+            megabytes = 0;
+            entries = 0;
+            descriptorMillis = 0;
+            classpathMillis = 0;
+            manifestMillis = 0;
+            journalMillis = 0;
+            indexMillis = 0;
+            writeMillis = 0;
+            deflateMillis = 0;
+        }
+
+        public void phaseStarted( ArchiverPhase phase )
+        {
+        }
+
+        public void phaseFinished( ArchiverPhase phase, long duration, PhaseCounters phaseCounters )
+        {
+            double millis = duration / 1e6;
+            switch ( phase )
+            {
+                case MAVEN_DESCRIPTOR:
+                    descriptorMillis += millis;
+                    break;
+                case CLASSPATH:
+                    classpathMillis += millis;
+                    break;
+                case MANIFEST:
+                    manifestMillis += millis;
+                    break;
+                case JOURNAL:
+                    journalMillis += millis;
+                    break;
+                case INDEX:
+                    indexMillis += millis;
+                    break;
+                case WRITE:
+                    writeMillis += millis;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
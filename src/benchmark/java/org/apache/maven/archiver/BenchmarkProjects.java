@@ -0,0 +1,144 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Synthetic projects for the benchmarks, whose dependencies are {@link MockArtifact}s backed by tiny jars.
+ *
+ * @version $Id$
+ */
+final class BenchmarkProjects
+{
+    private static final ArtifactHandler JAR_HANDLER = new DefaultArtifactHandler( "jar" )
+    {
+        public boolean isAddedToClasspath()
+        {
+            return true;
+        }
+    };
+
+    private BenchmarkProjects()
+    {
+    }
+
+    /**
+     * Creates a project below the given directory, which is cleaned first.
+     *
+     * @param dependencies the number of runtime dependencies, spread over ten group ids.
+     */
+    static MavenProject createProject( File dir, int dependencies )
+        throws IOException
+    {
+        FileUtils.deleteDirectory( dir );
+        File repository = new File( dir, "repository" );
+
+        Model model = new Model();
+        model.setGroupId( "org.apache.benchmark" );
+        model.setArtifactId( "benchmark" );
+        model.setVersion( "1.0-SNAPSHOT" );
+        model.setName( "benchmark" );
+        MavenProject project = new MavenProject( model );
+        project.setFile( new File( "src/test/resources/pom.xml" ).getAbsoluteFile() );
+        Build build = new Build();
+        build.setDirectory( new File( dir, "target" ).getPath() );
+        build.setOutputDirectory( new File( dir, "target/classes" ).getPath() );
+        project.setBuild( build );
+
+        MockArtifact artifact = new MockArtifact();
+        artifact.setGroupId( model.getGroupId() );
+        artifact.setArtifactId( model.getArtifactId() );
+        artifact.setVersion( model.getVersion() );
+        artifact.setType( "jar" );
+        artifact.setArtifactHandler( JAR_HANDLER );
+        project.setArtifact( artifact );
+
+        Set<Artifact> artifacts = new LinkedHashSet<Artifact>();
+        for ( int i = 0; i < dependencies; i++ )
+        {
+            MockArtifact dependency = new MockArtifact();
+            dependency.setGroupId( "org.apache.benchmark.group" + ( i % 10 ) );
+            dependency.setArtifactId( "dependency" + i );
+            // every fourth dependency is a timestamped snapshot, which the unique versions option is about
+            if ( i % 4 == 3 )
+            {
+                dependency.setSnapshotVersion( "1.0-20130101.120000-" + i, "1.0-SNAPSHOT" );
+            }
+            else
+            {
+                dependency.setVersion( "1." + ( i % 7 ) );
+                dependency.setBaseVersion( dependency.getVersion() );
+            }
+            dependency.setType( "jar" );
+            dependency.setScope( Artifact.SCOPE_RUNTIME );
+            dependency.setArtifactHandler( JAR_HANDLER );
+            File file = new File( repository, dependency.getGroupId() + "/" + dependency.getArtifactId() + "-"
+                + dependency.getVersion() + ".jar" );
+            createJar( file, dependency.getGroupId().replace( '.', '/' ) + "/d" + i + "/Main.class" );
+            dependency.setFile( file );
+            artifacts.add( dependency );
+        }
+        project.setArtifacts( artifacts );
+        return project;
+    }
+
+    static MavenSession createSession()
+    {
+        Properties executionProperties = new Properties();
+        executionProperties.put( "maven.version", "3.0.4" );
+        return new MavenSession( null, null, null, null, null, null, null, executionProperties, new Date() );
+    }
+
+    private static void createJar( File file, String entry )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        JarOutputStream out = new JarOutputStream( new FileOutputStream( file ) );
+        try
+        {
+            out.putNextEntry( new ZipEntry( entry ) );
+            out.write( new byte[]{ (byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe } );
+            out.closeEntry();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
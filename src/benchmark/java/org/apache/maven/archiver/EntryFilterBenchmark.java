@@ -0,0 +1,130 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the time it takes to find out that a jar doesn't contain an entry, by probing the jar with
+ * {@link JarFile#getEntry(String)} and by asking its {@link EntryFilter}, for jars with up to 100,000 entries.
+ * Run with <code>mvn -Pbenchmarks verify -Djmh.args="EntryFilterBenchmark"</code>.
+ *
+ * @version $Id$
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class EntryFilterBenchmark
+{
+    @Param( { "1000", "10000", "100000" } )
+    public int entries;
+
+    private File file;
+
+    private JarFile jar;
+
+    private EntryFilter filter;
+
+    private final String[] misses = new String[1024];
+
+    private int next;
+
+    @Setup( Level.Trial )
+    public void setUp()
+        throws IOException
+    {
+        file = File.createTempFile( "entry-filter", ".jar" );
+        List<String> names = new ArrayList<String>( entries );
+        for ( int i = 0; i < entries; i++ )
+        {
+            names.add( "org/apache/benchmark/p" + ( i % 100 ) + "/Class" + i + ".class" );
+        }
+        JarOutputStream out = new JarOutputStream( new FileOutputStream( file ) );
+        try
+        {
+            for ( String name : names )
+            {
+                out.putNextEntry( new ZipEntry( name ) );
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        jar = new JarFile( file );
+        filter = EntryFilter.create( names );
+        for ( int i = 0; i < misses.length; i++ )
+        {
+            misses[i] = "org/apache/other/p" + ( i % 100 ) + "/Class" + i + ".class";
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+        throws IOException
+    {
+        jar.close();
+        file.delete();
+    }
+
+    private String nextMiss()
+    {
+        return misses[next++ & ( misses.length - 1 )];
+    }
+
+    @Benchmark
+    public ZipEntry probeJar()
+    {
+        return jar.getEntry( nextMiss() );
+    }
+
+    @Benchmark
+    public boolean askFilter()
+    {
+        return filter.mightContain( nextMiss() );
+    }
+}
@@ -0,0 +1,109 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.jar.Manifest;
+import org.codehaus.plexus.archiver.jar.ManifestException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link MavenArchiver#getManifest(MavenSession, MavenProject, MavenArchiveConfiguration)} for projects
+ * with up to 10,000 dependencies, for each classpath layout, with and without unique versions and the
+ * <code>Extension-List</code>. Run with <code>mvn -Pbenchmarks verify -Djmh.args="-prof gc ManifestBenchmark"</code>:
+ * the <code>gc.alloc.rate.norm</code> of the GC profiler, divided by the number of dependencies, is the allocation
+ * per artifact.
+ *
+ * @version $Id$
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ManifestBenchmark
+{
+    @Param( { "10", "100", "1000", "10000" } )
+    public int dependencies;
+
+    @Param( { ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_SIMPLE,
+        ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_REPOSITORY, ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_CUSTOM } )
+    public String layout;
+
+    @Param( { "true", "false" } )
+    public boolean uniqueVersions;
+
+    @Param( { "true", "false" } )
+    public boolean extensions;
+
+    private MavenSession session;
+
+    private MavenProject project;
+
+    private MavenArchiveConfiguration config;
+
+    private MavenArchiver archiver;
+
+    @Setup( Level.Trial )
+    public void setUp()
+        throws IOException
+    {
+        session = BenchmarkProjects.createSession();
+        project = BenchmarkProjects.createProject( new File( "target/benchmark/manifest" ), dependencies );
+
+        config = new MavenArchiveConfiguration();
+        ManifestConfiguration manifest = config.getManifest();
+        manifest.setAddClasspath( true );
+        manifest.setClasspathPrefix( "lib/" );
+        manifest.setClasspathLayoutType( layout );
+        manifest.setCustomClasspathLayout( "${artifact.groupId}/${artifact.artifactId}-${artifact.version}"
+            + "${dashClassifier?}.${artifact.extension}" );
+        manifest.setUseUniqueVersions( uniqueVersions );
+        manifest.setAddExtensions( extensions );
+
+        archiver = new MavenArchiver();
+    }
+
+    @Benchmark
+    public Manifest getManifest()
+        throws ManifestException, DependencyResolutionRequiredException
+    {
+        return archiver.getManifest( session, project, config );
+    }
+}
@@ -0,0 +1,297 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * A directory of archives, named after the key of their inputs, which is shared by all builds on a machine. An
+ * archive is stored under a temporary name first, and renamed once it's complete, so that concurrent builds
+ * never see half written archives; if two builds store the same key, the first one wins. Once the archives
+ * take up more than the size limit, the least recently used ones are removed. Using an archive sets the
+ * modification time of an empty marker file next to it, which is what the removal goes by. The archive keeps
+ * its own time, which hard linked copies share.
+ * <p/>
+ * Archives are copied out of the cache, or hard linked if enabled and the Java version supports it (Java 7 and
+ * up). A hard linked archive shares its contents with the cached one, so it must be replaced rather than
+ * written to, which is what the archivers of this component do. Stored archives are made read-only, so that
+ * anything else writing into a linked copy fails instead of corrupting the cache.
+ *
+ * @version $Id$
+ */
+class ArchiveCache
+{
+    private static final String SUFFIX = ".jar";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String USED_SUFFIX = ".used";
+
+    /**
+     * Temporary files older than this were left behind by builds that failed, and are removed, as are markers
+     * of archives which are gone.
+     */
+    private static final long TEMP_FILE_MAX_AGE = 60 * 60 * 1000L;
+
+    private final File directory;
+
+    private final long maxSize;
+
+    private final boolean hardLinks;
+
+    /**
+     * @param directory the directory of the cache.
+     * @param maxSize the size the archives may take up, in bytes.
+     * @param hardLinks whether to hard link archives, rather than copying them.
+     */
+    ArchiveCache( File directory, long maxSize, boolean hardLinks )
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.hardLinks = hardLinks;
+    }
+
+    /**
+     * Replaces the target file with the archive stored under the key, if there is one.
+     *
+     * @return false if there is no archive for the key.
+     */
+    boolean fetch( String key, File target )
+        throws IOException
+    {
+        File cached = getFile( key );
+        if ( !cached.isFile() )
+        {
+            return false;
+        }
+        markUsed( key );
+
+        File dir = target.getAbsoluteFile().getParentFile();
+        if ( !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IOException( "Failed to create directory: " + dir );
+        }
+        File tmpFile = File.createTempFile( target.getName(), TEMP_SUFFIX, dir );
+        try
+        {
+            if ( !transfer( cached, tmpFile ) )
+            {
+                // removed by a concurrent build
+                return false;
+            }
+            FileReplacement.replace( tmpFile, target );
+            return true;
+        }
+        finally
+        {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Stores the archive under the key, unless another build already did, and removes the least recently used
+     * archives if the cache got too large.
+     */
+    void store( String key, File archive )
+        throws IOException
+    {
+        File cached = getFile( key );
+        if ( !cached.isFile() )
+        {
+            if ( !directory.isDirectory() && !directory.mkdirs() )
+            {
+                throw new IOException( "Failed to create directory: " + directory );
+            }
+            File tmpFile = File.createTempFile( key, TEMP_SUFFIX, directory );
+            try
+            {
+                if ( transfer( archive, tmpFile ) )
+                {
+                    // a link fails if another build was faster, while a rename would replace its archive
+                    if ( link( tmpFile, cached ) || ( !cached.isFile() && tmpFile.renameTo( cached ) ) )
+                    {
+                        // whatever writes into a linked copy fails, rather than changing the cached archive
+                        cached.setReadOnly();
+                        markUsed( key );
+                    }
+                }
+            }
+            finally
+            {
+                tmpFile.delete();
+            }
+        }
+        evict();
+    }
+
+    private File getFile( String key )
+    {
+        return new File( directory, key + SUFFIX );
+    }
+
+    /**
+     * @return the file in the same directory with the same name as the given one, but another suffix.
+     */
+    private static File replaceSuffix( File file, String suffix, String replacement )
+    {
+        String name = file.getName();
+        return new File( file.getParentFile(), name.substring( 0, name.length() - suffix.length() ) + replacement );
+    }
+
+    /**
+     * Sets the modification time of the marker of the archive stored under the key to now.
+     */
+    private void markUsed( String key )
+    {
+        File marker = replaceSuffix( getFile( key ), SUFFIX, USED_SUFFIX );
+        try
+        {
+            if ( !marker.setLastModified( System.currentTimeMillis() ) )
+            {
+                // not there yet
+                new FileOutputStream( marker ).close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // the time of the archive is used instead
+        }
+    }
+
+    /**
+     * Links or copies a file onto a temporary file.
+     *
+     * @return false if the source doesn't exist.
+     */
+    private boolean transfer( File source, File tmpFile )
+        throws IOException
+    {
+        if ( hardLinks )
+        {
+            tmpFile.delete();
+            if ( link( source, tmpFile ) )
+            {
+                return true;
+            }
+        }
+        if ( !source.isFile() )
+        {
+            return false;
+        }
+        FileUtils.copyFile( source, tmpFile );
+        return true;
+    }
+
+    /**
+     * Creates a hard link through <code>java.nio.file.Files</code>, if this Java version has it.
+     *
+     * @return false if the link couldn't be created.
+     */
+    static boolean link( File existing, File link )
+    {
+        try
+        {
+            Method toPath = File.class.getMethod( "toPath" );
+            Class<?> path = Class.forName( "java.nio.file.Path" );
+            Class<?> files = Class.forName( "java.nio.file.Files" );
+            files.getMethod( "createLink", path, path ).invoke( null, toPath.invoke( link ),
+                                                                 toPath.invoke( existing ) );
+            return true;
+        }
+        catch ( Exception e )
+        {
+            // not supported by the Java version or the file system, or the file is gone
+            return false;
+        }
+    }
+
+    /**
+     * Removes the least recently used archives until the others fit into the size limit, as well as temporary
+     * files left behind by failed builds.
+     */
+    void evict()
+    {
+        final long now = System.currentTimeMillis();
+        File[] archives = directory.listFiles( new FileFilter()
+        {
+            public boolean accept( File file )
+            {
+                String name = file.getName();
+                boolean orphan = name.endsWith( USED_SUFFIX ) && !replaceSuffix( file, USED_SUFFIX, SUFFIX ).exists();
+                if ( ( orphan || name.endsWith( TEMP_SUFFIX ) ) && now - file.lastModified() > TEMP_FILE_MAX_AGE )
+                {
+                    file.delete();
+                }
+                return file.getName().endsWith( SUFFIX ) && file.isFile();
+            }
+        } );
+        if ( archives == null )
+        {
+            return;
+        }
+
+        long size = 0;
+        final long[] lastModified = new long[archives.length];
+        for ( int i = 0; i < archives.length; i++ )
+        {
+            size += archives[i].length();
+            long used = replaceSuffix( archives[i], SUFFIX, USED_SUFFIX ).lastModified();
+            lastModified[i] = used != 0 ? used : archives[i].lastModified();
+        }
+        if ( size <= maxSize )
+        {
+            return;
+        }
+
+        // sort by the times read before, which concurrent builds may change while sorting
+        Integer[] order = new Integer[archives.length];
+        for ( int i = 0; i < order.length; i++ )
+        {
+            order[i] = i;
+        }
+        Arrays.sort( order, new Comparator<Integer>()
+        {
+            public int compare( Integer i1, Integer i2 )
+            {
+                long t1 = lastModified[i1];
+                long t2 = lastModified[i2];
+                return t1 < t2 ? -1 : ( t1 == t2 ? 0 : 1 );
+            }
+        } );
+        for ( int i = 0; i < order.length && size > maxSize; i++ )
+        {
+            File archive = archives[order[i]];
+            long length = archive.length();
+            if ( archive.delete() )
+            {
+                size -= length;
+                replaceSuffix( archive, SUFFIX, USED_SUFFIX ).delete();
+            }
+        }
+    }
+}
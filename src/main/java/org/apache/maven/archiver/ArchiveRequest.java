@@ -0,0 +1,80 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+
+/**
+ * One of the archives {@link MavenArchiver#createArchives(org.apache.maven.execution.MavenSession,
+ * org.apache.maven.project.MavenProject, java.util.List)} or a {@link ConcurrentMavenArchiver} creates: the file to
+ * create, the archiver holding its contents, and its configuration.
+ *
+ * @version $Id$
+ * @since 2.5.1
+ */
+public class ArchiveRequest
+{
+    private final File outputFile;
+
+    private final JarArchiver archiver;
+
+    private final MavenArchiveConfiguration configuration;
+
+    private CompressionStatistics compressionStatistics;
+
+    public ArchiveRequest( File outputFile, JarArchiver archiver, MavenArchiveConfiguration configuration )
+    {
+        this.outputFile = outputFile;
+        this.archiver = archiver;
+        this.configuration = configuration;
+    }
+
+    public File getOutputFile()
+    {
+        return outputFile;
+    }
+
+    public JarArchiver getArchiver()
+    {
+        return archiver;
+    }
+
+    public MavenArchiveConfiguration getConfiguration()
+    {
+        return configuration;
+    }
+
+    /**
+     * @return the statistics of the compression, once the archive is created, or null.
+     * @see MavenArchiver#getCompressionStatistics()
+     */
+    public CompressionStatistics getCompressionStatistics()
+    {
+        return compressionStatistics;
+    }
+
+    void setCompressionStatistics( CompressionStatistics compressionStatistics )
+    {
+        this.compressionStatistics = compressionStatistics;
+    }
+}
@@ -0,0 +1,146 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * The events an archiver emits for Java Flight Recorder. The recorder is only available on Java 8u262 and later,
+ * so its events live in <code>FlightRecorderEvents</code>, which is compiled for Java 8 from <code>src/main/jfr</code>
+ * and loaded by name, and every other JVM gets events that do nothing.
+ * <p>
+ * Each event is begun before, and committed after what it describes. Beginning one returns null unless its type is
+ * enabled in the recording, so disabled events cost a check, and committing null does nothing.
+ *
+ * @version $Id$
+ */
+abstract class ArchiverEvents
+{
+    private static final ArchiverEvents INSTANCE = load();
+
+    static ArchiverEvents getInstance()
+    {
+        return INSTANCE;
+    }
+
+    private static ArchiverEvents load()
+    {
+        try
+        {
+            Class.forName( "jdk.jfr.Event" );
+            Class<?> type = Class.forName( "org.apache.maven.archiver.FlightRecorderEvents" );
+            return (ArchiverEvents) type.getDeclaredConstructor().newInstance();
+        }
+        catch ( ClassNotFoundException e )
+        {
+            // no flight recorder, or the archiver was built without its events
+            return new DisabledEvents();
+        }
+        catch ( LinkageError e )
+        {
+            // a JVM older than the class files of the events, or not the recorder they were compiled against
+            return new DisabledEvents();
+        }
+        catch ( NoSuchMethodException e )
+        {
+            throw new IllegalStateException( "The flight recorder events have no default constructor", e );
+        }
+        catch ( InstantiationException e )
+        {
+            throw new IllegalStateException( "Unable to create the flight recorder events", e );
+        }
+        catch ( IllegalAccessException e )
+        {
+            throw new IllegalStateException( "Unable to create the flight recorder events", e );
+        }
+        catch ( InvocationTargetException e )
+        {
+            // the recorder failed to register the event types, e.g. as it's disabled
+            return new DisabledEvents();
+        }
+    }
+
+    /**
+     * @return the event of the creation of an archive, or null if it isn't enabled.
+     */
+    abstract Object beginArchive();
+
+    /**
+     * @param size the size of the entries, as far as it is known before they are read.
+     * @param compressedSize the size of the archive.
+     * @param upToDate whether the journal found the archive up to date.
+     * @param cached whether the archive was taken from the archive cache.
+     */
+    abstract void commitArchive( Object event, File file, String project, long entries, long size,
+                                 long compressedSize, boolean forced, boolean upToDate, boolean cached );
+
+    /**
+     * @return the event of the creation of a manifest, or null if it isn't enabled.
+     */
+    abstract Object beginManifest();
+
+    abstract void commitManifest( Object event, String project, int classpathElements, String layoutType );
+
+    /**
+     * @return the event of the compression of an entry, or null if it isn't enabled.
+     */
+    abstract Object beginEntry();
+
+    abstract void commitEntry( Object event, File archive, String name, long size, long compressedSize,
+                               boolean deflated );
+
+    /**
+     * The events of a JVM without the flight recorder, which are never enabled.
+     */
+    private static final class DisabledEvents
+        extends ArchiverEvents
+    {
+        Object beginArchive()
+        {
+            return null;
+        }
+
+        void commitArchive( Object event, File file, String project, long entries, long size, long compressedSize,
+                            boolean forced, boolean upToDate, boolean cached )
+        {
+        }
+
+        Object beginManifest()
+        {
+            return null;
+        }
+
+        void commitManifest( Object event, String project, int classpathElements, String layoutType )
+        {
+        }
+
+        Object beginEntry()
+        {
+            return null;
+        }
+
+        void commitEntry( Object event, File archive, String name, long size, long compressedSize,
+                          boolean deflated )
+        {
+        }
+    }
+}
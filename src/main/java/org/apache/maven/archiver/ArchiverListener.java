@@ -0,0 +1,45 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+/**
+ * Told about the phases of creating archives and manifests, and what they cost, by a {@link MavenArchiver} it is
+ * {@link MavenArchiver#setListener(ArchiverListener) registered} with. Phases are reported in the order they run
+ * in, and only the {@link ArchiverPhase#ARCHIVE archive} phase contains others. A phase that fails is started but
+ * not finished.
+ * <p>
+ * Listeners of archivers creating several archives at once, like
+ * {@link MavenArchiver#createArchives(org.apache.maven.execution.MavenSession, org.apache.maven.project.MavenProject,
+ * java.util.List)} or a shared {@link ConcurrentMavenArchiver}, are called from several threads.
+ *
+ * @version $Id$
+ * @since 2.5.1
+ */
+public interface ArchiverListener
+{
+    void phaseStarted( ArchiverPhase phase );
+
+    /**
+     * @param duration the time the phase took, in nanoseconds.
+     * @param counters what the phase processed.
+     */
+    void phaseFinished( ArchiverPhase phase, long duration, PhaseCounters counters );
+}
@@ -0,0 +1,77 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+/**
+ * The phases of {@link MavenArchiver#createArchive(org.apache.maven.execution.MavenSession,
+ * org.apache.maven.project.MavenProject, MavenArchiveConfiguration)} and of the creation of a manifest, as reported
+ * to an {@link ArchiverListener}.
+ *
+ * @version $Id$
+ * @since 2.5.1
+ */
+public enum ArchiverPhase
+{
+    /**
+     * The whole creation of an archive, which contains the other phases.
+     */
+    ARCHIVE,
+
+    /**
+     * Adding the <code>pom.xml</code> and creating the <code>pom.properties</code> file.
+     */
+    MAVEN_DESCRIPTOR,
+
+    /**
+     * Resolving the runtime classpath of the project, and checking which of its elements are files.
+     */
+    CLASSPATH,
+
+    /**
+     * Creating the manifest from the project and the configuration, or finding it in the manifest cache.
+     */
+    MANIFEST,
+
+    /**
+     * Comparing the inputs of the archive with the journal of the previous build.
+     */
+    JOURNAL,
+
+    /**
+     * Looking for an archive with the same inputs in the archive cache.
+     */
+    ARCHIVE_CACHE,
+
+    /**
+     * Creating the <code>INDEX.LIST</code>.
+     */
+    INDEX,
+
+    /**
+     * Creating the entry filter.
+     */
+    ENTRY_FILTER,
+
+    /**
+     * Compressing the entries and writing the archive.
+     */
+    WRITE
+}
@@ -0,0 +1,196 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The daemon threads the archivers of a JVM share for short parallel work, like checking the classpath,
+ * digesting the inputs and reading the jars to index, so that not every manifest or archive pays for starting
+ * threads of its own. The pool is created on first use, and its threads end after a minute without work.
+ * <p>
+ * The pool itself is unbounded, so that work submitted from its own threads can't starve; every caller bounds
+ * its own parallelism through {@link #submit(List, int)} or a {@link #newLimitedExecutor(int) limited executor}. Archives created in the background have a pool of
+ * their own, with a thread per processor.
+ *
+ * @version $Id$
+ */
+final class ArchiverThreads
+{
+    private static ExecutorService pool;
+
+    private static ExecutorService archivePool;
+
+    private ArchiverThreads()
+    {
+    }
+
+    private static synchronized ExecutorService getPool()
+    {
+        if ( pool == null )
+        {
+            pool = Executors.newCachedThreadPool( new DaemonThreadFactory( "maven-archiver-worker-" ) );
+        }
+        return pool;
+    }
+
+    /**
+     * @return the pool creating archives in the background, whose threads wait for work until the JVM exits.
+     */
+    static synchronized Executor getArchivePool()
+    {
+        if ( archivePool == null )
+        {
+            archivePool = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(),
+                                                        new DaemonThreadFactory( "maven-archiver-async-" ) );
+        }
+        return archivePool;
+    }
+
+    /**
+     * Runs tasks on at most the given number of threads of the shared pool, in the order they're given.
+     *
+     * @return the futures of the tasks, in the same order.
+     */
+    static <T> List<Future<T>> submit( List<? extends Callable<T>> tasks, int threads )
+    {
+        Executor executor = newLimitedExecutor( threads );
+        List<Future<T>> futures = new ArrayList<Future<T>>( tasks.size() );
+        for ( Callable<T> task : tasks )
+        {
+            FutureTask<T> future = new FutureTask<T>( task );
+            futures.add( future );
+            executor.execute( future );
+        }
+        return futures;
+    }
+
+    /**
+     * @return an executor which runs the tasks given to it on at most the given number of threads of the shared
+     *         pool, in the order they're given, and holds the others until a thread is done.
+     */
+    static Executor newLimitedExecutor( int threads )
+    {
+        return new LimitedExecutor( threads );
+    }
+
+    /**
+     * Cancels the tasks that haven't completed yet, interrupting those that are running.
+     */
+    static void cancel( List<? extends Future<?>> futures )
+    {
+        for ( Future<?> future : futures )
+        {
+            future.cancel( true );
+        }
+    }
+
+    private static final class LimitedExecutor
+        implements Executor, Runnable
+    {
+        private final int threads;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        LimitedExecutor( int threads )
+        {
+            this.threads = Math.max( threads, 1 );
+        }
+
+        public void execute( Runnable task )
+        {
+            tasks.add( task );
+            if ( acquire() )
+            {
+                getPool().execute( this );
+            }
+        }
+
+        /**
+         * Runs the held tasks until there are none left, on one of the threads this executor may use.
+         */
+        public void run()
+        {
+            while ( true )
+            {
+                Runnable task = tasks.poll();
+                if ( task == null )
+                {
+                    active.decrementAndGet();
+                    // a task given meanwhile may have found every thread busy
+                    if ( tasks.isEmpty() || !acquire() )
+                    {
+                        return;
+                    }
+                    continue;
+                }
+                // the interrupt cancelling the previous task is none of this one's business
+                Thread.interrupted();
+                task.run();
+            }
+        }
+
+        private boolean acquire()
+        {
+            for ( int n = active.get(); n < threads; n = active.get() )
+            {
+                if ( active.compareAndSet( n, n + 1 ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class DaemonThreadFactory
+        implements ThreadFactory
+    {
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory( String prefix )
+        {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread( Runnable r )
+        {
+            Thread thread = new Thread( r, prefix + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
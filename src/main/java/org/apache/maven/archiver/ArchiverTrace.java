@@ -0,0 +1,281 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Records what the archivers of a JVM do as spans on a timeline, one track per thread, and writes them in the
+ * trace event format of Chrome's <code>about:tracing</code> and Perfetto. The spans are the phases of creating
+ * archives and manifests, the entries compressed, and the time spent waiting for the compressing threads.
+ * <p>
+ * Tracing is meant for investigating builds, in particular parallel ones, where the archivers of several modules
+ * run at once. It's enabled by setting the system property {@value #PROPERTY} to the file to write the trace to,
+ * like <code>mvn -T 4 -Dmaven.archiver.trace=target/archiver-trace.json</code>. Otherwise, nothing is recorded.
+ * <p>
+ * The spans are written as they are recorded, through a buffer of {@value #BUFFER_SIZE} characters which is
+ * flushed once each archive is done, so the trace holds every finished archive even if the JVM is killed. The
+ * trace event format allows the list of events to be left open; it's closed when the JVM exits.
+ * <p>
+ * Tracing never gets in the way of the build: a trace that can't be written records nothing, silently. The events
+ * are formatted by the threads recording them, which only hold the lock of the trace to write them.
+ *
+ * @version $Id$
+ */
+class ArchiverTrace
+{
+    static final String PROPERTY = "maven.archiver.trace";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int PID = 1;
+
+    private static ArchiverTrace global;
+
+    private static boolean globalInitialized;
+
+    private final long origin = System.nanoTime();
+
+    private final Writer out;
+
+    /**
+     * The threads named in the trace so far.
+     */
+    private final Set<Long> threads = new HashSet<Long>();
+
+    /**
+     * Whether writing the trace failed, or it's closed, which stops recording.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Starts a trace, writing its spans to a buffer of {@value #BUFFER_SIZE} characters in front of the given writer.
+     */
+    ArchiverTrace( Writer out )
+        throws IOException
+    {
+        this.out = new BufferedWriter( out, BUFFER_SIZE );
+        this.out.write( "{\"displayTimeUnit\": \"ms\", \"traceEvents\": [\n" );
+        this.out.write( "{\"name\": \"process_name\", \"ph\": \"M\", \"pid\": " + PID
+            + ", \"args\": {\"name\": \"maven-archiver\"}}" );
+    }
+
+    /**
+     * @return the trace of this JVM, which is written to the file named by the system property {@value #PROPERTY},
+     *         or null if the property isn't set, or the file can't be opened, in which case nothing is traced.
+     */
+    static synchronized ArchiverTrace getGlobal()
+    {
+        if ( !globalInitialized )
+        {
+            globalInitialized = true;
+            String path = System.getProperty( PROPERTY );
+            if ( path != null && path.trim().length() > 0 )
+            {
+                final File file = new File( path.trim() ).getAbsoluteFile();
+                try
+                {
+                    global = open( file );
+                }
+                catch ( IOException e )
+                {
+                    return null;
+                }
+                final ArchiverTrace trace = global;
+                Runtime.getRuntime().addShutdownHook( new Thread( "maven-archiver-trace" )
+                {
+                    public void run()
+                    {
+                        trace.close();
+                    }
+                } );
+            }
+        }
+        return global;
+    }
+
+    /**
+     * Starts a trace written to a file.
+     */
+    static ArchiverTrace open( File file )
+        throws IOException
+    {
+        if ( file.getParentFile() != null )
+        {
+            FileUtils.mkdir( file.getParent() );
+        }
+        Writer out = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+        try
+        {
+            return new ArchiverTrace( out );
+        }
+        catch ( IOException e )
+        {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Records a phase of the current thread.
+     *
+     * @param start the {@link System#nanoTime()} the phase started at.
+     * @param label what the phase worked on, like the archive, or null.
+     */
+    void phase( ArchiverPhase phase, long start, long duration, PhaseCounters counters, String label )
+    {
+        StringBuilder args = new StringBuilder();
+        if ( label != null )
+        {
+            args.append( "\"file\": " ).append( CompositionReport.quote( label ) ).append( ", " );
+        }
+        args.append( "\"entries\": " ).append( counters.getEntries() );
+        args.append( ", \"bytesIn\": " ).append( counters.getBytesIn() );
+        args.append( ", \"bytesOut\": " ).append( counters.getBytesOut() );
+        args.append( ", \"classpathElements\": " ).append( counters.getClasspathElements() );
+        args.append( ", \"cacheHits\": " ).append( counters.getCacheHits() );
+        add( phase.name(), "phase", start, duration, args );
+    }
+
+    /**
+     * Records an entry read and, if <code>deflated</code>, compressed by the current thread.
+     */
+    void entry( String name, long start, long size, long compressedSize, boolean deflated )
+    {
+        long duration = System.nanoTime() - start;
+        StringBuilder args = new StringBuilder();
+        args.append( "\"name\": " ).append( CompositionReport.quote( name ) );
+        args.append( ", \"size\": " ).append( size );
+        args.append( ", \"compressedSize\": " ).append( compressedSize );
+        add( deflated ? "deflate" : "store", "entry", start, duration, args );
+    }
+
+    /**
+     * Records the current thread waiting for another one to compress an entry.
+     */
+    void waited( String name, long start )
+    {
+        long duration = System.nanoTime() - start;
+        add( "wait", "wait", start, duration, "\"name\": " + CompositionReport.quote( name ) );
+    }
+
+    /**
+     * Writes the spans recorded so far to the file.
+     */
+    synchronized void flush()
+    {
+        if ( !closed )
+        {
+            try
+            {
+                out.flush();
+            }
+            catch ( IOException e )
+            {
+                fail( e );
+            }
+        }
+    }
+
+    /**
+     * Ends the list of events, and closes the file. Nothing is recorded afterwards.
+     */
+    synchronized void close()
+    {
+        if ( !closed )
+        {
+            try
+            {
+                out.write( "\n]}\n" );
+                out.close();
+                closed = true;
+            }
+            catch ( IOException e )
+            {
+                fail( e );
+            }
+        }
+    }
+
+    private void add( String name, String category, long start, long duration, CharSequence args )
+    {
+        if ( closed )
+        {
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        long id = thread.getId();
+        String event = ",\n{\"name\": " + CompositionReport.quote( name ) + ", \"cat\": \"" + category
+            + "\", \"ph\": \"X\", \"pid\": " + PID + ", \"tid\": " + id + ", \"ts\": " + micros( start - origin )
+            + ", \"dur\": " + micros( duration ) + ", \"args\": {" + args + "}}";
+        synchronized ( this )
+        {
+            if ( closed )
+            {
+                return;
+            }
+            try
+            {
+                if ( threads.add( Long.valueOf( id ) ) )
+                {
+                    out.write( ",\n{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": " + PID + ", \"tid\": " + id
+                        + ", \"args\": {\"name\": " + CompositionReport.quote( thread.getName() ) + "}}" );
+                }
+                out.write( event );
+            }
+            catch ( IOException e )
+            {
+                fail( e );
+            }
+        }
+    }
+
+    /**
+     * Stops recording once the trace can't be written, leaving the file with the events written so far.
+     */
+    private void fail( IOException e )
+    {
+        closed = true;
+        try
+        {
+            out.close();
+        }
+        catch ( IOException ignored )
+        {
+            // the trace is given up already
+        }
+    }
+
+    private static String micros( long nanos )
+    {
+        return String.format( Locale.ENGLISH, "%.3f", Double.valueOf( nanos / 1000.0 ) );
+    }
+}
@@ -0,0 +1,504 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.codehaus.plexus.archiver.ArchiveEntry;
+import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.components.io.resources.PlexusIoResource;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Records the state of the inputs an archive was built from: the name, size, modification time and content
+ * digest of each resource, a digest of the settings (like the manifest), and the length of the archive. The
+ * archive is up to date, if it still has the recorded length, the settings didn't change, and the resources
+ * are the same: no resource was added or removed, and each resource either has the recorded size and
+ * modification time, or (if only the modification time differs) the recorded digest. Only these suspicious
+ * resources are read, on several threads.
+ *
+ * @version $Id$
+ */
+class BuildJournal
+{
+    static final String SUFFIX = ".journal";
+
+    private static final String FORMAT = "maven-archiver-journal-1";
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final String DIRECTORY = "-";
+
+    private final File file;
+
+    private final int threads;
+
+    /**
+     * The digests computed by the last check, so that recording the new state doesn't compute them again.
+     */
+    private final Map<String, Input> checked = new HashMap<String, Input>();
+
+    /**
+     * Whether the last check found inputs with new timestamps, but the old contents.
+     */
+    private boolean touched;
+
+    /**
+     * @param file the journal file.
+     * @param threads the number of threads computing digests.
+     */
+    BuildJournal( File file, int threads )
+    {
+        this.file = file;
+        this.threads = threads;
+    }
+
+    /**
+     * Compares the archive and its inputs with the journal.
+     *
+     * @param settings the digest of everything else the archive depends on, like the manifest.
+     * @return true, if the archive is up to date.
+     */
+    boolean isUpToDate( File archive, String settings, Iterator<ArchiveEntry> resources )
+        throws IOException, ArchiverException
+    {
+        checked.clear();
+        touched = false;
+        State recorded = load();
+        if ( recorded == null || !archive.isFile() || archive.length() != recorded.archiveLength
+            || !settings.equals( recorded.settings ) )
+        {
+            return false;
+        }
+
+        Map<String, ArchiveEntry> current = collect( resources );
+        if ( current.size() != recorded.inputs.size() )
+        {
+            // something was added or removed
+            return false;
+        }
+
+        List<ArchiveEntry> suspicious = new ArrayList<ArchiveEntry>();
+        for ( Map.Entry<String, ArchiveEntry> entry : current.entrySet() )
+        {
+            Input input = recorded.inputs.get( entry.getKey() );
+            if ( input == null )
+            {
+                return false;
+            }
+            Input now = describe( entry.getKey(), entry.getValue() );
+            if ( input.isDirectory() || now.isDirectory() )
+            {
+                if ( input.isDirectory() != now.isDirectory() )
+                {
+                    return false;
+                }
+            }
+            else if ( input.size != now.size )
+            {
+                return false;
+            }
+            else if ( input.lastModified != now.lastModified || now.lastModified == 0 )
+            {
+                suspicious.add( entry.getValue() );
+            }
+        }
+
+        for ( Input input : digest( suspicious ) )
+        {
+            checked.put( input.name, input );
+            if ( !input.digest.equals( recorded.inputs.get( input.name ).digest ) )
+            {
+                return false;
+            }
+        }
+        touched = !suspicious.isEmpty();
+        return true;
+    }
+
+    /**
+     * @return true if the last {@link #isUpToDate(File, String, Iterator) check} found the archive up to date,
+     *         but some of the inputs with new timestamps. Recording them saves reading them again next time.
+     */
+    boolean hasTouchedInputs()
+    {
+        return touched;
+    }
+
+    /**
+     * Removes the journal, so that a build that fails half way can't leave it behind for an outdated archive.
+     */
+    void delete()
+        throws IOException
+    {
+        if ( file.exists() && !file.delete() )
+        {
+            throw new IOException( "Failed to delete: " + file );
+        }
+    }
+
+    /**
+     * Records the archive and its inputs, after the archive was built. Digests are only computed for the
+     * resources that changed since the journal was last written.
+     */
+    void record( File archive, String settings, Iterator<ArchiveEntry> resources )
+        throws IOException, ArchiverException
+    {
+        Map<String, Input> inputs = getInputs( collect( resources ) );
+        checked.clear();
+
+        File dir = file.getParentFile();
+        if ( dir != null && !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IOException( "Failed to create directory: " + dir );
+        }
+        Writer writer = new OutputStreamWriter( new FileOutputStream( file ), ENCODING );
+        try
+        {
+            writer.write( FORMAT + "\n" );
+            writer.write( settings + "\n" );
+            writer.write( archive.length() + "\n" );
+            for ( Input input : inputs.values() )
+            {
+                writer.write( input.size + "\t" + input.lastModified + "\t" + input.digest + "\t" + input.name
+                    + "\n" );
+            }
+            writer.close();
+            writer = null;
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+    }
+
+    /**
+     * Computes a key for the contents of an archive: the digest of the settings, and of the name, mode and
+     * content digest of every resource. Like {@link #record(File, String, Iterator) recording} them, this only
+     * reads the resources that changed since the journal was last written, and the digests are kept for
+     * recording them after the archive is built.
+     */
+    String getInputKey( String settings, Iterator<ArchiveEntry> resources )
+        throws IOException, ArchiverException
+    {
+        Map<String, ArchiveEntry> current = collect( resources );
+        Map<String, Input> inputs = getInputs( current );
+        checked.clear();
+        checked.putAll( inputs );
+
+        StringBuilder key = new StringBuilder( settings ).append( '\n' );
+        for ( Input input : inputs.values() )
+        {
+            int mode = current.get( input.name ).getMode();
+            key.append( input.name ).append( '\t' ).append( Integer.toOctalString( mode ) ).append( '\t' );
+            key.append( input.digest ).append( '\n' );
+        }
+        return digest( new ByteArrayInputStream( key.toString().getBytes( ENCODING ) ) );
+    }
+
+    /**
+     * @return the state of the resources, with the digests known from the last check or the journal, and those
+     *         of the resources that changed since then.
+     */
+    private Map<String, Input> getInputs( Map<String, ArchiveEntry> current )
+        throws IOException
+    {
+        State recorded = load();
+        Map<String, Input> inputs = new LinkedHashMap<String, Input>( current.size() * 2 );
+        List<ArchiveEntry> changed = new ArrayList<ArchiveEntry>();
+        for ( Map.Entry<String, ArchiveEntry> entry : current.entrySet() )
+        {
+            String name = entry.getKey();
+            Input now = describe( name, entry.getValue() );
+            Input known = checked.get( name );
+            if ( known == null && recorded != null )
+            {
+                known = recorded.inputs.get( name );
+            }
+            if ( now.isDirectory() )
+            {
+                now.digest = DIRECTORY;
+            }
+            else if ( known != null && !known.isDirectory() && known.size == now.size
+                && known.lastModified == now.lastModified && now.lastModified != 0 )
+            {
+                now.digest = known.digest;
+            }
+            else
+            {
+                changed.add( entry.getValue() );
+            }
+            inputs.put( name, now );
+        }
+        for ( Input input : digest( changed ) )
+        {
+            inputs.get( input.name ).digest = input.digest;
+        }
+        return inputs;
+    }
+
+    /**
+     * @return the recorded state, or null if there is no journal, or it can't be read.
+     */
+    private State load()
+    {
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), ENCODING ) );
+            if ( !FORMAT.equals( reader.readLine() ) )
+            {
+                return null;
+            }
+            State state = new State();
+            state.settings = reader.readLine();
+            state.archiveLength = Long.parseLong( reader.readLine() );
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                String[] fields = line.split( "\t", 4 );
+                Input input = new Input( fields[3], DIRECTORY.equals( fields[2] ), Long.parseLong( fields[0] ),
+                                         Long.parseLong( fields[1] ) );
+                input.digest = fields[2];
+                state.inputs.put( input.name, input );
+            }
+            return state.settings == null ? null : state;
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+        catch ( RuntimeException e )
+        {
+            // a corrupt journal is as good as none
+            return null;
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+    }
+
+    /**
+     * @return the resources by name; like the archivers, only the first resource with a given name counts.
+     */
+    private static Map<String, ArchiveEntry> collect( Iterator<ArchiveEntry> resources )
+    {
+        Map<String, ArchiveEntry> entries = new LinkedHashMap<String, ArchiveEntry>();
+        while ( resources.hasNext() )
+        {
+            ArchiveEntry entry = resources.next();
+            String name = entry.getName().replace( '\\', '/' );
+            if ( !entries.containsKey( name ) )
+            {
+                entries.put( name, entry );
+            }
+        }
+        return entries;
+    }
+
+    private static Input describe( String name, ArchiveEntry entry )
+    {
+        if ( entry.getType() == ArchiveEntry.DIRECTORY )
+        {
+            return new Input( name, true, -1, 0 );
+        }
+        PlexusIoResource resource = entry.getResource();
+        long size = resource == null ? PlexusIoResource.UNKNOWN_RESOURCE_SIZE : resource.getSize();
+        long lastModified = resource == null ? PlexusIoResource.UNKNOWN_MODIFICATION_DATE
+                        : resource.getLastModified();
+        return new Input( name, false, size,
+                          lastModified == PlexusIoResource.UNKNOWN_MODIFICATION_DATE ? 0 : lastModified );
+    }
+
+    /**
+     * Computes the digests of the given resources, on several threads if there is more than one.
+     */
+    private List<Input> digest( final List<ArchiveEntry> entries )
+        throws IOException
+    {
+        List<Input> inputs = new ArrayList<Input>( entries.size() );
+        if ( threads <= 1 || entries.size() <= 1 )
+        {
+            for ( ArchiveEntry entry : entries )
+            {
+                inputs.add( digest( entry ) );
+            }
+            return inputs;
+        }
+
+        List<Callable<Input>> tasks = new ArrayList<Callable<Input>>( entries.size() );
+        for ( final ArchiveEntry entry : entries )
+        {
+            tasks.add( new Callable<Input>()
+            {
+                public Input call()
+                    throws IOException
+                {
+                    return digest( entry );
+                }
+            } );
+        }
+        List<Future<Input>> futures = ArchiverThreads.submit( tasks, threads );
+        try
+        {
+            for ( Future<Input> future : futures )
+            {
+                try
+                {
+                    inputs.add( future.get() );
+                }
+                catch ( ExecutionException e )
+                {
+                    Throwable cause = e.getCause();
+                    if ( cause instanceof IOException )
+                    {
+                        throw (IOException) cause;
+                    }
+                    if ( cause instanceof RuntimeException )
+                    {
+                        throw (RuntimeException) cause;
+                    }
+                    if ( cause instanceof Error )
+                    {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException( cause );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException( "Interrupted while computing digests" );
+                }
+            }
+            return inputs;
+        }
+        finally
+        {
+            ArchiverThreads.cancel( futures );
+        }
+    }
+
+    private static Input digest( ArchiveEntry entry )
+        throws IOException
+    {
+        Input input = describe( entry.getName().replace( '\\', '/' ), entry );
+        InputStream in = entry.getInputStream();
+        try
+        {
+            input.digest = digest( in );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+        return input;
+    }
+
+    /**
+     * @return the hex encoded SHA-1 digest of the stream contents.
+     */
+    static String digest( InputStream in )
+        throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-1" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-1 not supported by this JVM" );
+        }
+        byte[] buffer = new byte[16 * 1024];
+        int n;
+        while ( ( n = in.read( buffer ) ) > 0 )
+        {
+            digest.update( buffer, 0, n );
+        }
+        byte[] bytes = digest.digest();
+        StringBuilder hex = new StringBuilder( bytes.length * 2 );
+        for ( byte b : bytes )
+        {
+            hex.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) );
+            hex.append( Character.forDigit( b & 0xf, 16 ) );
+        }
+        return hex.toString();
+    }
+
+    private static final class State
+    {
+        private String settings;
+
+        private long archiveLength;
+
+        private final Map<String, Input> inputs = new HashMap<String, Input>();
+    }
+
+    private static final class Input
+    {
+        private final String name;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final boolean directory;
+
+        private String digest;
+
+        Input( String name, boolean directory, long size, long lastModified )
+        {
+            this.name = name;
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean isDirectory()
+        {
+            return directory;
+        }
+    }
+}
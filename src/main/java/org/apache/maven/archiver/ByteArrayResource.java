@@ -0,0 +1,58 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URL;
+
+import org.codehaus.plexus.components.io.resources.AbstractPlexusIoResource;
+
+/**
+ * A resource held in memory, which is added to an archive without writing it to a file first.
+ *
+ * @version $Id$
+ */
+class ByteArrayResource
+    extends AbstractPlexusIoResource
+{
+    private final byte[] contents;
+
+    ByteArrayResource( String name, byte[] contents, long lastModified )
+    {
+        this.contents = contents;
+        setName( name );
+        setSize( contents.length );
+        setLastModified( lastModified );
+        setExisting( true );
+        setFile( true );
+    }
+
+    public InputStream getContents()
+    {
+        return new ByteArrayInputStream( contents );
+    }
+
+    public URL getURL()
+    {
+        return null;
+    }
+}
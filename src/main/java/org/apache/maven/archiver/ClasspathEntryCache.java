@@ -0,0 +1,337 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.codehaus.plexus.archiver.jar.ManifestException;
+
+/**
+ * A bounded cache of rendered <code>Class-Path</code> entries, keyed by the artifact coordinates, the
+ * classpath layout (which implies the layout type and the unique versions flag) and the classpath prefix.
+ * In a reactor most modules share the same dependencies, so the {@link #getSharedInstance() shared instance}
+ * used by all {@link MavenArchiver}s saves rendering the same entries over and over. The least recently
+ * used entries are evicted once the cache is full. Instances are thread safe.
+ * <p>
+ * The elements of a {@link ClasspathSnapshot} remember their last entry as well, so the manifests of several
+ * archives resolving the classpath once don't even look it up in here.
+ *
+ * @version $Id$
+ * @since 2.5.1
+ */
+public class ClasspathEntryCache
+{
+    /**
+     * The maximum number of entries of the shared instance, unless overridden by the
+     * <code>maven.archiver.classpathCache.maxEntries</code> system property.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final ClasspathEntryCache SHARED_INSTANCE =
+        new ClasspathEntryCache( Integer.getInteger( "maven.archiver.classpathCache.maxEntries",
+                                                     DEFAULT_MAX_ENTRIES ).intValue() );
+
+    private final Map<Key, String> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries the number of entries above which the least recently used ones are evicted.
+     */
+    public ClasspathEntryCache( final int maxEntries )
+    {
+        if ( maxEntries < 0 )
+        {
+            throw new IllegalArgumentException( "maxEntries must not be negative: " + maxEntries );
+        }
+        this.entries = new LinkedHashMap<Key, String>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry( Map.Entry<Key, String> eldest )
+            {
+                if ( size() > maxEntries )
+                {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by all archivers in this JVM, and thus by all modules of a reactor build.
+     */
+    public static ClasspathEntryCache getSharedInstance()
+    {
+        return SHARED_INSTANCE;
+    }
+
+    /**
+     * Appends the classpath prefix, followed by the path of the artifact of a classpath element formatted with
+     * the given layout. The element remembers its entry for the next manifest of the same snapshot, so that only
+     * the first one looks it up in the cache.
+     *
+     * @param layoutKey the classpath prefix and layout, created once per manifest.
+     */
+    void append( StringBuilder buffer, LayoutKey layoutKey, ClasspathSnapshot.Element element )
+        throws ManifestException
+    {
+        Artifact artifact = element.getArtifact();
+        ClasspathLayout layout = layoutKey.layout;
+        if ( !layout.isCompiled() )
+        {
+            // the interpolated layouts may depend on any property of the artifact
+            buffer.append( layoutKey.classpathPrefix );
+            layout.appendTo( buffer, artifact );
+            return;
+        }
+
+        String entry = element.getEntry( layoutKey );
+        if ( entry != null )
+        {
+            hits.incrementAndGet();
+            buffer.append( entry );
+            return;
+        }
+
+        Key key = new Key( layoutKey, artifact );
+        synchronized ( entries )
+        {
+            entry = entries.get( key );
+        }
+
+        if ( entry != null )
+        {
+            hits.incrementAndGet();
+        }
+        else
+        {
+            misses.incrementAndGet();
+            int mark = buffer.length();
+            buffer.append( layoutKey.classpathPrefix );
+            layout.appendTo( buffer, artifact );
+            entry = buffer.substring( mark );
+            buffer.setLength( mark );
+            synchronized ( entries )
+            {
+                entries.put( key, entry );
+            }
+        }
+        buffer.append( entry );
+        element.setEntry( layoutKey, entry );
+    }
+
+    /**
+     * @return the number of entries served from the cache.
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of entries that had to be rendered.
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entries evicted to keep the cache within its bounds.
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of entries currently cached.
+     */
+    public int size()
+    {
+        synchronized ( entries )
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Removes all entries and resets the counters.
+     */
+    public void clear()
+    {
+        synchronized ( entries )
+        {
+            entries.clear();
+        }
+        hits.set( 0 );
+        misses.set( 0 );
+        evictions.set( 0 );
+    }
+
+    public String toString()
+    {
+        return "ClasspathEntryCache[size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+            + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * The classpath prefix and the layout the entries of a manifest are rendered with, which is hashed once
+     * rather than for every entry.
+     */
+    static final class LayoutKey
+    {
+        private final String classpathPrefix;
+
+        private final ClasspathLayout layout;
+
+        private final int hashCode;
+
+        LayoutKey( String classpathPrefix, ClasspathLayout layout )
+        {
+            this.classpathPrefix = classpathPrefix;
+            this.layout = layout;
+            this.hashCode = 31 * Key.hash( classpathPrefix ) + layout.getLayout().hashCode();
+        }
+
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        public boolean equals( Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+            if ( !( o instanceof LayoutKey ) )
+            {
+                return false;
+            }
+            LayoutKey k = (LayoutKey) o;
+            return hashCode == k.hashCode && Key.eq( classpathPrefix, k.classpathPrefix )
+                && ( layout == k.layout || layout.getLayout().equals( k.layout.getLayout() ) );
+        }
+    }
+
+    /**
+     * Everything a compiled layout may depend on. Only the prefix, the layout and the coordinates are hashed,
+     * the other properties rarely differ between artifacts with the same coordinates.
+     */
+    private static final class Key
+    {
+        private final LayoutKey layoutKey;
+
+        private final String groupId;
+
+        private final String artifactId;
+
+        private final String version;
+
+        private final String baseVersion;
+
+        private final String classifier;
+
+        private final String type;
+
+        private final String scope;
+
+        private final String handlerClassifier;
+
+        private final String extension;
+
+        private final int hashCode;
+
+        Key( LayoutKey layoutKey, Artifact artifact )
+        {
+            this.layoutKey = layoutKey;
+            this.groupId = artifact.getGroupId();
+            this.artifactId = artifact.getArtifactId();
+            this.version = artifact.getVersion();
+            if ( layoutKey.layout.usesBaseVersion() )
+            {
+                // same query as the layout does, see ClasspathLayout#appendTo
+                artifact.isSnapshot();
+                this.baseVersion = artifact.getBaseVersion();
+            }
+            else
+            {
+                this.baseVersion = null;
+            }
+            this.classifier = artifact.getClassifier();
+            this.type = artifact.getType();
+            this.scope = artifact.getScope();
+            ArtifactHandler handler = artifact.getArtifactHandler();
+            this.handlerClassifier = handler == null ? null : handler.getClassifier();
+            this.extension = handler == null ? null : handler.getExtension();
+
+            int h = layoutKey.hashCode;
+            h = 31 * h + hash( groupId );
+            h = 31 * h + hash( artifactId );
+            h = 31 * h + hash( version );
+            h = 31 * h + hash( classifier );
+            this.hashCode = h;
+        }
+
+        static int hash( String s )
+        {
+            return s == null ? 0 : s.hashCode();
+        }
+
+        static boolean eq( String a, String b )
+        {
+            return a == null ? b == null : a.equals( b );
+        }
+
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        public boolean equals( Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+            if ( !( o instanceof Key ) )
+            {
+                return false;
+            }
+            Key k = (Key) o;
+            return hashCode == k.hashCode && eq( artifactId, k.artifactId ) && eq( version, k.version )
+                && eq( groupId, k.groupId ) && eq( classifier, k.classifier ) && layoutKey.equals( k.layoutKey )
+                && eq( baseVersion, k.baseVersion ) && eq( type, k.type ) && eq( scope, k.scope )
+                && eq( handlerClassifier, k.handlerClassifier ) && eq( extension, k.extension );
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.codehaus.plexus.archiver.jar.ManifestException;
+import org.codehaus.plexus.interpolation.InterpolationException;
+import org.codehaus.plexus.interpolation.PrefixAwareRecursionInterceptor;
+import org.codehaus.plexus.interpolation.PrefixedObjectValueSource;
+import org.codehaus.plexus.interpolation.PrefixedPropertiesValueSource;
+import org.codehaus.plexus.interpolation.StringSearchInterpolator;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * A classpath layout expression, compiled into a sequence of literal and expression segments.
+ * The well known expressions (<code>artifact.groupId</code>, <code>artifact.version</code>,
+ * <code>groupIdPath</code>, <code>dashClassifier?</code>, ...) are resolved through the typed
+ * accessors of the artifact and appended straight to the target buffer. Layouts using any other
+ * expression are interpolated the same way as before, against the artifact, its handler and the
+ * extra classpath expressions.
+ *
+ * @version $Id$
+ */
+final class ClasspathLayout
+{
+    private static final String ARTIFACT_PREFIX = "artifact.";
+
+    private static final List<String> ARTIFACT_EXPRESSION_PREFIXES = Collections.singletonList( ARTIFACT_PREFIX );
+
+    private static final String START_EXPR = "${";
+
+    private static final String END_EXPR = "}";
+
+    static final ClasspathLayout SIMPLE = compile( MavenArchiver.SIMPLE_LAYOUT );
+
+    static final ClasspathLayout SIMPLE_NONUNIQUE = compile( MavenArchiver.SIMPLE_LAYOUT_NONUNIQUE );
+
+    static final ClasspathLayout REPOSITORY = compile( MavenArchiver.REPOSITORY_LAYOUT );
+
+    static final ClasspathLayout REPOSITORY_NONUNIQUE = compile( MavenArchiver.REPOSITORY_LAYOUT_NONUNIQUE );
+
+    private static final int MAX_CUSTOM_LAYOUTS = 64;
+
+    /**
+     * The custom layouts compiled so far, which all the archivers of a (parallel) build share.
+     */
+    private static final Map<String, ClasspathLayout> CUSTOM_LAYOUTS =
+        new LinkedHashMap<String, ClasspathLayout>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry( Map.Entry<String, ClasspathLayout> eldest )
+            {
+                return size() > MAX_CUSTOM_LAYOUTS;
+            }
+        };
+
+    /**
+     * The properties a compiled layout knows how to resolve without reflection.
+     */
+    private enum Property
+    {
+        GROUP_ID, ARTIFACT_ID, VERSION, BASE_VERSION, CLASSIFIER, TYPE, SCOPE, EXTENSION, GROUP_ID_PATH,
+        DASH_CLASSIFIER
+    }
+
+    private final String layout;
+
+    private final String[] literals;
+
+    private final Property[] properties;
+
+    private final String[] expressions;
+
+    private final boolean interpolated;
+
+    private final boolean usesBaseVersion;
+
+    private ClasspathLayout( String layout, String[] literals, Property[] properties, String[] expressions,
+                             boolean interpolated )
+    {
+        this.layout = layout;
+        this.literals = literals;
+        this.properties = properties;
+        this.expressions = expressions;
+        this.interpolated = interpolated;
+
+        boolean baseVersion = false;
+        for ( Property property : properties )
+        {
+            baseVersion |= property == Property.BASE_VERSION;
+        }
+        this.usesBaseVersion = baseVersion;
+    }
+
+    /**
+     * Returns the compiled layout to use for the given manifest configuration.
+     *
+     * @throws ManifestException if the layout type is unknown, or a custom layout is missing.
+     */
+    static ClasspathLayout forConfiguration( ManifestConfiguration config )
+        throws ManifestException
+    {
+        String layoutType = config.getClasspathLayoutType();
+        if ( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_SIMPLE.equals( layoutType ) )
+        {
+            return config.isUseUniqueVersions() ? SIMPLE : SIMPLE_NONUNIQUE;
+        }
+        else if ( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_REPOSITORY.equals( layoutType ) )
+        {
+            // we use layout /$groupId[0]/../${groupId[n]/$artifactId/$version/{fileName}
+            // here we must find the Artifact in the project Artifacts to generate the maven layout
+            return config.isUseUniqueVersions() ? REPOSITORY : REPOSITORY_NONUNIQUE;
+        }
+        else if ( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_CUSTOM.equals( layoutType ) )
+        {
+            String layout = config.getCustomClasspathLayout();
+            if ( layout == null )
+            {
+                throw new ManifestException( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_CUSTOM
+                                                 + " layout type was declared, but custom layout expression was not specified. Check your <archive><manifest><customLayout/> element." );
+            }
+            synchronized ( CUSTOM_LAYOUTS )
+            {
+                ClasspathLayout compiled = CUSTOM_LAYOUTS.get( layout );
+                if ( compiled == null )
+                {
+                    compiled = compile( layout );
+                    CUSTOM_LAYOUTS.put( layout, compiled );
+                }
+                return compiled;
+            }
+        }
+        else
+        {
+            throw new ManifestException( "Unknown classpath layout type: '" + layoutType
+                                             + "'. Check your <archive><manifest><layoutType/> element." );
+        }
+    }
+
+    /**
+     * Compiles the given layout expression.
+     */
+    static ClasspathLayout compile( String layout )
+    {
+        List<String> literals = new ArrayList<String>();
+        List<Property> properties = new ArrayList<Property>();
+        List<String> expressions = new ArrayList<String>();
+        boolean interpolated = false;
+
+        int pos = 0;
+        StringBuilder literal = new StringBuilder();
+        while ( pos < layout.length() )
+        {
+            int start = layout.indexOf( START_EXPR, pos );
+            int end = start < 0 ? -1 : layout.indexOf( END_EXPR, start + START_EXPR.length() );
+            if ( end < 0 )
+            {
+                literal.append( layout, pos, layout.length() );
+                break;
+            }
+
+            literal.append( layout, pos, start );
+            String expression = layout.substring( start + START_EXPR.length(), end );
+            Property property = toProperty( expression );
+            if ( property == null )
+            {
+                interpolated = true;
+                literal.append( layout, start, end + END_EXPR.length() );
+            }
+            else
+            {
+                literals.add( literal.toString() );
+                literal.setLength( 0 );
+                properties.add( property );
+                expressions.add( layout.substring( start, end + END_EXPR.length() ) );
+            }
+            pos = end + END_EXPR.length();
+        }
+        literals.add( literal.toString() );
+
+        return new ClasspathLayout( layout, literals.toArray( new String[literals.size()] ),
+                                    properties.toArray( new Property[properties.size()] ),
+                                    expressions.toArray( new String[expressions.size()] ), interpolated );
+    }
+
+    private static Property toProperty( String expression )
+    {
+        String name = expression.startsWith( ARTIFACT_PREFIX )
+            ? expression.substring( ARTIFACT_PREFIX.length() )
+            : expression;
+
+        if ( "groupId".equals( name ) )
+        {
+            return Property.GROUP_ID;
+        }
+        else if ( "artifactId".equals( name ) )
+        {
+            return Property.ARTIFACT_ID;
+        }
+        else if ( "version".equals( name ) )
+        {
+            return Property.VERSION;
+        }
+        else if ( "baseVersion".equals( name ) )
+        {
+            return Property.BASE_VERSION;
+        }
+        else if ( "classifier".equals( name ) )
+        {
+            return Property.CLASSIFIER;
+        }
+        else if ( "type".equals( name ) )
+        {
+            return Property.TYPE;
+        }
+        else if ( "scope".equals( name ) )
+        {
+            return Property.SCOPE;
+        }
+        else if ( "extension".equals( name ) )
+        {
+            return Property.EXTENSION;
+        }
+        else if ( "groupIdPath".equals( name ) )
+        {
+            return Property.GROUP_ID_PATH;
+        }
+        else if ( "dashClassifier".equals( name ) || "dashClassifier?".equals( name ) )
+        {
+            return Property.DASH_CLASSIFIER;
+        }
+        return null;
+    }
+
+    /**
+     * @return the layout expression this instance was compiled from.
+     */
+    String getLayout()
+    {
+        return layout;
+    }
+
+    /**
+     * @return true if the layout resolves all of its expressions through the typed accessors of the artifact,
+     *         false if it needs the interpolator.
+     */
+    boolean isCompiled()
+    {
+        return !interpolated;
+    }
+
+    /**
+     * @return true if the layout refers to the base version of the artifact.
+     */
+    boolean usesBaseVersion()
+    {
+        return usesBaseVersion;
+    }
+
+    /**
+     * Appends the path of the given artifact, formatted according to this layout, to the buffer.
+     */
+    void appendTo( StringBuilder buffer, Artifact artifact )
+        throws ManifestException
+    {
+        if ( interpolated )
+        {
+            buffer.append( interpolate( artifact ) );
+            return;
+        }
+
+        if ( usesBaseVersion )
+        {
+            // FIXME: This query method SHOULD NOT affect the internal
+            // state of the artifact version, but it does.
+            artifact.isSnapshot();
+        }
+
+        int mark = buffer.length();
+        for ( int i = 0; i < properties.length; i++ )
+        {
+            buffer.append( literals[i] );
+            if ( !append( buffer, artifact, properties[i] ) )
+            {
+                // unresolved expressions are kept as they are
+                buffer.append( expressions[i] );
+            }
+        }
+        buffer.append( literals[properties.length] );
+
+        if ( buffer.indexOf( START_EXPR, mark ) >= 0 )
+        {
+            // a resolved value refers to yet another expression, which only the interpolator can deal with
+            buffer.setLength( mark );
+            buffer.append( interpolate( artifact ) );
+        }
+    }
+
+    private static boolean append( StringBuilder buffer, Artifact artifact, Property property )
+    {
+        ArtifactHandler handler;
+        switch ( property )
+        {
+            case GROUP_ID:
+                return append( buffer, artifact.getGroupId() );
+            case ARTIFACT_ID:
+                return append( buffer, artifact.getArtifactId() );
+            case VERSION:
+                return append( buffer, artifact.getVersion() );
+            case BASE_VERSION:
+                return append( buffer, artifact.getBaseVersion() )
+                    || ( !artifact.isSnapshot() && append( buffer, artifact.getVersion() ) );
+            case CLASSIFIER:
+                handler = artifact.getArtifactHandler();
+                return append( buffer, artifact.getClassifier() )
+                    || ( handler != null && append( buffer, handler.getClassifier() ) );
+            case TYPE:
+                return append( buffer, artifact.getType() );
+            case SCOPE:
+                return append( buffer, artifact.getScope() );
+            case EXTENSION:
+                handler = artifact.getArtifactHandler();
+                return handler != null && append( buffer, handler.getExtension() );
+            case GROUP_ID_PATH:
+                String groupId = artifact.getGroupId();
+                if ( groupId == null )
+                {
+                    return false;
+                }
+                for ( int i = 0; i < groupId.length(); i++ )
+                {
+                    char c = groupId.charAt( i );
+                    buffer.append( c == '.' ? '/' : c );
+                }
+                return true;
+            case DASH_CLASSIFIER:
+                String classifier = artifact.getClassifier();
+                if ( StringUtils.isNotEmpty( classifier ) )
+                {
+                    buffer.append( '-' ).append( classifier );
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean append( StringBuilder buffer, String value )
+    {
+        if ( value == null )
+        {
+            return false;
+        }
+        buffer.append( value );
+        return true;
+    }
+
+    /**
+     * Formats the artifact path with the plexus interpolator, for layouts that use expressions
+     * the compiled form can't resolve on its own.
+     */
+    private String interpolate( Artifact artifact )
+        throws ManifestException
+    {
+        StringSearchInterpolator interpolator = new StringSearchInterpolator();
+        interpolator.addValueSource( new PrefixedObjectValueSource( ARTIFACT_EXPRESSION_PREFIXES, artifact, true ) );
+        interpolator.addValueSource(
+            new PrefixedObjectValueSource( ARTIFACT_EXPRESSION_PREFIXES, artifact.getArtifactHandler(), true ) );
+
+        Properties extraExpressions = new Properties();
+        // FIXME: This query method SHOULD NOT affect the internal
+        // state of the artifact version, but it does.
+        if ( !artifact.isSnapshot() )
+        {
+            extraExpressions.setProperty( "baseVersion", artifact.getVersion() );
+        }
+
+        extraExpressions.setProperty( "groupIdPath", artifact.getGroupId().replace( '.', '/' ) );
+        if ( StringUtils.isNotEmpty( artifact.getClassifier() ) )
+        {
+            extraExpressions.setProperty( "dashClassifier", "-" + artifact.getClassifier() );
+            extraExpressions.setProperty( "dashClassifier?", "-" + artifact.getClassifier() );
+        }
+        else
+        {
+            extraExpressions.setProperty( "dashClassifier", "" );
+            extraExpressions.setProperty( "dashClassifier?", "" );
+        }
+        interpolator.addValueSource(
+            new PrefixedPropertiesValueSource( ARTIFACT_EXPRESSION_PREFIXES, extraExpressions, true ) );
+
+        try
+        {
+            return interpolator.interpolate( layout,
+                                             new PrefixAwareRecursionInterceptor( ARTIFACT_EXPRESSION_PREFIXES ) );
+        }
+        catch ( InterpolationException e )
+        {
+            ManifestException error =
+                new ManifestException( "Error interpolating artifact path for classpath entry: " + e.getMessage() );
+
+            error.initCause( e );
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * An immutable view of the runtime classpath of a project, resolved once per archive. Each element
+ * carries its file attributes and the project artifact it belongs to, so that the <code>Class-Path</code>
+ * builder and the index jar registration don't have to query the project (or the file system) again.
+ *
+ * @version $Id$
+ */
+class ClasspathSnapshot
+{
+    private final List<Element> elements;
+
+    private ClasspathSnapshot( List<Element> elements )
+    {
+        this.elements = Collections.unmodifiableList( elements );
+    }
+
+    /**
+     * Resolves the runtime classpath elements of the given project and matches them against
+     * the project artifacts.
+     */
+    public static ClasspathSnapshot create( MavenProject project )
+        throws DependencyResolutionRequiredException
+    {
+        return create( project, 1, FileProbe.DEFAULT );
+    }
+
+    /**
+     * Resolves the runtime classpath elements of the given project and matches them against
+     * the project artifacts.
+     *
+     * @param threads the number of threads checking the elements for existence, 1 or less to check them
+     *            on the calling thread.
+     */
+    public static ClasspathSnapshot create( MavenProject project, int threads )
+        throws DependencyResolutionRequiredException
+    {
+        return create( project, threads, FileProbe.DEFAULT );
+    }
+
+    static ClasspathSnapshot create( MavenProject project, int threads, FileProbe probe )
+        throws DependencyResolutionRequiredException
+    {
+        @SuppressWarnings( "unchecked" )
+        List<String> paths = project.getRuntimeClasspathElements();
+        @SuppressWarnings( "unchecked" )
+        Set<Artifact> artifacts = project.getArtifacts();
+
+        File[] files = new File[paths.size()];
+        for ( int i = 0; i < files.length; i++ )
+        {
+            files[i] = new File( paths.get( i ) );
+        }
+
+        boolean[] isFile = threads > 1 && files.length > 1
+            ? probeInParallel( files, threads, probe )
+            : probe( files, 0, files.length, probe, new boolean[files.length] );
+
+        ArtifactIndex index = new ArtifactIndex( artifacts );
+
+        List<Element> elements = new ArrayList<Element>( files.length );
+        for ( int i = 0; i < files.length; i++ )
+        {
+            // only regular files make it into the Class-Path, directories don't need an artifact
+            Artifact artifact = isFile[i] ? index.find( files[i] ) : null;
+            elements.add( new Element( paths.get( i ), files[i], isFile[i], artifact ) );
+        }
+        return new ClasspathSnapshot( elements );
+    }
+
+    private static boolean[] probe( File[] files, int from, int to, FileProbe probe, boolean[] result )
+    {
+        for ( int i = from; i < to; i++ )
+        {
+            result[i] = probe.isFile( files[i] );
+        }
+        return result;
+    }
+
+    /**
+     * Checks the files in batches on the {@link ArchiverThreads shared threads}. Every batch writes its own slice
+     * of the result, so the classpath order is kept no matter in which order the batches complete.
+     */
+    private static boolean[] probeInParallel( final File[] files, int threads, final FileProbe probe )
+    {
+        final boolean[] result = new boolean[files.length];
+        int poolSize = Math.min( threads, files.length );
+        int batchSize = ( files.length + poolSize - 1 ) / poolSize;
+
+        List<Callable<boolean[]>> tasks = new ArrayList<Callable<boolean[]>>( poolSize );
+        for ( int from = 0; from < files.length; from += batchSize )
+        {
+            final int start = from;
+            final int end = Math.min( from + batchSize, files.length );
+            tasks.add( new Callable<boolean[]>()
+            {
+                public boolean[] call()
+                {
+                    return probe( files, start, end, probe, result );
+                }
+            } );
+        }
+        List<Future<boolean[]>> batches = ArchiverThreads.submit( tasks, poolSize );
+        try
+        {
+            for ( Future<boolean[]> batch : batches )
+            {
+                try
+                {
+                    batch.get();
+                }
+                catch ( ExecutionException e )
+                {
+                    Throwable cause = e.getCause();
+                    if ( cause instanceof RuntimeException )
+                    {
+                        throw (RuntimeException) cause;
+                    }
+                    if ( cause instanceof Error )
+                    {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException( cause );
+                }
+                catch ( InterruptedException e )
+                {
+                    // finish on this thread, and leave the interruption to the caller
+                    Thread.currentThread().interrupt();
+                    ArchiverThreads.cancel( batches );
+                    return probe( files, 0, files.length, probe, new boolean[files.length] );
+                }
+            }
+            return result;
+        }
+        finally
+        {
+            ArchiverThreads.cancel( batches );
+        }
+    }
+
+    /**
+     * @return the runtime classpath elements, in classpath order.
+     */
+    public List<Element> getElements()
+    {
+        return elements;
+    }
+
+    /**
+     * Checks whether a classpath element is a regular file.
+     */
+    interface FileProbe
+    {
+        FileProbe DEFAULT = new FileProbe()
+        {
+            public boolean isFile( File file )
+            {
+                return file.getAbsoluteFile().isFile();
+            }
+        };
+
+        boolean isFile( File file );
+    }
+
+    /**
+     * A single runtime classpath element.
+     */
+    static final class Element
+    {
+        private final String path;
+
+        private final File file;
+
+        private final boolean isFile;
+
+        private final Artifact artifact;
+
+        /**
+         * The last rendered <code>Class-Path</code> entry, for the {@link ClasspathEntryCache}.
+         */
+        private volatile RenderedEntry entry;
+
+        Element( String path, File file, boolean isFile, Artifact artifact )
+        {
+            this.path = path;
+            this.file = file;
+            this.isFile = isFile;
+            this.artifact = artifact;
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+
+        /**
+         * @return true if the element denotes an existing regular file (as opposed to a directory).
+         */
+        public boolean isFile()
+        {
+            return isFile;
+        }
+
+        /**
+         * @return the project artifact whose file is this element, or null if there is none.
+         */
+        public Artifact getArtifact()
+        {
+            return artifact;
+        }
+
+        /**
+         * @return the entry rendered for the given prefix and layout, or null if it wasn't.
+         */
+        String getEntry( ClasspathEntryCache.LayoutKey layoutKey )
+        {
+            RenderedEntry rendered = entry;
+            return rendered != null && rendered.layoutKey.equals( layoutKey ) ? rendered.entry : null;
+        }
+
+        void setEntry( ClasspathEntryCache.LayoutKey layoutKey, String entry )
+        {
+            this.entry = new RenderedEntry( layoutKey, entry );
+        }
+    }
+
+    /**
+     * A <code>Class-Path</code> entry, and the prefix and layout it was rendered with.
+     */
+    private static final class RenderedEntry
+    {
+        private final ClasspathEntryCache.LayoutKey layoutKey;
+
+        private final String entry;
+
+        RenderedEntry( ClasspathEntryCache.LayoutKey layoutKey, String entry )
+        {
+            this.layoutKey = layoutKey;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Hash index of the project artifacts by file. Lookups first try the file exactly as given (which
+     * is what the artifact resolution usually hands out), and fall back to the canonical file, which is
+     * only computed for the artifacts once it is actually needed.
+     */
+    private static final class ArtifactIndex
+    {
+        private final Set<Artifact> artifacts;
+
+        private final Map<File, Artifact> byFile;
+
+        private Map<File, Artifact> byCanonicalFile;
+
+        ArtifactIndex( Set<Artifact> artifacts )
+        {
+            this.artifacts = artifacts;
+            this.byFile = new HashMap<File, Artifact>( artifacts.size() * 2 );
+            for ( Artifact artifact : artifacts )
+            {
+                // normally not null but we can check
+                File file = artifact.getFile();
+                if ( file != null && !byFile.containsKey( file ) )
+                {
+                    byFile.put( file, artifact );
+                }
+            }
+        }
+
+        Artifact find( File file )
+        {
+            Artifact artifact = byFile.get( file );
+            if ( artifact == null && !byFile.isEmpty() )
+            {
+                if ( byCanonicalFile == null )
+                {
+                    byCanonicalFile = new HashMap<File, Artifact>( artifacts.size() * 2 );
+                    for ( Artifact candidate : artifacts )
+                    {
+                        File candidateFile = candidate.getFile();
+                        if ( candidateFile != null )
+                        {
+                            File key = canonical( candidateFile );
+                            if ( !byCanonicalFile.containsKey( key ) )
+                            {
+                                byCanonicalFile.put( key, candidate );
+                            }
+                        }
+                    }
+                }
+                artifact = byCanonicalFile.get( canonical( file ) );
+            }
+            return artifact;
+        }
+
+        private static File canonical( File file )
+        {
+            try
+            {
+                return file.getCanonicalFile();
+            }
+            catch ( IOException e )
+            {
+                return file.getAbsoluteFile();
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * A JSON report of what an archive consists of, read from its central directory: the entries and their raw and
+ * compressed sizes, by top level directory and by package, and the largest entries. Where the time spent deflating
+ * the entries is known, it's added up as well.
+ * <p>
+ * The groups and the entries are sorted by their compressed size, largest first. The root directory and package
+ * are named by the empty string, and the ratios are the compressed sizes divided by the raw ones.
+ *
+ * @version $Id$
+ */
+class CompositionReport
+{
+    static final String SUFFIX = ".composition.json";
+
+    /**
+     * The number of entries listed as the largest.
+     */
+    static final int LARGEST_ENTRIES = 20;
+
+    private static final Comparator<Group> BY_COMPRESSED_SIZE = new Comparator<Group>()
+    {
+        public int compare( Group a, Group b )
+        {
+            if ( a.compressedSize != b.compressedSize )
+            {
+                return a.compressedSize > b.compressedSize ? -1 : 1;
+            }
+            return a.name.compareTo( b.name );
+        }
+    };
+
+    private final File archive;
+
+    private final Group total = new Group( "" );
+
+    private final Map<String, Group> directories = new HashMap<String, Group>();
+
+    private final Map<String, Group> packages = new HashMap<String, Group>();
+
+    private final List<Group> entries = new ArrayList<Group>();
+
+    private final boolean timed;
+
+    /**
+     * @param deflateTimes the nanoseconds spent deflating the entries, by name, or null if unknown.
+     */
+    private CompositionReport( File archive, ZipDirectory directory, Map<String, Long> deflateTimes )
+    {
+        this.archive = archive;
+        this.timed = deflateTimes != null;
+        for ( ZipDirectory.Entry entry : directory.getEntries() )
+        {
+            if ( entry.isDirectory() )
+            {
+                continue;
+            }
+            String name = entry.getName();
+            Long time = deflateTimes != null ? deflateTimes.get( name ) : null;
+            long deflateTime = time != null ? time.longValue() : 0;
+
+            Group file = new Group( name );
+            file.add( entry, deflateTime );
+            entries.add( file );
+            total.add( entry, deflateTime );
+
+            int slash = name.indexOf( '/' );
+            group( directories, slash < 0 ? "" : name.substring( 0, slash ) ).add( entry, deflateTime );
+            int lastSlash = name.lastIndexOf( '/' );
+            group( packages, lastSlash < 0 ? "" : name.substring( 0, lastSlash ) ).add( entry, deflateTime );
+        }
+    }
+
+    /**
+     * @return the file the report of the given archive is written to, in the <code>maven-archiver</code> directory.
+     */
+    static File getFile( File buildDirectory, File archive )
+    {
+        return new File( new File( buildDirectory, "maven-archiver" ), archive.getName() + SUFFIX );
+    }
+
+    /**
+     * Writes the report of an archive.
+     *
+     * @param deflateTimes the nanoseconds spent deflating the entries, by name, or null if unknown.
+     */
+    static void write( File archive, Map<String, Long> deflateTimes, File reportFile )
+        throws IOException
+    {
+        CompositionReport report = new CompositionReport( archive, ZipDirectory.read( archive ), deflateTimes );
+        FileUtils.mkdir( reportFile.getParent() );
+        Writer out = new OutputStreamWriter( new FileOutputStream( reportFile ), "UTF-8" );
+        try
+        {
+            report.write( out );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static Group group( Map<String, Group> groups, String name )
+    {
+        Group group = groups.get( name );
+        if ( group == null )
+        {
+            group = new Group( name );
+            groups.put( name, group );
+        }
+        return group;
+    }
+
+    private void write( Writer out )
+        throws IOException
+    {
+        out.write( "{\n" );
+        out.write( "  \"archive\": " + quote( archive.getName() ) + ",\n" );
+        out.write( "  \"archiveSize\": " + archive.length() + ",\n" );
+        out.write( "  \"deflateTimesKnown\": " + timed + ",\n" );
+        out.write( "  \"total\": " );
+        total.write( out, timed );
+        out.write( ",\n  \"directories\": " );
+        write( out, directories.values(), Integer.MAX_VALUE );
+        out.write( ",\n  \"packages\": " );
+        write( out, packages.values(), Integer.MAX_VALUE );
+        out.write( ",\n  \"largestEntries\": " );
+        write( out, entries, LARGEST_ENTRIES );
+        out.write( "\n}\n" );
+    }
+
+    private void write( Writer out, Collection<Group> groups, int limit )
+        throws IOException
+    {
+        List<Group> sorted = new ArrayList<Group>( groups );
+        Collections.sort( sorted, BY_COMPRESSED_SIZE );
+        out.write( "[" );
+        for ( int i = 0; i < sorted.size() && i < limit; i++ )
+        {
+            out.write( i == 0 ? "\n    " : ",\n    " );
+            sorted.get( i ).write( out, timed );
+        }
+        out.write( sorted.isEmpty() ? "]" : "\n  ]" );
+    }
+
+    static String quote( String s )
+    {
+        StringBuilder buffer = new StringBuilder( s.length() + 2 );
+        buffer.append( '"' );
+        for ( int i = 0; i < s.length(); i++ )
+        {
+            char c = s.charAt( i );
+            if ( c == '"' || c == '\\' )
+            {
+                buffer.append( '\\' ).append( c );
+            }
+            else if ( c < 0x20 )
+            {
+                buffer.append( String.format( "\\u%04x", Integer.valueOf( c ) ) );
+            }
+            else
+            {
+                buffer.append( c );
+            }
+        }
+        return buffer.append( '"' ).toString();
+    }
+
+    /**
+     * The entries of a directory or package, or a single entry.
+     */
+    private static final class Group
+    {
+        private final String name;
+
+        private int entries;
+
+        private long size;
+
+        private long compressedSize;
+
+        private long deflateTime;
+
+        Group( String name )
+        {
+            this.name = name;
+        }
+
+        void add( ZipDirectory.Entry entry, long time )
+        {
+            entries++;
+            size += entry.getSize();
+            compressedSize += entry.getCompressedSize();
+            deflateTime += time;
+        }
+
+        void write( Writer out, boolean timed )
+            throws IOException
+        {
+            double ratio = size > 0 ? (double) compressedSize / size : 1;
+            out.write( "{\"name\": " + quote( name ) + ", \"entries\": " + entries + ", \"rawBytes\": " + size
+                + ", \"compressedBytes\": " + compressedSize + ", \"ratio\": "
+                + String.format( Locale.ENGLISH, "%.4f", Double.valueOf( ratio ) ) );
+            if ( timed )
+            {
+                out.write( ", \"deflateNanos\": " + deflateTime );
+            }
+            out.write( "}" );
+        }
+    }
+}
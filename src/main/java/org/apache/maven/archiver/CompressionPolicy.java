@@ -0,0 +1,166 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.zip.Deflater;
+
+/**
+ * Decides from the first bytes of an entry whether deflating it is worth the time. Data in a compressed format,
+ * recognized by its magic bytes, is stored as it is. For anything else, the entropy of the sample tells whether
+ * deflating is sure to save enough; if it isn't, a trial compression of the sample decides. Nested archives are
+ * among the latter, since their entries may be stored rather than compressed.
+ *
+ * @version $Id$
+ */
+class CompressionPolicy
+{
+    /**
+     * The number of bytes the entropy and the trial compression are computed from, at most.
+     */
+    static final int SAMPLE_SIZE = 16 * 1024;
+
+    /**
+     * Samples which are smaller than this are always deflated, there's too little to judge from.
+     */
+    private static final int MIN_SAMPLE_SIZE = 256;
+
+    private static final byte[][] MAGIC_BYTES = {
+        { 'P', 'K', 5, 6 }, // empty zip
+        { (byte) 0x1f, (byte) 0x8b, 8 }, // gzip, which is always deflated
+        { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' }, // png
+        { (byte) 0xff, (byte) 0xd8, (byte) 0xff }, // jpeg
+        { 'G', 'I', 'F', '8' }, // gif
+        { 'B', 'Z', 'h' }, // bzip2
+        { (byte) 0xfd, '7', 'z', 'X', 'Z', 0 }, // xz
+        { '7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c }, // 7z
+        { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd }, // zstd
+        { 'w', 'O', 'F', 'F' }, // woff
+        { 'w', 'O', 'F', '2' }, // woff2
+    };
+
+    private final int minSavings;
+
+    private final byte[] trialBuffer = new byte[4096];
+
+    /**
+     * @param minSavings the percentage by which deflating must shrink an entry for it to be deflated.
+     */
+    CompressionPolicy( int minSavings )
+    {
+        this.minSavings = minSavings;
+    }
+
+    /**
+     * Decides whether to deflate an entry. This method isn't thread safe, every thread needs a policy of its own.
+     *
+     * @param sample the first bytes of the entry.
+     * @param length the number of bytes in the sample.
+     * @param deflater a deflater for the trial compression, which is reset afterwards.
+     * @param statistics receives the time spent on a trial compression.
+     * @return true if the entry should be deflated, false if it should be stored.
+     */
+    boolean shouldDeflate( byte[] sample, int length, Deflater deflater, CompressionStatistics statistics )
+    {
+        if ( isCompressedFormat( sample, length ) )
+        {
+            return false;
+        }
+        if ( length < MIN_SAMPLE_SIZE )
+        {
+            return true;
+        }
+        length = Math.min( length, SAMPLE_SIZE );
+
+        // Huffman coding alone gets the size down to the entropy, so there's no need to try
+        if ( 100 - 100 * entropy( sample, length ) / 8 >= minSavings )
+        {
+            return true;
+        }
+
+        long start = System.nanoTime();
+        deflater.reset();
+        deflater.setInput( sample, 0, length );
+        deflater.finish();
+        long compressed = 0;
+        while ( !deflater.finished() )
+        {
+            compressed += deflater.deflate( trialBuffer );
+        }
+        deflater.reset();
+        statistics.addTrial( length, System.nanoTime() - start );
+
+        return 100 * ( length - compressed ) >= (long) minSavings * length;
+    }
+
+    /**
+     * @return true if the data starts with the magic bytes of a compressed format.
+     */
+    static boolean isCompressedFormat( byte[] data, int length )
+    {
+        for ( byte[] magic : MAGIC_BYTES )
+        {
+            if ( startsWith( data, length, magic ) )
+            {
+                return true;
+            }
+        }
+        // webp is a riff container
+        return length >= 12 && data[0] == 'R' && data[1] == 'I' && data[2] == 'F' && data[3] == 'F'
+            && data[8] == 'W' && data[9] == 'E' && data[10] == 'B' && data[11] == 'P';
+    }
+
+    private static boolean startsWith( byte[] data, int length, byte[] prefix )
+    {
+        if ( length < prefix.length )
+        {
+            return false;
+        }
+        for ( int i = 0; i < prefix.length; i++ )
+        {
+            if ( data[i] != prefix[i] )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the Shannon entropy of the bytes, between 0 and 8 bits per byte.
+     */
+    static double entropy( byte[] data, int length )
+    {
+        int[] counts = new int[256];
+        for ( int i = 0; i < length; i++ )
+        {
+            counts[data[i] & 0xff]++;
+        }
+        double entropy = 0;
+        for ( int count : counts )
+        {
+            if ( count > 0 )
+            {
+                double p = (double) count / length;
+                entropy -= p * Math.log( p );
+            }
+        }
+        return entropy / Math.log( 2 );
+    }
+}
@@ -0,0 +1,180 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * What the compression of an archive cost and gained. Only the entries read from their source are counted, not
+ * those copied over from a previous archive. With adaptive compression, the time not spent deflating the stored
+ * entries is estimated from the time it took to deflate the others.
+ *
+ * @version $Id$
+ * @since 2.5.1
+ */
+public final class CompressionStatistics
+{
+    private int deflatedEntries;
+
+    private int storedEntries;
+
+    private long deflatedSize;
+
+    private long deflatedCompressedSize;
+
+    private long storedSize;
+
+    private long deflateTime;
+
+    private long trialSize;
+
+    private long trialTime;
+
+    private long mappedBytes;
+
+    private long streamedBytes;
+
+    synchronized void addDeflated( long size, long compressedSize, long time )
+    {
+        deflatedEntries++;
+        deflatedSize += size;
+        deflatedCompressedSize += compressedSize;
+        deflateTime += time;
+    }
+
+    synchronized void addStored( long size )
+    {
+        storedEntries++;
+        storedSize += size;
+    }
+
+    synchronized void addTrial( long size, long time )
+    {
+        trialSize += size;
+        trialTime += time;
+    }
+
+    synchronized void addRead( long size, boolean mapped )
+    {
+        if ( mapped )
+        {
+            mappedBytes += size;
+        }
+        else
+        {
+            streamedBytes += size;
+        }
+    }
+
+    /**
+     * @return the number of entries which were deflated.
+     */
+    public synchronized int getDeflatedEntries()
+    {
+        return deflatedEntries;
+    }
+
+    /**
+     * @return the number of entries which were stored without compressing them.
+     */
+    public synchronized int getStoredEntries()
+    {
+        return storedEntries;
+    }
+
+    /**
+     * @return the uncompressed size of all entries, in bytes.
+     */
+    public synchronized long getSize()
+    {
+        return deflatedSize + storedSize;
+    }
+
+    /**
+     * @return the size of all entries in the archive, in bytes.
+     */
+    public synchronized long getCompressedSize()
+    {
+        return deflatedCompressedSize + storedSize;
+    }
+
+    /**
+     * @return the number of bytes saved by deflating entries.
+     */
+    public synchronized long getSavedBytes()
+    {
+        return deflatedSize - deflatedCompressedSize;
+    }
+
+    /**
+     * @return the number of bytes which were stored without deflating them.
+     */
+    public synchronized long getStoredBytes()
+    {
+        return storedSize;
+    }
+
+    /**
+     * @return the time spent deflating, in nanoseconds, including the trial compressions.
+     */
+    public synchronized long getDeflateTime()
+    {
+        return deflateTime + trialTime;
+    }
+
+    /**
+     * @return the time, in nanoseconds, it would have taken to deflate the stored entries as well, at the rate the
+     *         other entries were deflated, less the time spent on trial compressions. Zero if nothing was deflated
+     *         to measure the rate from.
+     */
+    public synchronized long getAvoidedDeflateTime()
+    {
+        long measuredSize = deflatedSize + trialSize;
+        if ( measuredSize == 0 )
+        {
+            return 0;
+        }
+        double nanosPerByte = (double) ( deflateTime + trialTime ) / measuredSize;
+        return Math.max( 0, (long) ( storedSize * nanosPerByte ) - trialTime );
+    }
+
+    /**
+     * @return the number of bytes read from sources through memory mappings.
+     * @see MavenArchiveConfiguration#setMappedInputThreshold(int)
+     */
+    public synchronized long getMappedBytes()
+    {
+        return mappedBytes;
+    }
+
+    /**
+     * @return the number of bytes read from sources through streams.
+     */
+    public synchronized long getStreamedBytes()
+    {
+        return streamedBytes;
+    }
+
+    public synchronized String toString()
+    {
+        return deflatedEntries + " entries deflated, saving " + getSavedBytes() + " bytes in "
+            + getDeflateTime() / 1000000 + " ms; " + storedEntries + " entries (" + storedSize
+            + " bytes) stored, avoiding about " + getAvoidedDeflateTime() / 1000000 + " ms of compression; "
+            + mappedBytes + " bytes read through memory mappings, " + streamedBytes + " through streams";
+    }
+}
@@ -0,0 +1,176 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.archiver.jar.Manifest;
+import org.codehaus.plexus.archiver.jar.ManifestException;
+
+/**
+ * A variant of {@link MavenArchiver} which keeps no state of the archives it creates: each of them travels in an
+ * {@link ArchiveRequest}. A single instance can thus be shared by the modules of a parallel build, which then also
+ * share its caches.
+ * <p>
+ * The archives of one project are created one after another, since they share the files of its
+ * <code>maven-archiver</code> directory (<code>pom.properties</code>, the manifest cache); those of different
+ * projects are created concurrently.
+ *
+ * @version $Id$
+ * @since 2.5.1
+ */
+public final class ConcurrentMavenArchiver
+{
+    private static final ConcurrentMavenArchiver SHARED_INSTANCE =
+        new ConcurrentMavenArchiver( ClasspathEntryCache.getSharedInstance() );
+
+    /**
+     * What creates the archives, which has neither an archiver nor an output file of its own.
+     */
+    private final MavenArchiver engine = new MavenArchiver();
+
+    /**
+     * The locks of the build directories of the projects, so that one project writes a single archive at a time.
+     * A lock is removed once no thread holds or waits for it.
+     */
+    private final Map<File, DirectoryLock> locks = new HashMap<File, DirectoryLock>();
+
+    /**
+     * @param classpathEntryCache the cache of the classpath entries of the manifests.
+     */
+    public ConcurrentMavenArchiver( ClasspathEntryCache classpathEntryCache )
+    {
+        this( classpathEntryCache, null );
+    }
+
+    /**
+     * @param classpathEntryCache the cache of the classpath entries of the manifests.
+     * @param listener what to tell about the phases of creating archives and manifests, from any thread, or null.
+     */
+    public ConcurrentMavenArchiver( ClasspathEntryCache classpathEntryCache, ArchiverListener listener )
+    {
+        engine.setClasspathEntryCache( classpathEntryCache );
+        engine.setListener( listener );
+    }
+
+    /**
+     * @return the instance using the shared classpath entry cache.
+     */
+    public static ConcurrentMavenArchiver getSharedInstance()
+    {
+        return SHARED_INSTANCE;
+    }
+
+    public ClasspathEntryCache getClasspathEntryCache()
+    {
+        return engine.getClasspathEntryCache();
+    }
+
+    public ArchiverListener getListener()
+    {
+        return engine.getListener();
+    }
+
+    /**
+     * @see MavenArchiver#getManifest(MavenSession, MavenProject, MavenArchiveConfiguration)
+     */
+    public Manifest getManifest( MavenSession session, MavenProject project, MavenArchiveConfiguration config )
+        throws ManifestException, DependencyResolutionRequiredException
+    {
+        return engine.getManifest( session, project, config );
+    }
+
+    /**
+     * Creates the archive of a request, and stores the statistics of its compression in the request.
+     *
+     * @param request the archive to create; its archiver may not be used by anything else until it's done.
+     * @see MavenArchiver#createArchive(MavenSession, MavenProject, MavenArchiveConfiguration)
+     */
+    public void createArchive( MavenSession session, MavenProject project, ArchiveRequest request )
+        throws ArchiverException, ManifestException, IOException, DependencyResolutionRequiredException
+    {
+        File directory = new File( project.getBuild().getDirectory() ).getAbsoluteFile();
+        DirectoryLock lock = acquireLock( directory );
+        try
+        {
+            synchronized ( lock )
+            {
+                engine.createArchive( session, project, request, null );
+            }
+        }
+        finally
+        {
+            releaseLock( directory, lock );
+        }
+    }
+
+    /**
+     * @return the number of build directories currently locked or waited for.
+     */
+    int getLockCount()
+    {
+        synchronized ( locks )
+        {
+            return locks.size();
+        }
+    }
+
+    private DirectoryLock acquireLock( File directory )
+    {
+        synchronized ( locks )
+        {
+            DirectoryLock lock = locks.get( directory );
+            if ( lock == null )
+            {
+                lock = new DirectoryLock();
+                locks.put( directory, lock );
+            }
+            lock.users++;
+            return lock;
+        }
+    }
+
+    private void releaseLock( File directory, DirectoryLock lock )
+    {
+        synchronized ( locks )
+        {
+            if ( --lock.users == 0 )
+            {
+                locks.remove( directory );
+            }
+        }
+    }
+
+    /**
+     * The lock of a build directory, which counts the threads holding or waiting for it.
+     */
+    private static final class DirectoryLock
+    {
+        private int users;
+    }
+}
@@ -0,0 +1,338 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * A Bloom filter of the entry names of a jar, including the names of all the directories (packages) they are in.
+ * It tells for sure that a jar doesn't contain an entry, so class loaders which search a chain of jars can skip
+ * the jars that can't have it without looking into their central directories. A name the filter might contain
+ * is in the jar, except for a small share of false positives.
+ * <p>
+ * The filter is stored in the jar as {@link #RESOURCE_NAME}, which the main attribute {@link #MANIFEST_ATTRIBUTE}
+ * of the manifest points to. The format is a big endian int {@link #MAGIC}, a version byte, the number of hash
+ * functions as a byte, the number of bits as an int, and the bits as longs. The hashes are computed from the
+ * UTF-8 bytes of the names, so they don't depend on the JVM.
+ * </p>
+ *
+ * @version $Id$
+ * @since 2.5.1
+ */
+public final class EntryFilter
+{
+    /**
+     * The name of the entry holding the filter.
+     */
+    public static final String RESOURCE_NAME = "META-INF/ENTRIES.FILTER";
+
+    /**
+     * The manifest attribute naming the entry holding the filter.
+     */
+    public static final String MANIFEST_ATTRIBUTE = "Entry-Filter";
+
+    /**
+     * The first bytes of a serialized filter.
+     */
+    public static final int MAGIC = 0x454e5446;
+
+    /**
+     * The share of false positives {@link #create(Collection)} aims at.
+     */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int VERSION = 1;
+
+    private static final int MAX_HASH_COUNT = 16;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int hashCount;
+
+    private final long[] bits;
+
+    private EntryFilter( int hashCount, long[] bits )
+    {
+        this.hashCount = hashCount;
+        this.bits = bits;
+    }
+
+    /**
+     * Creates a filter with {@link #DEFAULT_FALSE_POSITIVE_RATE}.
+     *
+     * @param names the names of the entries, with directory names ending with a slash.
+     */
+    public static EntryFilter create( Collection<String> names )
+    {
+        return create( names, DEFAULT_FALSE_POSITIVE_RATE );
+    }
+
+    /**
+     * Creates a filter of the names and their parent directories.
+     *
+     * @param names the names of the entries, with directory names ending with a slash.
+     * @param falsePositiveRate the share of names not in the jar the filter should wrongly report, between 0 and 1.
+     */
+    public static EntryFilter create( Collection<String> names, double falsePositiveRate )
+    {
+        if ( falsePositiveRate <= 0 || falsePositiveRate >= 1 )
+        {
+            throw new IllegalArgumentException( "The false positive rate must be between 0 and 1" );
+        }
+        Set<String> all = new HashSet<String>( names.size() * 2 );
+        for ( String name : names )
+        {
+            all.add( name );
+            for ( int i = name.indexOf( '/' ); i >= 0 && i < name.length() - 1; i = name.indexOf( '/', i + 1 ) )
+            {
+                all.add( name.substring( 0, i + 1 ) );
+            }
+        }
+
+        // the optimal size and number of hash functions for the number of names
+        int count = Math.max( all.size(), 1 );
+        double ln2 = Math.log( 2 );
+        long bitCount = (long) Math.ceil( -count * Math.log( falsePositiveRate ) / ( ln2 * ln2 ) );
+        int words = (int) Math.min( Math.max( ( bitCount + 63 ) / 64, 1 ), Integer.MAX_VALUE / 64 );
+        int hashCount = (int) Math.max( 1, Math.min( MAX_HASH_COUNT, Math.round( words * 64.0 / count * ln2 ) ) );
+
+        EntryFilter filter = new EntryFilter( hashCount, new long[words] );
+        for ( String name : all )
+        {
+            filter.add( name );
+        }
+        return filter;
+    }
+
+    /**
+     * Reads a filter written by {@link #write(OutputStream)}.
+     *
+     * @throws IOException if the stream can't be read, or doesn't hold a filter this class understands.
+     */
+    public static EntryFilter read( InputStream in )
+        throws IOException
+    {
+        DataInputStream data = new DataInputStream( in );
+        if ( data.readInt() != MAGIC )
+        {
+            throw new IOException( "Not an entry filter" );
+        }
+        int version = data.readUnsignedByte();
+        if ( version != VERSION )
+        {
+            throw new IOException( "Unsupported entry filter version: " + version );
+        }
+        int hashCount = data.readUnsignedByte();
+        int bitCount = data.readInt();
+        if ( hashCount == 0 || bitCount <= 0 || bitCount % 64 != 0 )
+        {
+            throw new IOException( "Corrupt entry filter" );
+        }
+        long[] bits = new long[bitCount / 64];
+        for ( int i = 0; i < bits.length; i++ )
+        {
+            bits[i] = data.readLong();
+        }
+        return new EntryFilter( hashCount, bits );
+    }
+
+    /**
+     * Reads the filter the manifest of a jar points to.
+     *
+     * @return the filter, or null if the jar has none.
+     * @throws IOException if the jar can't be read, or holds a corrupt filter.
+     */
+    public static EntryFilter read( JarFile jar )
+        throws IOException
+    {
+        Manifest manifest = jar.getManifest();
+        String name = manifest == null ? null : manifest.getMainAttributes().getValue( MANIFEST_ATTRIBUTE );
+        ZipEntry entry = name == null ? null : jar.getEntry( name );
+        if ( entry == null )
+        {
+            return null;
+        }
+        InputStream in = jar.getInputStream( entry );
+        try
+        {
+            return read( in );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the filter, without closing the stream.
+     */
+    public void write( OutputStream out )
+        throws IOException
+    {
+        DataOutputStream data = new DataOutputStream( out );
+        data.writeInt( MAGIC );
+        data.writeByte( VERSION );
+        data.writeByte( hashCount );
+        data.writeInt( bits.length * 64 );
+        for ( long word : bits )
+        {
+            data.writeLong( word );
+        }
+        data.flush();
+    }
+
+    byte[] toByteArray()
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( 10 + bits.length * 8 );
+        write( out );
+        return out.toByteArray();
+    }
+
+    /**
+     * @param name the name of an entry, with a directory name ending with a slash.
+     * @return false if the jar doesn't contain the entry, true if it probably does.
+     */
+    public boolean mightContain( String name )
+    {
+        long hash = hash( name );
+        int h1 = (int) hash;
+        int h2 = (int) ( hash >>> 32 );
+        long bitCount = bits.length * 64L;
+        for ( int i = 0; i < hashCount; i++ )
+        {
+            long bit = index( h1 + i * h2, bitCount );
+            if ( ( bits[(int) ( bit >>> 6 )] & ( 1L << bit ) ) == 0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param packageName the name of a package, such as <code>org.apache.maven</code>.
+     * @return false if the jar has no entries in the package, true if it probably has.
+     */
+    public boolean mightContainPackage( String packageName )
+    {
+        return mightContain( packageName.replace( '.', '/' ) + "/" );
+    }
+
+    /**
+     * @return the number of hash functions.
+     */
+    public int getHashCount()
+    {
+        return hashCount;
+    }
+
+    /**
+     * @return the size of the filter in bits.
+     */
+    public int getBitCount()
+    {
+        return bits.length * 64;
+    }
+
+    private void add( String name )
+    {
+        long hash = hash( name );
+        int h1 = (int) hash;
+        int h2 = (int) ( hash >>> 32 );
+        long bitCount = bits.length * 64L;
+        for ( int i = 0; i < hashCount; i++ )
+        {
+            long bit = index( h1 + i * h2, bitCount );
+            bits[(int) ( bit >>> 6 )] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Maps a hash to a bit, by the high bits of a product, which is cheaper than a remainder.
+     */
+    private static long index( int hash, long bitCount )
+    {
+        return ( hash & 0xffffffffL ) * bitCount >>> 32;
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the UTF-8 bytes, with the final mix of MurmurHash3 to spread the bits of short names.
+     * The bytes are encoded on the fly, since lookups are meant to be cheaper than a probe of the jar.
+     */
+    private static long hash( String name )
+    {
+        long hash = 0xcbf29ce484222325L;
+        int length = name.length();
+        for ( int i = 0; i < length; i++ )
+        {
+            int c = name.charAt( i );
+            if ( c < 0x80 )
+            {
+                hash = ( hash ^ c ) * FNV_PRIME;
+            }
+            else if ( c < 0x800 )
+            {
+                hash = ( hash ^ ( 0xc0 | c >> 6 ) ) * FNV_PRIME;
+                hash = ( hash ^ ( 0x80 | c & 0x3f ) ) * FNV_PRIME;
+            }
+            else
+            {
+                if ( Character.isHighSurrogate( (char) c ) && i + 1 < length
+                    && Character.isLowSurrogate( name.charAt( i + 1 ) ) )
+                {
+                    c = Character.toCodePoint( (char) c, name.charAt( ++i ) );
+                    hash = ( hash ^ ( 0xf0 | c >> 18 ) ) * FNV_PRIME;
+                    hash = ( hash ^ ( 0x80 | c >> 12 & 0x3f ) ) * FNV_PRIME;
+                }
+                else
+                {
+                    if ( c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE )
+                    {
+                        // an unpaired surrogate, which String.getBytes() replaces with a question mark
+                        hash = ( hash ^ '?' ) * FNV_PRIME;
+                        continue;
+                    }
+                    hash = ( hash ^ ( 0xe0 | c >> 12 ) ) * FNV_PRIME;
+                }
+                hash = ( hash ^ ( 0x80 | c >> 6 & 0x3f ) ) * FNV_PRIME;
+                hash = ( hash ^ ( 0x80 | c & 0x3f ) ) * FNV_PRIME;
+            }
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
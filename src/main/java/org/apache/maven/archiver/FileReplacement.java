@@ -0,0 +1,147 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Replaces files, so that readers of the target see either the old or the new file, never none, and so that a
+ * file hard linked to the old one keeps its contents.
+ * <p/>
+ * On Java 7 and up, the file is moved with <code>java.nio.file.Files</code>, atomically if the file system
+ * supports that. Older Java versions rename the file, which replaces the target atomically on POSIX systems; on
+ * others, where a rename doesn't replace, the target is deleted first.
+ *
+ * @version $Id$
+ */
+final class FileReplacement
+{
+    private static final Method TO_PATH;
+
+    private static final Method MOVE;
+
+    private static final Class<?> COPY_OPTION;
+
+    private static final Object REPLACE_EXISTING;
+
+    private static final Object ATOMIC_MOVE;
+
+    static
+    {
+        Method toPath = null;
+        Method move = null;
+        Class<?> copyOption = null;
+        Object replaceExisting = null;
+        Object atomicMove = null;
+        try
+        {
+            toPath = File.class.getMethod( "toPath" );
+            Class<?> path = Class.forName( "java.nio.file.Path" );
+            copyOption = Class.forName( "java.nio.file.CopyOption" );
+            Class<?> standardCopyOption = Class.forName( "java.nio.file.StandardCopyOption" );
+            replaceExisting = standardCopyOption.getField( "REPLACE_EXISTING" ).get( null );
+            atomicMove = standardCopyOption.getField( "ATOMIC_MOVE" ).get( null );
+            move = Class.forName( "java.nio.file.Files" ).getMethod( "move", path, path,
+                                                                   Array.newInstance( copyOption, 0 ).getClass() );
+        }
+        catch ( Exception e )
+        {
+            // before Java 7
+        }
+        TO_PATH = toPath;
+        MOVE = move;
+        COPY_OPTION = copyOption;
+        REPLACE_EXISTING = replaceExisting;
+        ATOMIC_MOVE = atomicMove;
+    }
+
+    private FileReplacement()
+    {
+    }
+
+    /**
+     * Moves the source file to the target, replacing the target if it exists.
+     */
+    static void replace( File source, File target )
+        throws IOException
+    {
+        if ( MOVE != null && ( move( source, target, true ) || move( source, target, false ) ) )
+        {
+            return;
+        }
+        if ( source.renameTo( target ) )
+        {
+            return;
+        }
+        if ( target.exists() && !target.delete() )
+        {
+            throw new IOException( "Unable to delete " + target );
+        }
+        if ( !source.renameTo( target ) )
+        {
+            throw new IOException( "Unable to rename " + source + " to " + target );
+        }
+    }
+
+    /**
+     * @return false if the move isn't supported, atomically or at all.
+     */
+    private static boolean move( File source, File target, boolean atomic )
+        throws IOException
+    {
+        Object options = Array.newInstance( COPY_OPTION, atomic ? 2 : 1 );
+        Array.set( options, 0, REPLACE_EXISTING );
+        if ( atomic )
+        {
+            Array.set( options, 1, ATOMIC_MOVE );
+        }
+        try
+        {
+            MOVE.invoke( null, TO_PATH.invoke( source ), TO_PATH.invoke( target ), options );
+            return true;
+        }
+        catch ( InvocationTargetException e )
+        {
+            Throwable cause = e.getCause();
+            if ( atomic && cause.getClass().getName().equals( "java.nio.file.AtomicMoveNotSupportedException" ) )
+            {
+                return false;
+            }
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+        catch ( IllegalAccessException e )
+        {
+            return false;
+        }
+    }
+}
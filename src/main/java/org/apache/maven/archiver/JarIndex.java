@@ -0,0 +1,422 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Creates the <code>META-INF/INDEX.LIST</code> of a jar, in the same format as the jar archiver: the
+ * directories and top level files of the jar itself, followed by those of each indexed jar that is on the
+ * <code>Class-Path</code> of the manifest. Unlike the jar archiver, which opens every indexed jar completely, only
+ * the central directory of the indexed jars is read, on several threads, and the contents of each jar are
+ * cached by its path, size and modification time, so the jars a reactor shares are only read once.
+ *
+ * @version $Id$
+ */
+class JarIndex
+{
+    static final String INDEX_NAME = "META-INF/INDEX.LIST";
+
+    /**
+     * The number of jars whose contents are cached, unless overridden by the
+     * <code>maven.archiver.indexCache.maxEntries</code> system property.
+     */
+    static final int DEFAULT_MAX_CACHED_JARS = 10000;
+
+    private static final Map<Key, Contents> CACHE;
+
+    static
+    {
+        final int maxEntries =
+            Integer.getInteger( "maven.archiver.indexCache.maxEntries", DEFAULT_MAX_CACHED_JARS ).intValue();
+        CACHE = new LinkedHashMap<Key, Contents>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry( Map.Entry<Key, Contents> eldest )
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private final int threads;
+
+    /**
+     * @param threads the number of threads reading the indexed jars.
+     */
+    JarIndex( int threads )
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * Creates the index.
+     *
+     * @param archiveName the file name of the jar the index is for.
+     * @param entries the names of the entries of the jar, with directory names ending with a slash.
+     * @param classPath the <code>Class-Path</code> of the jar, or null if it has none.
+     * @param jars the jars to index; those that aren't found on the class path are left out.
+     */
+    byte[] create( String archiveName, Collection<String> entries, String classPath, List<File> jars )
+        throws IOException
+    {
+        StringBuilder index = new StringBuilder();
+        index.append( "JarIndex-Version: 1.0\n\n" );
+        index.append( archiveName ).append( '\n' );
+        appendList( index, getContents( entries, true ) );
+        index.append( '\n' );
+
+        String[] classPathEntries = null;
+        if ( classPath != null )
+        {
+            StringTokenizer tokens = new StringTokenizer( classPath, " " );
+            classPathEntries = new String[tokens.countTokens()];
+            for ( int i = 0; tokens.hasMoreTokens(); i++ )
+            {
+                classPathEntries[i] = tokens.nextToken();
+            }
+        }
+
+        List<String> names = new ArrayList<String>( jars.size() );
+        List<File> indexed = new ArrayList<File>( jars.size() );
+        for ( File jar : jars )
+        {
+            String name = findJarName( jar.getPath(), classPathEntries );
+            if ( name != null && jar.isFile() )
+            {
+                names.add( name );
+                indexed.add( jar );
+            }
+        }
+        List<Contents> contents = read( indexed );
+        for ( int i = 0; i < names.size(); i++ )
+        {
+            Contents jar = contents.get( i );
+            if ( !jar.isEmpty() )
+            {
+                index.append( names.get( i ) ).append( '\n' );
+                appendList( index, jar );
+                index.append( '\n' );
+            }
+        }
+        return index.toString().getBytes( "UTF-8" );
+    }
+
+    /**
+     * Appends the sorted directories, without the trailing slash, followed by the sorted top level files.
+     */
+    private static void appendList( StringBuilder index, Contents contents )
+    {
+        for ( String dir : contents.dirs )
+        {
+            index.append( dir, 0, dir.length() - 1 ).append( '\n' );
+        }
+        for ( String file : contents.files )
+        {
+            index.append( file ).append( '\n' );
+        }
+    }
+
+    /**
+     * Collects the directories and top level files from the entry names.
+     *
+     * @param own true for the jar the index is for, whose parent directories are all added by the archivers,
+     *            false for an indexed jar, which only lists the directories it has entries for, and the
+     *            directories of its files.
+     */
+    private static Contents getContents( Collection<String> entries, boolean own )
+    {
+        Set<String> dirs = new HashSet<String>();
+        List<String> files = new ArrayList<String>();
+        for ( String name : entries )
+        {
+            // like the jar archiver, leave out META-INF/, unless it holds more than the manifest and the index
+            if ( name.equals( "META-INF" ) || name.equals( JarWriter.META_INF ) || name.equals( INDEX_NAME )
+                || name.equals( JarWriter.MANIFEST_NAME ) )
+            {
+                continue;
+            }
+            int slash = name.lastIndexOf( '/', name.length() - 2 );
+            if ( name.endsWith( "/" ) )
+            {
+                dirs.add( name );
+            }
+            else if ( slash < 0 )
+            {
+                files.add( name );
+            }
+            else if ( !own )
+            {
+                dirs.add( name.substring( 0, slash + 1 ) );
+            }
+            if ( own )
+            {
+                for ( int i = name.indexOf( '/' ); i >= 0 && i < name.length() - 1; i = name.indexOf( '/', i + 1 ) )
+                {
+                    dirs.add( name.substring( 0, i + 1 ) );
+                }
+            }
+        }
+        return new Contents( dirs, files );
+    }
+
+    /**
+     * Reads the contents of the jars which aren't cached, on several threads.
+     *
+     * @return the contents of the jars, in the same order.
+     */
+    private List<Contents> read( final List<File> jars )
+        throws IOException
+    {
+        Contents[] contents = new Contents[jars.size()];
+        Key[] keys = new Key[jars.size()];
+        List<Integer> missing = new ArrayList<Integer>();
+        for ( int i = 0; i < jars.size(); i++ )
+        {
+            File jar = jars.get( i );
+            keys[i] = new Key( jar );
+            synchronized ( CACHE )
+            {
+                contents[i] = CACHE.get( keys[i] );
+            }
+            if ( contents[i] == null )
+            {
+                missing.add( i );
+            }
+        }
+
+        if ( threads <= 1 || missing.size() <= 1 )
+        {
+            for ( int i : missing )
+            {
+                contents[i] = read( jars.get( i ) );
+            }
+        }
+        else
+        {
+            List<Callable<Contents>> tasks = new ArrayList<Callable<Contents>>( missing.size() );
+            for ( final int i : missing )
+            {
+                tasks.add( new Callable<Contents>()
+                {
+                    public Contents call()
+                        throws IOException
+                    {
+                        return read( jars.get( i ) );
+                    }
+                } );
+            }
+            List<Future<Contents>> futures = ArchiverThreads.submit( tasks, threads );
+            try
+            {
+                for ( int j = 0; j < futures.size(); j++ )
+                {
+                    contents[missing.get( j )] = get( futures.get( j ) );
+                }
+            }
+            finally
+            {
+                ArchiverThreads.cancel( futures );
+            }
+        }
+
+        for ( int i : missing )
+        {
+            synchronized ( CACHE )
+            {
+                CACHE.put( keys[i], contents[i] );
+            }
+        }
+        List<Contents> result = new ArrayList<Contents>( contents.length );
+        Collections.addAll( result, contents );
+        return result;
+    }
+
+    private static Contents get( Future<Contents> future )
+        throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException( cause );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while indexing jars" );
+        }
+    }
+
+    private static Contents read( File jar )
+        throws IOException
+    {
+        try
+        {
+            return getContents( ZipDirectory.readNames( jar ), false );
+        }
+        catch ( IOException e )
+        {
+            throw (IOException) new IOException( "Failed to index " + jar + ": " + e.getMessage() ).initCause( e );
+        }
+    }
+
+    /**
+     * Finds the entry of the class path that refers to the jar, like the jar archiver does: either the whole
+     * entry, or the shortest of its trailing paths, is a suffix of the jar path.
+     *
+     * @return the entry, the file name of the jar if there is no class path, or null if it isn't on it.
+     */
+    static String findJarName( String fileName, String[] classPath )
+    {
+        if ( classPath == null )
+        {
+            return new File( fileName ).getName();
+        }
+        fileName = fileName.replace( File.separatorChar, '/' );
+        SortedMap<String, String> matches = new TreeMap<String, String>( new Comparator<String>()
+        {
+            public int compare( String o1, String o2 )
+            {
+                return o1.length() - o2.length();
+            }
+        } );
+        for ( String entry : classPath )
+        {
+            if ( fileName.endsWith( entry ) )
+            {
+                matches.put( entry, entry );
+            }
+            else
+            {
+                int slash = entry.indexOf( '/' );
+                String candidate = entry;
+                while ( slash > -1 )
+                {
+                    candidate = candidate.substring( slash + 1 );
+                    if ( fileName.endsWith( candidate ) )
+                    {
+                        matches.put( candidate, entry );
+                        break;
+                    }
+                    slash = candidate.indexOf( '/' );
+                }
+            }
+        }
+        return matches.isEmpty() ? null : matches.get( matches.firstKey() );
+    }
+
+    /**
+     * Removes all cached contents.
+     */
+    static void clearCache()
+    {
+        synchronized ( CACHE )
+        {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * The sorted directories and top level files of a jar.
+     */
+    private static final class Contents
+    {
+        private final List<String> dirs;
+
+        private final List<String> files;
+
+        Contents( Collection<String> dirs, List<String> files )
+        {
+            this.dirs = new ArrayList<String>( dirs );
+            Collections.sort( this.dirs );
+            this.files = new ArrayList<String>( files );
+            Collections.sort( this.files );
+        }
+
+        boolean isEmpty()
+        {
+            return dirs.isEmpty() && files.isEmpty();
+        }
+    }
+
+    private static final class Key
+    {
+        private final String path;
+
+        private final long length;
+
+        private final long lastModified;
+
+        Key( File file )
+        {
+            this.path = file.getAbsolutePath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof Key ) )
+            {
+                return false;
+            }
+            Key key = (Key) o;
+            return path.equals( key.path ) && length == key.length && lastModified == key.lastModified;
+        }
+
+        public int hashCode()
+        {
+            return path.hashCode() * 31 + (int) ( length ^ lastModified );
+        }
+    }
+}
@@ -0,0 +1,1748 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.codehaus.plexus.archiver.ArchiveEntry;
+import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.components.io.resources.PlexusIoFileResource;
+import org.codehaus.plexus.components.io.resources.PlexusIoResource;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes a jar file from the resources collected by a {@link org.codehaus.plexus.archiver.jar.JarArchiver}.
+ * The layout is the same the jar archiver produces: the <code>META-INF/</code> directory and the manifest
+ * (and the index and the entry filter, if there are any) come first, followed by the resources, with any missing
+ * parent directories added in front of them.
+ * <p/>
+ * In incremental mode, the existing jar is read before it is replaced. Entries whose source has the same size
+ * and modification time as the entry in the existing jar, and which are older than the existing jar, are
+ * copied over as they are: the compressed data is transferred without inflating or deflating it, together with
+ * the CRC and sizes from the central directory. Only new and changed entries are compressed; entries whose
+ * source is gone are dropped, since only the current resources are written.
+ * <p/>
+ * With more than one thread, entries of a known size are read and compressed into buffers of their own, on at
+ * most that many of the {@link ArchiverThreads threads all archivers share}, while the calling thread writes the
+ * buffers out in the order of the resources, so the jar is the same as the one written by a single thread. The
+ * buffers are limited by a memory ceiling: before another entry is handed to the threads, the entries ahead of
+ * it are written out until its buffer fits. Entries which wouldn't fit at all are compressed by the calling
+ * thread, straight into the jar.
+ * <p/>
+ * With adaptive compression, a {@link CompressionPolicy} looks at the first bytes of every entry before it's
+ * written, and entries which wouldn't shrink enough are stored instead of deflated.
+ * <p/>
+ * In reproducible mode, the entries are sorted by their names, and get a fixed time, written in UTC, as well as
+ * normalized permissions, so the same resources always give the same jar. The previous jar isn't reused then,
+ * since the time of its entries doesn't tell whether their sources changed.
+ *
+ * @version $Id$
+ */
+class JarWriter
+{
+    static final int STORED = 0;
+
+    static final int DEFLATED = 8;
+
+    static final String META_INF = "META-INF/";
+
+    static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    private static final int FILE_FLAG = 0100000;
+
+    private static final int DIR_FLAG = 040000;
+
+    private static final int DEFAULT_FILE_MODE = 0644;
+
+    private static final int DEFAULT_DIR_MODE = 0755;
+
+    private static final int UTF8_FLAG = 1 << 11;
+
+    private static final int VERSION_MADE_BY = ( 3 << 8 ) | 20;
+
+    private static final int VERSION_ZIP64 = 45;
+
+    /**
+     * Sizes and offsets from this one on only fit into zip64 extra fields.
+     */
+    private static final long MAX_SIZE = ZipDirectory.ZIP64_MAGIC;
+
+    /**
+     * The length of the zip64 extra field of a local header, with both sizes.
+     */
+    private static final int LOCAL_ZIP64_EXTRA_LENGTH = 4 + 16;
+
+    /**
+     * The extra field marking the first entry of a jar, as written by the jar tool and the jar archiver.
+     */
+    private static final byte[] JAR_MARKER = { (byte) 0xfe, (byte) 0xca, 0, 0 };
+
+    private static final byte[] NO_EXTRA = new byte[0];
+
+    private static final ArchiverEvents EVENTS = ArchiverEvents.getInstance();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The most a mapped input file is mapped at once.
+     */
+    private static final int MAP_WINDOW = 64 * 1024 * 1024;
+
+    static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    static final int DEFAULT_MIN_SAVINGS = 10;
+
+    /**
+     * How many entries may wait to be written per compressing thread, however small they are.
+     */
+    private static final int PENDING_ENTRIES_PER_THREAD = 64;
+
+    private final File destFile;
+
+    private boolean compress = true;
+
+    private boolean roundUp = true;
+
+    private boolean failOnDuplicates;
+
+    private boolean incremental;
+
+    private byte[] index;
+
+    private byte[] entryFilter;
+
+    private long mappedInputThreshold;
+
+    private boolean adaptive;
+
+    private boolean reproducible;
+
+    private long fixedTime;
+
+    private int minSavings = DEFAULT_MIN_SAVINGS;
+
+    private CompressionPolicy policy;
+
+    private CompressionStatistics statistics = new CompressionStatistics();
+
+    private Map<String, Long> deflateTimes;
+
+    private ArchiverTrace trace;
+
+    private int reusedEntries;
+
+    private int compressedEntries;
+
+    private Calendar calendar = Calendar.getInstance();
+
+    private final byte[] readBuffer = new byte[BUFFER_SIZE];
+
+    private final byte[] deflateBuffer = new byte[BUFFER_SIZE];
+
+    private Deflater deflater;
+
+    private int threads = 1;
+
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+
+    /**
+     * What compresses the entries on the threads all archivers share, or null to compress them one by one.
+     */
+    private Executor executor;
+
+    /**
+     * The deflaters of the compressing threads, reused from one entry to the next.
+     */
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+    /**
+     * The buffers reading the sources of the compressing threads, reused from one entry to the next.
+     */
+    private final Queue<byte[]> inputBuffers = new ConcurrentLinkedQueue<byte[]>();
+
+    private final LinkedList<Pending> pending = new LinkedList<Pending>();
+
+    private long pendingMemory;
+
+    /**
+     * The buffers of the entries compressed in parallel which have been written, to be reused by the entries
+     * after them.
+     */
+    private final List<byte[]> freeBuffers = new ArrayList<byte[]>();
+
+    /**
+     * The number of bytes of all buffers, those of the pending entries and the free ones.
+     */
+    private long bufferMemory;
+
+    JarWriter( File destFile )
+    {
+        this.destFile = destFile;
+    }
+
+    void setCompress( boolean compress )
+    {
+        this.compress = compress;
+    }
+
+    /**
+     * Like the zip archiver, round the modification times up to the next two seconds, which is the
+     * precision of the zip format.
+     */
+    void setRoundUp( boolean roundUp )
+    {
+        this.roundUp = roundUp;
+    }
+
+    /**
+     * Sets whether a file that is among the resources more than once fails the archive, like it does for a jar
+     * archiver with the {@link org.codehaus.plexus.archiver.Archiver#DUPLICATES_FAIL fail} duplicate behavior.
+     * Otherwise, the first one is written, and the others are skipped.
+     */
+    void setFailOnDuplicates( boolean failOnDuplicates )
+    {
+        this.failOnDuplicates = failOnDuplicates;
+    }
+
+    /**
+     * Sets whether unchanged entries are copied over from the existing jar, if there is one.
+     */
+    void setIncremental( boolean incremental )
+    {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Sets the contents of <code>META-INF/INDEX.LIST</code>, which replaces any index among the resources.
+     *
+     * @param index the index, or null to write none.
+     */
+    void setIndex( byte[] index )
+    {
+        this.index = index;
+    }
+
+    /**
+     * Sets the size from which source files are read through memory mappings, rather than streams.
+     *
+     * @param mappedInputThreshold the size in bytes, or 0 to stream all files.
+     */
+    void setMappedInputThreshold( long mappedInputThreshold )
+    {
+        this.mappedInputThreshold = mappedInputThreshold;
+    }
+
+    /**
+     * Sets whether the time spent deflating each entry is recorded, for {@link #getDeflateTimes()}.
+     */
+    void setRecordDeflateTimes( boolean record )
+    {
+        this.deflateTimes = record ? new ConcurrentHashMap<String, Long>() : null;
+    }
+
+    /**
+     * @return the nanoseconds spent deflating the entries written by the last {@link #write(byte[], Iterator)},
+     *         by entry name, without the stored and copied entries; or null if they weren't recorded.
+     */
+    Map<String, Long> getDeflateTimes()
+    {
+        return deflateTimes;
+    }
+
+    /**
+     * @param trace where to record the entries written and the waits for the compressing threads, or null.
+     */
+    void setTrace( ArchiverTrace trace )
+    {
+        this.trace = trace;
+    }
+
+    /**
+     * Sets the contents of the {@link EntryFilter}, which mustn't be among the resources.
+     *
+     * @param entryFilter the filter, or null to write none.
+     */
+    void setEntryFilter( byte[] entryFilter )
+    {
+        this.entryFilter = entryFilter;
+    }
+
+    /**
+     * Sets whether entries which don't shrink by at least the given percentage when they are deflated are stored
+     * instead. Without compression, this has no effect.
+     */
+    void setAdaptiveCompression( boolean adaptive, int minSavings )
+    {
+        this.adaptive = adaptive;
+        this.minSavings = minSavings;
+    }
+
+    /**
+     * Sets whether the jar only depends on the resources, and not on their order, times or permissions.
+     *
+     * @param time the time of all entries, in milliseconds since the epoch.
+     */
+    void setReproducible( boolean reproducible, long time )
+    {
+        this.reproducible = reproducible;
+        this.fixedTime = time;
+        calendar = reproducible ? Calendar.getInstance( TimeZone.getTimeZone( "UTC" ) ) : Calendar.getInstance();
+    }
+
+    /**
+     * Sets the number of threads compressing entries. With a single thread, every entry is compressed straight
+     * into the jar.
+     */
+    void setThreads( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Sets how many bytes the buffers of the entries compressed in parallel may take up at most.
+     */
+    void setMemoryLimit( long memoryLimit )
+    {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * @return what the compression of the entries written by the last {@link #write(byte[], Iterator)} from their
+     *         source cost and gained.
+     */
+    CompressionStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * @return the number of entries copied from the previous jar by the last {@link #write(byte[], Iterator)}.
+     */
+    int getReusedEntries()
+    {
+        return reusedEntries;
+    }
+
+    /**
+     * @return the number of entries read from their source by the last {@link #write(byte[], Iterator)}.
+     */
+    int getCompressedEntries()
+    {
+        return compressedEntries;
+    }
+
+    /**
+     * Writes the jar into a temporary file, which then replaces the destination file.
+     *
+     * @param manifest the manifest, as written to <code>META-INF/MANIFEST.MF</code>.
+     * @param resources the resources of the archive, manifests among them are ignored.
+     */
+    void write( byte[] manifest, Iterator<ArchiveEntry> resources )
+        throws IOException, ArchiverException
+    {
+        reusedEntries = 0;
+        compressedEntries = 0;
+        if ( deflateTimes != null )
+        {
+            deflateTimes.clear();
+        }
+        statistics = new CompressionStatistics();
+        policy = compress && adaptive ? new CompressionPolicy( minSavings ) : null;
+
+        Previous previous = incremental && !reproducible ? Previous.open( destFile ) : null;
+        if ( reproducible )
+        {
+            resources = sort( resources );
+        }
+
+        File dir = destFile.getAbsoluteFile().getParentFile();
+        if ( !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IOException( "Failed to create directory: " + dir );
+        }
+        File tmpFile = File.createTempFile( destFile.getName(), ".tmp", dir );
+
+        Output out = null;
+        boolean success = false;
+        try
+        {
+            out = new Output( tmpFile );
+            deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+            if ( threads > 1 )
+            {
+                executor = ArchiverThreads.newLimitedExecutor( threads );
+            }
+
+            long now = reproducible ? fixedTime : System.currentTimeMillis();
+            Set<String> names = new HashSet<String>();
+
+            names.add( META_INF );
+            writeDirectory( out, META_INF, DEFAULT_DIR_MODE, now, JAR_MARKER );
+            names.add( MANIFEST_NAME );
+            writeFile( out, MANIFEST_NAME, DEFAULT_FILE_MODE, now, manifest.length,
+                       new ByteArrayInputStream( manifest ) );
+            if ( index != null )
+            {
+                names.add( JarIndex.INDEX_NAME );
+                writeFile( out, JarIndex.INDEX_NAME, DEFAULT_FILE_MODE, now, index.length,
+                           new ByteArrayInputStream( index ) );
+            }
+            if ( entryFilter != null )
+            {
+                names.add( EntryFilter.RESOURCE_NAME );
+                writeFile( out, EntryFilter.RESOURCE_NAME, DEFAULT_FILE_MODE, now, entryFilter.length,
+                           new ByteArrayInputStream( entryFilter ) );
+            }
+
+            while ( resources.hasNext() )
+            {
+                if ( Thread.currentThread().isInterrupted() )
+                {
+                    throw new InterruptedIOException( "Interrupted while writing " + destFile );
+                }
+                ArchiveEntry entry = resources.next();
+                boolean isDirectory = entry.getType() == ArchiveEntry.DIRECTORY;
+                String name = entry.getName().replace( '\\', '/' );
+                if ( name.length() == 0 || name.equals( "/" ) )
+                {
+                    // the base directory of a file set
+                    continue;
+                }
+                if ( isDirectory && !name.endsWith( "/" ) )
+                {
+                    name += "/";
+                }
+                // like the jar archiver, skip manifests in the resources, indexes if we write our own, and duplicates
+                if ( name.equalsIgnoreCase( MANIFEST_NAME ) || ( index != null
+                    && name.equalsIgnoreCase( JarIndex.INDEX_NAME ) ) )
+                {
+                    continue;
+                }
+                if ( names.contains( name ) )
+                {
+                    if ( failOnDuplicates && !isDirectory )
+                    {
+                        throw new ArchiverException( "Duplicate file " + name
+                            + " was found and the duplicate attribute is 'fail'." );
+                    }
+                    continue;
+                }
+                addParentDirectories( out, name, names, now );
+                names.add( name );
+
+                int mode = reproducible ? normalizeMode( entry.getMode(), isDirectory ) : entry.getMode();
+                PlexusIoResource resource = entry.getResource();
+                long lastModified = resource == null ? PlexusIoResource.UNKNOWN_MODIFICATION_DATE
+                                : resource.getLastModified();
+                if ( isDirectory )
+                {
+                    enqueue( out, new DirectoryEntry( name, mode, time( lastModified, now ), NO_EXTRA ) );
+                    continue;
+                }
+
+                long size = resource == null ? PlexusIoResource.UNKNOWN_RESOURCE_SIZE : resource.getSize();
+                ZipDirectory.Entry reusable =
+                    previous == null ? null : getReusable( previous, name, lastModified, size );
+                if ( reusable != null )
+                {
+                    enqueue( out, new CopiedEntry( previous, name, mode, reusable ) );
+                }
+                else if ( executor != null && size >= 0 && getBufferSize( size ) <= getMaxBufferSize() )
+                {
+                    enqueue( out, new CompressedEntry( entry, name, mode, time( lastModified, now ), size ) );
+                }
+                else
+                {
+                    enqueue( out, new StreamedEntry( entry, name, mode, time( lastModified, now ), size ) );
+                }
+            }
+            while ( !pending.isEmpty() )
+            {
+                writePending( out );
+            }
+
+            out.finish();
+            out.close();
+            out = null;
+            success = true;
+        }
+        finally
+        {
+            executor = null;
+            for ( Pending entry : pending )
+            {
+                entry.cancel();
+            }
+            pending.clear();
+            pendingMemory = 0;
+            freeBuffers.clear();
+            bufferMemory = 0;
+            inputBuffers.clear();
+            for ( Deflater d = deflaters.poll(); d != null; d = deflaters.poll() )
+            {
+                d.end();
+            }
+            if ( deflater != null )
+            {
+                deflater.end();
+                deflater = null;
+            }
+            if ( out != null )
+            {
+                out.closeQuietly();
+            }
+            if ( previous != null )
+            {
+                previous.close();
+            }
+            if ( !success )
+            {
+                tmpFile.delete();
+            }
+        }
+
+        try
+        {
+            FileReplacement.replace( tmpFile, destFile );
+        }
+        finally
+        {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Sorts the resources by the names of their entries. The sort is stable, so of several resources with the
+     * same name, the first one is still written.
+     */
+    private static Iterator<ArchiveEntry> sort( Iterator<ArchiveEntry> resources )
+    {
+        List<ArchiveEntry> sorted = new ArrayList<ArchiveEntry>();
+        while ( resources.hasNext() )
+        {
+            sorted.add( resources.next() );
+        }
+        Collections.sort( sorted, new Comparator<ArchiveEntry>()
+        {
+            public int compare( ArchiveEntry e1, ArchiveEntry e2 )
+            {
+                return getSortKey( e1 ).compareTo( getSortKey( e2 ) );
+            }
+        } );
+        return sorted.iterator();
+    }
+
+    private static String getSortKey( ArchiveEntry entry )
+    {
+        String name = entry.getName().replace( '\\', '/' );
+        return entry.getType() == ArchiveEntry.DIRECTORY && !name.endsWith( "/" ) ? name + "/" : name;
+    }
+
+    /**
+     * @return the permissions an entry gets regardless of the umask: read and write for the owner, read for
+     *         everybody, and execute for everybody if the owner may execute the file.
+     */
+    private static int normalizeMode( int mode, boolean isDirectory )
+    {
+        return isDirectory || ( mode & 0100 ) != 0 ? DEFAULT_DIR_MODE : DEFAULT_FILE_MODE;
+    }
+
+    private long time( long lastModified, long now )
+    {
+        if ( reproducible )
+        {
+            return fixedTime;
+        }
+        if ( lastModified == PlexusIoResource.UNKNOWN_MODIFICATION_DATE )
+        {
+            return now;
+        }
+        return roundUp ? lastModified + 1999 : lastModified;
+    }
+
+    private void addParentDirectories( Output out, String name, Set<String> names, long now )
+        throws IOException
+    {
+        int slash = name.indexOf( '/' );
+        while ( slash >= 0 && slash < name.length() - 1 )
+        {
+            String parent = name.substring( 0, slash + 1 );
+            if ( names.add( parent ) )
+            {
+                enqueue( out, new DirectoryEntry( parent, DEFAULT_DIR_MODE, now, NO_EXTRA ) );
+            }
+            slash = name.indexOf( '/', slash + 1 );
+        }
+    }
+
+    private void writeDirectory( Output out, String name, int mode, long time, byte[] extra )
+        throws IOException
+    {
+        Record record = new Record( name, STORED, dosTime( time ), DIR_FLAG | ( mode & 07777 ), extra );
+        record.externalAttributes |= 0x10;
+        out.writeLocalHeader( record );
+        out.add( record );
+    }
+
+    /**
+     * Hands an entry to be written in order. Without threads to compress it, it's written right away. Otherwise, the
+     * entries ahead of it are written out while there are too many of them, or while its buffer doesn't fit
+     * under the memory limit, before its compression is started. As the buffers of the written entries are
+     * reused, all buffers together stay under the limit.
+     */
+    private void enqueue( Output out, Pending entry )
+        throws IOException
+    {
+        if ( executor == null )
+        {
+            entry.write( out );
+            return;
+        }
+        while ( !pending.isEmpty() && ( pending.size() >= threads * PENDING_ENTRIES_PER_THREAD
+            || pendingMemory + entry.memory > memoryLimit ) )
+        {
+            writePending( out );
+        }
+        entry.start();
+        pending.add( entry );
+        pendingMemory += entry.memory;
+    }
+
+    private void writePending( Output out )
+        throws IOException
+    {
+        Pending entry = pending.removeFirst();
+        pendingMemory -= entry.memory;
+        entry.write( out );
+    }
+
+    /**
+     * Takes the smallest free buffer which is large enough, or else allocates one, dropping free buffers until
+     * it fits under the memory limit.
+     */
+    private byte[] acquireBuffer( int size )
+    {
+        int best = -1;
+        for ( int i = 0; i < freeBuffers.size(); i++ )
+        {
+            int length = freeBuffers.get( i ).length;
+            if ( length >= size && ( best < 0 || length < freeBuffers.get( best ).length ) )
+            {
+                best = i;
+            }
+        }
+        if ( best >= 0 )
+        {
+            return freeBuffers.remove( best );
+        }
+        while ( !freeBuffers.isEmpty() && bufferMemory + size > memoryLimit )
+        {
+            bufferMemory -= freeBuffers.remove( freeBuffers.size() - 1 ).length;
+        }
+        bufferMemory += size;
+        return new byte[size];
+    }
+
+    private void releaseBuffer( byte[] buffer )
+    {
+        freeBuffers.add( buffer );
+    }
+
+    /**
+     * @return the entry of the previous jar, if it can be copied over because its source hasn't changed, or
+     *         null.
+     */
+    private ZipDirectory.Entry getReusable( Previous previous, String name, long lastModified, long size )
+    {
+        ZipDirectory.Entry entry = previous.directory.getEntry( name );
+        if ( entry == null || entry.isDirectory() || !entry.isCopyable() || !isExpectedMethod( entry.getMethod() ) )
+        {
+            return null;
+        }
+        // a source modified after the previous jar was written may have changed within the precision of the
+        // zip timestamps, so it isn't trusted
+        if ( lastModified == PlexusIoResource.UNKNOWN_MODIFICATION_DATE || lastModified >= previous.lastModified
+            || size != entry.getSize() || dosTime( time( lastModified, 0 ) ) != entry.getDosTime() )
+        {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return true if an unchanged entry could have been written with the given method.
+     */
+    private boolean isExpectedMethod( int method )
+    {
+        if ( !compress )
+        {
+            return method == STORED;
+        }
+        // the adaptive policy decides the same way for the same content
+        return method == DEFLATED || ( adaptive && method == STORED );
+    }
+
+    /**
+     * Copies an entry over from the previous jar.
+     */
+    private void copy( Output out, Previous previous, String name, int mode, ZipDirectory.Entry entry )
+        throws IOException
+    {
+        Record record = new Record( name, entry.getMethod(), entry.getDosTime(), FILE_FLAG | ( mode & 07777 ),
+                                    NO_EXTRA );
+        record.crc = entry.getCrc();
+        record.compressedSize = entry.getCompressedSize();
+        record.size = entry.getSize();
+        record.zip64 = record.size >= MAX_SIZE || record.compressedSize >= MAX_SIZE;
+        out.writeLocalHeader( record );
+        out.transferFrom( previous.channel, previous.directory.getDataOffset( previous.channel, entry ),
+                          entry.getCompressedSize() );
+        out.add( record );
+        reusedEntries++;
+    }
+
+    /**
+     * Writes an entry from its source, deflating it unless compression is off, or the policy decides against it.
+     *
+     * @param size the size of the source, or -1 if it isn't known. A source which may take up 4 GiB once it's
+     *            written gets a zip64 extra field for its sizes.
+     */
+    private void writeFile( Output out, String name, int mode, long time, long size, InputStream in )
+        throws IOException
+    {
+        Object event = EVENTS.beginEntry();
+        long traceStart = trace != null ? System.nanoTime() : 0;
+        int n = fill( in, readBuffer );
+        boolean deflate = shouldDeflate( readBuffer, n, deflater, policy );
+        Record record = new Record( name, deflate ? DEFLATED : STORED, dosTime( time ),
+                                    FILE_FLAG | ( mode & 07777 ), NO_EXTRA );
+        record.zip64 = size >= 0 && getBufferSize( size ) >= MAX_SIZE;
+        out.writeLocalHeader( record );
+        long start = out.position();
+
+        CRC32 crc = new CRC32();
+        long read = 0;
+        long deflateTime = 0;
+        if ( deflate )
+        {
+            deflater.reset();
+        }
+        while ( n > 0 )
+        {
+            crc.update( readBuffer, 0, n );
+            read += n;
+            if ( deflate )
+            {
+                deflater.setInput( readBuffer, 0, n );
+                while ( !deflater.needsInput() )
+                {
+                    long t = System.nanoTime();
+                    int deflated = deflater.deflate( deflateBuffer );
+                    deflateTime += System.nanoTime() - t;
+                    out.write( deflateBuffer, 0, deflated );
+                }
+            }
+            else
+            {
+                out.write( readBuffer, 0, n );
+            }
+            n = in.read( readBuffer );
+        }
+        if ( deflate )
+        {
+            deflater.finish();
+            while ( !deflater.finished() )
+            {
+                long t = System.nanoTime();
+                int deflated = deflater.deflate( deflateBuffer );
+                deflateTime += System.nanoTime() - t;
+                out.write( deflateBuffer, 0, deflated );
+            }
+        }
+
+        record.crc = crc.getValue();
+        record.size = read;
+        record.compressedSize = out.position() - start;
+        if ( size >= 0 && size != read )
+        {
+            throw new IOException( "Size of " + name + " changed while it was archived" );
+        }
+        if ( !record.zip64 && ( record.size >= MAX_SIZE || record.compressedSize >= MAX_SIZE ) )
+        {
+            throw new IOException( "Entry of unknown size too large for its local header: " + name );
+        }
+        out.patchSizes( record );
+        out.add( record );
+        compressedEntries++;
+        statistics.addRead( read, in instanceof MappedInputStream );
+        if ( deflate )
+        {
+            statistics.addDeflated( read, record.compressedSize, deflateTime );
+            recordDeflateTime( name, deflateTime );
+        }
+        else
+        {
+            statistics.addStored( read );
+        }
+        EVENTS.commitEntry( event, destFile, name, read, record.compressedSize, deflate );
+        if ( trace != null )
+        {
+            trace.entry( name, traceStart, read, record.compressedSize, deflate );
+        }
+    }
+
+    private void recordDeflateTime( String name, long deflateTime )
+    {
+        if ( deflateTimes != null )
+        {
+            deflateTimes.put( name, Long.valueOf( deflateTime ) );
+        }
+    }
+
+    /**
+     * Reads until the buffer is full, or the end of the stream is reached.
+     *
+     * @return the number of bytes read.
+     */
+    private static int fill( InputStream in, byte[] buffer )
+        throws IOException
+    {
+        int length = 0;
+        int n;
+        while ( length < buffer.length && ( n = in.read( buffer, length, buffer.length - length ) ) >= 0 )
+        {
+            length += n;
+        }
+        return length;
+    }
+
+    private boolean shouldDeflate( byte[] sample, int length, Deflater d, CompressionPolicy p )
+    {
+        return compress && ( p == null || p.shouldDeflate( sample, length, d, statistics ) );
+    }
+
+    /**
+     * @return the size of a buffer which is large enough for the data of an entry, compressed or not. This is
+     *         the bound zlib gives for deflated data.
+     */
+    private long getBufferSize( long size )
+    {
+        return compress ? size + ( size >> 12 ) + ( size >> 14 ) + ( size >> 25 ) + 13 : size;
+    }
+
+    private long getMaxBufferSize()
+    {
+        return Math.min( memoryLimit, Integer.MAX_VALUE - 8 );
+    }
+
+    /**
+     * Reads and compresses an entry into the given buffer. This is called by the threads of the pool.
+     */
+    private Buffer compress( ArchiveEntry entry, String name, long size, byte[] data )
+        throws IOException
+    {
+        Object event = EVENTS.beginEntry();
+        long traceStart = trace != null ? System.nanoTime() : 0;
+        int length = 0;
+        byte[] input = inputBuffers.poll();
+        if ( input == null )
+        {
+            input = new byte[BUFFER_SIZE];
+        }
+        CRC32 crc = new CRC32();
+        long read = 0;
+        long deflateTime = 0;
+        Deflater d = null;
+        if ( compress )
+        {
+            d = deflaters.poll();
+            if ( d == null )
+            {
+                d = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+            }
+        }
+        boolean deflate;
+        boolean mapped;
+        InputStream in = open( entry, size );
+        try
+        {
+            mapped = in instanceof MappedInputStream;
+            int n = fill( in, input );
+            deflate = shouldDeflate( input, n, d, policy == null ? null : new CompressionPolicy( minSavings ) );
+            while ( n > 0 )
+            {
+                read += n;
+                if ( read > size )
+                {
+                    throw new IOException( "Size of " + name + " changed while it was archived" );
+                }
+                crc.update( input, 0, n );
+                if ( deflate )
+                {
+                    long t = System.nanoTime();
+                    d.setInput( input, 0, n );
+                    while ( !d.needsInput() )
+                    {
+                        length += d.deflate( data, length, data.length - length );
+                    }
+                    deflateTime += System.nanoTime() - t;
+                }
+                else
+                {
+                    System.arraycopy( input, 0, data, length, n );
+                    length += n;
+                }
+                n = in.read( input );
+            }
+            if ( deflate )
+            {
+                long t = System.nanoTime();
+                d.finish();
+                while ( !d.finished() )
+                {
+                    if ( length == data.length )
+                    {
+                        throw new IOException( "Compressed data of " + name + " exceeds its buffer" );
+                    }
+                    length += d.deflate( data, length, data.length - length );
+                }
+                deflateTime += System.nanoTime() - t;
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+            inputBuffers.add( input );
+            if ( d != null )
+            {
+                d.reset();
+                deflaters.add( d );
+            }
+        }
+        if ( read != size )
+        {
+            throw new IOException( "Size of " + name + " changed while it was archived" );
+        }
+        statistics.addRead( read, mapped );
+        if ( deflate )
+        {
+            statistics.addDeflated( read, length, deflateTime );
+            recordDeflateTime( name, deflateTime );
+        }
+        else
+        {
+            statistics.addStored( read );
+        }
+        EVENTS.commitEntry( event, destFile, name, read, length, deflate );
+        if ( trace != null )
+        {
+            trace.entry( name, traceStart, read, length, deflate );
+        }
+        return new Buffer( deflate ? DEFLATED : STORED, data, length, crc.getValue(), read );
+    }
+
+    /**
+     * Opens the source of an entry, mapping it if it's a file of at least {@link #mappedInputThreshold} bytes.
+     *
+     * @param size the size of the source, or -1 if it isn't known.
+     */
+    private InputStream open( ArchiveEntry entry, long size )
+        throws IOException
+    {
+        PlexusIoResource resource = entry.getResource();
+        if ( mappedInputThreshold > 0 && size >= mappedInputThreshold && resource instanceof PlexusIoFileResource )
+        {
+            return new MappedInputStream( ( (PlexusIoFileResource) resource ).getFile() );
+        }
+        return entry.getInputStream();
+    }
+
+    /**
+     * Converts a Java time to the MS-DOS date and time format, in the local time zone, as the zip classes do.
+     */
+    long dosTime( long time )
+    {
+        calendar.setTimeInMillis( time );
+        int year = calendar.get( Calendar.YEAR );
+        if ( year < 1980 )
+        {
+            return ( 1 << 21 ) | ( 1 << 16 );
+        }
+        return ( ( (long) year - 1980 ) << 25 ) | ( ( calendar.get( Calendar.MONTH ) + 1 ) << 21 )
+            | ( calendar.get( Calendar.DAY_OF_MONTH ) << 16 ) | ( calendar.get( Calendar.HOUR_OF_DAY ) << 11 )
+            | ( calendar.get( Calendar.MINUTE ) << 5 ) | ( calendar.get( Calendar.SECOND ) >> 1 );
+    }
+
+    /**
+     * An entry waiting for its turn to be written.
+     */
+    private abstract static class Pending
+    {
+        /**
+         * The number of bytes buffered for the entry, once it's started.
+         */
+        long memory;
+
+        Pending( long memory )
+        {
+            this.memory = memory;
+        }
+
+        /**
+         * Called when the entry is queued, to start the work which can be done ahead of writing it.
+         */
+        void start()
+        {
+        }
+
+        abstract void write( Output out )
+            throws IOException;
+
+        /**
+         * Called when the archive fails, to stop the work started ahead of writing the entry.
+         */
+        void cancel()
+        {
+        }
+    }
+
+    private final class DirectoryEntry
+        extends Pending
+    {
+        private final String name;
+
+        private final int mode;
+
+        private final long time;
+
+        private final byte[] extra;
+
+        DirectoryEntry( String name, int mode, long time, byte[] extra )
+        {
+            super( 0 );
+            this.name = name;
+            this.mode = mode;
+            this.time = time;
+            this.extra = extra;
+        }
+
+        void write( Output out )
+            throws IOException
+        {
+            writeDirectory( out, name, mode, time, extra );
+        }
+    }
+
+    private final class CopiedEntry
+        extends Pending
+    {
+        private final Previous previous;
+
+        private final String name;
+
+        private final int mode;
+
+        private final ZipDirectory.Entry entry;
+
+        CopiedEntry( Previous previous, String name, int mode, ZipDirectory.Entry entry )
+        {
+            super( 0 );
+            this.previous = previous;
+            this.name = name;
+            this.mode = mode;
+            this.entry = entry;
+        }
+
+        void write( Output out )
+            throws IOException
+        {
+            copy( out, previous, name, mode, entry );
+        }
+    }
+
+    /**
+     * An entry compressed by the calling thread while it's written.
+     */
+    private final class StreamedEntry
+        extends Pending
+    {
+        private final ArchiveEntry entry;
+
+        private final String name;
+
+        private final int mode;
+
+        private final long time;
+
+        private final long size;
+
+        StreamedEntry( ArchiveEntry entry, String name, int mode, long time, long size )
+        {
+            super( 0 );
+            this.entry = entry;
+            this.name = name;
+            this.mode = mode;
+            this.time = time;
+            this.size = size;
+        }
+
+        void write( Output out )
+            throws IOException
+        {
+            InputStream in = open( entry, size );
+            try
+            {
+                writeFile( out, name, mode, time, size, in );
+            }
+            finally
+            {
+                IOUtil.close( in );
+            }
+        }
+    }
+
+    /**
+     * An entry compressed by one of the shared threads into a buffer, which is written once the entries ahead of it are.
+     */
+    private final class CompressedEntry
+        extends Pending
+    {
+        private final ArchiveEntry entry;
+
+        private final String name;
+
+        private final int mode;
+
+        private final long time;
+
+        private final long size;
+
+        private Future<Buffer> future;
+
+        CompressedEntry( ArchiveEntry entry, String name, int mode, long time, long size )
+        {
+            super( getBufferSize( size ) );
+            this.entry = entry;
+            this.name = name;
+            this.mode = mode;
+            this.time = time;
+            this.size = size;
+        }
+
+        void start()
+        {
+            final byte[] data = acquireBuffer( (int) memory );
+            memory = data.length;
+            FutureTask<Buffer> task = new FutureTask<Buffer>( new Callable<Buffer>()
+            {
+                public Buffer call()
+                    throws IOException
+                {
+                    return compress( entry, name, size, data );
+                }
+            } );
+            future = task;
+            executor.execute( task );
+        }
+
+        void cancel()
+        {
+            if ( future != null )
+            {
+                future.cancel( true );
+            }
+        }
+
+        void write( Output out )
+            throws IOException
+        {
+            Buffer buffer;
+            try
+            {
+                if ( trace != null && !future.isDone() )
+                {
+                    long start = System.nanoTime();
+                    buffer = future.get();
+                    trace.waited( name, start );
+                }
+                else
+                {
+                    buffer = future.get();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                throw new InterruptedIOException( "Interrupted while compressing " + name );
+            }
+            catch ( ExecutionException e )
+            {
+                Throwable cause = e.getCause();
+                if ( cause instanceof IOException )
+                {
+                    throw (IOException) cause;
+                }
+                if ( cause instanceof RuntimeException )
+                {
+                    throw (RuntimeException) cause;
+                }
+                if ( cause instanceof Error )
+                {
+                    throw (Error) cause;
+                }
+                throw (IOException) new IOException( "Failed to compress " + name ).initCause( cause );
+            }
+
+            Record record = new Record( name, buffer.method, dosTime( time ),
+                                        FILE_FLAG | ( mode & 07777 ), NO_EXTRA );
+            record.crc = buffer.crc;
+            record.compressedSize = buffer.length;
+            record.size = buffer.size;
+            out.writeLocalHeader( record );
+            out.write( buffer.data, 0, buffer.length );
+            out.add( record );
+            releaseBuffer( buffer.data );
+            compressedEntries++;
+        }
+    }
+
+    /**
+     * The data of an entry, deflated or stored, together with its CRC and uncompressed size.
+     */
+    private static final class Buffer
+    {
+        private final int method;
+
+        private final byte[] data;
+
+        private final int length;
+
+        private final long crc;
+
+        private final long size;
+
+        Buffer( int method, byte[] data, int length, long crc, long size )
+        {
+            this.method = method;
+            this.data = data;
+            this.length = length;
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Reads a file through memory mappings of up to {@link #MAP_WINDOW} bytes each, rather than read calls.
+     * The deflater and the CRC only take arrays, so the mapped data is still copied into the caller's buffer,
+     * but straight from the page cache. The length of the file is taken when it's opened.
+     */
+    private static final class MappedInputStream
+        extends InputStream
+    {
+        private final RandomAccessFile file;
+
+        private final FileChannel channel;
+
+        private final long length;
+
+        private long position;
+
+        private MappedByteBuffer window;
+
+        MappedInputStream( File file )
+            throws IOException
+        {
+            this.file = new RandomAccessFile( file, "r" );
+            this.channel = this.file.getChannel();
+            this.length = channel.size();
+        }
+
+        public int read()
+            throws IOException
+        {
+            byte[] b = new byte[1];
+            return read( b, 0, 1 ) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public int read( byte[] b, int off, int len )
+            throws IOException
+        {
+            if ( len == 0 )
+            {
+                return 0;
+            }
+            if ( window == null || !window.hasRemaining() )
+            {
+                if ( position >= length )
+                {
+                    return -1;
+                }
+                long size = Math.min( MAP_WINDOW, length - position );
+                window = channel.map( FileChannel.MapMode.READ_ONLY, position, size );
+                position += size;
+            }
+            int n = Math.min( len, window.remaining() );
+            window.get( b, off, n );
+            return n;
+        }
+
+        public void close()
+            throws IOException
+        {
+            // the mapping itself goes when it's garbage collected
+            window = null;
+            file.close();
+        }
+    }
+
+    /**
+     * The jar being replaced, open for copying entries out of it.
+     */
+    private static final class Previous
+    {
+        private final ZipDirectory directory;
+
+        private final RandomAccessFile file;
+
+        private final FileChannel channel;
+
+        private final long lastModified;
+
+        private Previous( ZipDirectory directory, RandomAccessFile file, long lastModified )
+        {
+            this.directory = directory;
+            this.file = file;
+            this.channel = file.getChannel();
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the previous jar, or null if there is none that can be reused.
+         */
+        static Previous open( File destFile )
+        {
+            if ( !destFile.isFile() )
+            {
+                return null;
+            }
+            long lastModified = destFile.lastModified();
+            try
+            {
+                ZipDirectory directory = ZipDirectory.read( destFile );
+                return new Previous( directory, new RandomAccessFile( destFile, "r" ), lastModified );
+            }
+            catch ( IOException e )
+            {
+                // not a zip file we can copy from, so build from scratch
+                return null;
+            }
+        }
+
+        void close()
+        {
+            try
+            {
+                file.close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * What the central directory needs to know about an entry.
+     */
+    private static final class Record
+    {
+        private final byte[] name;
+
+        private final int flags;
+
+        private final int method;
+
+        private final long dosTime;
+
+        private final byte[] extra;
+
+        private long externalAttributes;
+
+        private long crc;
+
+        private long compressedSize;
+
+        private long size;
+
+        private long offset;
+
+        /**
+         * Whether the local header has a zip64 extra field, as the sizes may not fit into its own fields.
+         */
+        private boolean zip64;
+
+        Record( String name, int method, long dosTime, int unixMode, byte[] extra )
+            throws IOException
+        {
+            this.name = name.getBytes( "UTF-8" );
+            this.flags = this.name.length != name.length() ? UTF8_FLAG : 0;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.extra = extra;
+            this.externalAttributes = ( (long) unixMode ) << 16;
+        }
+
+        int versionNeeded( boolean usesZip64 )
+        {
+            return usesZip64 ? VERSION_ZIP64 : method == DEFLATED ? 20 : 10;
+        }
+
+        /**
+         * @return the length of the data of the zip64 extra field the central directory header needs, or 0 if
+         *         its sizes and offset fit into its own fields.
+         */
+        int getZip64DataLength()
+        {
+            return ( size >= MAX_SIZE ? 8 : 0 ) + ( compressedSize >= MAX_SIZE ? 8 : 0 )
+                + ( offset >= MAX_SIZE ? 8 : 0 );
+        }
+    }
+
+    /**
+     * A buffered output to a random access file, which allows to fill in the CRC and sizes of an entry
+     * once its data is written, and keeps the records for the central directory.
+     */
+    private static final class Output
+    {
+        private final RandomAccessFile file;
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private int count;
+
+        private long position;
+
+        private final List<Record> records = new ArrayList<Record>();
+
+        private final byte[] patch = new byte[16];
+
+        Output( File file )
+            throws IOException
+        {
+            this.file = new RandomAccessFile( file, "rw" );
+            this.file.setLength( 0 );
+        }
+
+        long position()
+        {
+            return position;
+        }
+
+        void write( byte[] b, int off, int len )
+            throws IOException
+        {
+            if ( len > buffer.length - count )
+            {
+                flush();
+                if ( len > buffer.length )
+                {
+                    file.write( b, off, len );
+                    position += len;
+                    return;
+                }
+            }
+            System.arraycopy( b, off, buffer, count, len );
+            count += len;
+            position += len;
+        }
+
+        void writeShort( int value )
+            throws IOException
+        {
+            if ( buffer.length - count < 2 )
+            {
+                flush();
+            }
+            buffer[count++] = (byte) value;
+            buffer[count++] = (byte) ( value >>> 8 );
+            position += 2;
+        }
+
+        void writeInt( long value )
+            throws IOException
+        {
+            writeShort( (int) ( value & 0xffff ) );
+            writeShort( (int) ( ( value >>> 16 ) & 0xffff ) );
+        }
+
+        void writeLong( long value )
+            throws IOException
+        {
+            writeInt( value & 0xffffffffL );
+            writeInt( value >>> 32 );
+        }
+
+        /**
+         * Writes the local header of an entry. If it has a zip64 extra field, its fields for the sizes are
+         * left to that.
+         */
+        void writeLocalHeader( Record record )
+            throws IOException
+        {
+            record.offset = position;
+            writeInt( ZipDirectory.LOCAL_FILE_HEADER_SIGNATURE );
+            writeShort( record.versionNeeded( record.zip64 ) );
+            writeShort( record.flags );
+            writeShort( record.method );
+            writeInt( record.dosTime );
+            writeInt( record.crc );
+            writeInt( record.zip64 ? MAX_SIZE : record.compressedSize );
+            writeInt( record.zip64 ? MAX_SIZE : record.size );
+            writeShort( record.name.length );
+            writeShort( ( record.zip64 ? LOCAL_ZIP64_EXTRA_LENGTH : 0 ) + record.extra.length );
+            write( record.name, 0, record.name.length );
+            if ( record.zip64 )
+            {
+                writeShort( ZipDirectory.ZIP64_EXTRA_ID );
+                writeShort( LOCAL_ZIP64_EXTRA_LENGTH - 4 );
+                writeLong( record.size );
+                writeLong( record.compressedSize );
+            }
+            write( record.extra, 0, record.extra.length );
+        }
+
+        /**
+         * Fills in the CRC and sizes of the local header of an entry whose data has been written.
+         */
+        void patchSizes( Record record )
+            throws IOException
+        {
+            if ( record.zip64 )
+            {
+                putInt( patch, 0, record.crc );
+                patch( record.offset + 14, 4 );
+                putInt( patch, 0, record.size );
+                putInt( patch, 4, record.size >>> 32 );
+                putInt( patch, 8, record.compressedSize );
+                putInt( patch, 12, record.compressedSize >>> 32 );
+                patch( record.offset + ZipDirectory.LOCAL_FILE_HEADER_LENGTH + record.name.length + 4, 16 );
+            }
+            else
+            {
+                putInt( patch, 0, record.crc );
+                putInt( patch, 4, record.compressedSize );
+                putInt( patch, 8, record.size );
+                patch( record.offset + 14, 12 );
+            }
+        }
+
+        /**
+         * Overwrites bytes already written with the first bytes of {@link #patch}.
+         */
+        private void patch( long at, int length )
+            throws IOException
+        {
+            long buffered = position - count;
+            if ( at >= buffered )
+            {
+                // still in the buffer
+                System.arraycopy( patch, 0, buffer, (int) ( at - buffered ), length );
+                return;
+            }
+            flush();
+            file.seek( at );
+            file.write( patch, 0, length );
+            file.seek( position );
+        }
+
+        private static void putInt( byte[] b, int index, long value )
+        {
+            b[index] = (byte) value;
+            b[index + 1] = (byte) ( value >>> 8 );
+            b[index + 2] = (byte) ( value >>> 16 );
+            b[index + 3] = (byte) ( value >>> 24 );
+        }
+
+        /**
+         * Copies data from another file, without going through the heap if the platform allows it.
+         */
+        void transferFrom( FileChannel source, long offset, long length )
+            throws IOException
+        {
+            flush();
+            FileChannel target = file.getChannel();
+            target.position( position );
+            while ( length > 0 )
+            {
+                long n = source.transferTo( offset, length, target );
+                if ( n <= 0 )
+                {
+                    throw new IOException( "Unexpected end of file" );
+                }
+                offset += n;
+                length -= n;
+                position += n;
+            }
+        }
+
+        void add( Record record )
+        {
+            records.add( record );
+        }
+
+        /**
+         * Writes the central directory. The sizes and offsets which don't fit into the fields of a header go into
+         * a zip64 extra field, and if the number of entries, or the size or offset of the directory doesn't fit
+         * into the end of central directory record, a zip64 one precedes it.
+         */
+        void finish()
+            throws IOException
+        {
+            long start = position;
+            for ( Record record : records )
+            {
+                int zip64Length = record.getZip64DataLength();
+                writeInt( ZipDirectory.CENTRAL_FILE_HEADER_SIGNATURE );
+                writeShort( VERSION_MADE_BY );
+                writeShort( record.versionNeeded( record.zip64 || zip64Length > 0 ) );
+                writeShort( record.flags );
+                writeShort( record.method );
+                writeInt( record.dosTime );
+                writeInt( record.crc );
+                writeInt( Math.min( record.compressedSize, MAX_SIZE ) );
+                writeInt( Math.min( record.size, MAX_SIZE ) );
+                writeShort( record.name.length );
+                writeShort( ( zip64Length > 0 ? 4 + zip64Length : 0 ) + record.extra.length );
+                writeShort( 0 ); // comment length
+                writeShort( 0 ); // disk number
+                writeShort( 0 ); // internal attributes
+                writeInt( record.externalAttributes );
+                writeInt( Math.min( record.offset, MAX_SIZE ) );
+                write( record.name, 0, record.name.length );
+                if ( zip64Length > 0 )
+                {
+                    writeShort( ZipDirectory.ZIP64_EXTRA_ID );
+                    writeShort( zip64Length );
+                    if ( record.size >= MAX_SIZE )
+                    {
+                        writeLong( record.size );
+                    }
+                    if ( record.compressedSize >= MAX_SIZE )
+                    {
+                        writeLong( record.compressedSize );
+                    }
+                    if ( record.offset >= MAX_SIZE )
+                    {
+                        writeLong( record.offset );
+                    }
+                }
+                write( record.extra, 0, record.extra.length );
+            }
+            long size = position - start;
+            int count = records.size();
+
+            if ( count >= ZipDirectory.ZIP64_MAGIC_COUNT || start >= MAX_SIZE || size >= MAX_SIZE )
+            {
+                long end = position;
+                writeInt( ZipDirectory.ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE );
+                writeLong( ZipDirectory.ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH - 12 ); // size of the rest
+                writeShort( VERSION_MADE_BY );
+                writeShort( VERSION_ZIP64 );
+                writeInt( 0 ); // disk number
+                writeInt( 0 ); // disk of the central directory
+                writeLong( count );
+                writeLong( count );
+                writeLong( size );
+                writeLong( start );
+
+                writeInt( ZipDirectory.ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE );
+                writeInt( 0 ); // disk of the zip64 end of central directory record
+                writeLong( end );
+                writeInt( 1 ); // number of disks
+            }
+
+            writeInt( ZipDirectory.END_OF_CENTRAL_DIRECTORY_SIGNATURE );
+            writeShort( 0 ); // disk number
+            writeShort( 0 ); // disk of the central directory
+            writeShort( Math.min( count, ZipDirectory.ZIP64_MAGIC_COUNT ) );
+            writeShort( Math.min( count, ZipDirectory.ZIP64_MAGIC_COUNT ) );
+            writeInt( Math.min( size, MAX_SIZE ) );
+            writeInt( Math.min( start, MAX_SIZE ) );
+            writeShort( 0 ); // comment length
+            flush();
+        }
+
+        void flush()
+            throws IOException
+        {
+            if ( count > 0 )
+            {
+                file.write( buffer, 0, count );
+                count = 0;
+            }
+        }
+
+        void close()
+            throws IOException
+        {
+            flush();
+            file.close();
+        }
+
+        void closeQuietly()
+        {
+            try
+            {
+                file.close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Keeps the last generated manifest of an archive, together with a fingerprint of everything the
+ * manifest was generated from, in the <code>maven-archiver</code> directory of the build. As long
+ * as the fingerprint doesn't change, the stored manifest is used instead of generating it again.
+ * Every archive of a project has a manifest of its own, and it's kept as written, so that it
+ * can be added to an archive as is.
+ *
+ * @version $Id$
+ */
+class ManifestCache
+{
+    static final String SUFFIX = ".MF";
+
+    static final String FINGERPRINT_SUFFIX = ".sha1";
+
+    /**
+     * Bump this whenever the manifest generation changes in a way the fingerprint doesn't capture.
+     */
+    private static final String FORMAT = "maven-archiver-manifest-1";
+
+    private static final String ENCODING = "UTF-8";
+
+    private final File manifestFile;
+
+    private final File fingerprintFile;
+
+    /**
+     * @param manifestFile the file holding the cached manifest, usually in <code>target/maven-archiver</code>.
+     */
+    ManifestCache( File manifestFile )
+    {
+        this.manifestFile = manifestFile;
+        this.fingerprintFile = new File( manifestFile.getPath() + FINGERPRINT_SUFFIX );
+    }
+
+    /**
+     * @return the stored manifest, as written, if it was generated from inputs with the given fingerprint, or
+     *         null.
+     */
+    byte[] load( String fingerprint )
+    {
+        if ( !fingerprintFile.isFile() || !manifestFile.isFile() )
+        {
+            return null;
+        }
+        InputStream in = null;
+        try
+        {
+            if ( !fingerprint.equals( FileUtils.fileRead( fingerprintFile, ENCODING ).trim() ) )
+            {
+                return null;
+            }
+            in = new FileInputStream( manifestFile );
+            byte[] manifest = IOUtil.toByteArray( in );
+            in.close();
+            in = null;
+            return manifest;
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * Stores the manifest, as written, along with the fingerprint of its inputs.
+     */
+    void store( String fingerprint, byte[] manifest )
+        throws IOException
+    {
+        File dir = manifestFile.getParentFile();
+        if ( dir != null && !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IOException( "Failed to create directory: " + dir );
+        }
+
+        // drop the fingerprint first, so that a failure below can't leave it pointing at the wrong manifest
+        if ( fingerprintFile.exists() && !fingerprintFile.delete() )
+        {
+            throw new IOException( "Failed to delete: " + fingerprintFile );
+        }
+
+        write( manifestFile, manifest );
+        write( fingerprintFile, fingerprint.getBytes( ENCODING ) );
+    }
+
+    private static void write( File file, byte[] bytes )
+        throws IOException
+    {
+        OutputStream os = new FileOutputStream( file );
+        try
+        {
+            os.write( bytes );
+            os.close();
+            os = null;
+        }
+        finally
+        {
+            IOUtil.close( os );
+        }
+    }
+
+    /**
+     * Computes a fingerprint of everything {@link MavenArchiver#getManifest(MavenSession, MavenProject,
+     * MavenArchiveConfiguration)} looks at: the archive and manifest configuration, the project
+     * coordinates and organization, the project artifacts and the runtime classpath.
+     *
+     * @param classpath the runtime classpath, may be null if the manifest doesn't contain one.
+     */
+    static String fingerprint( MavenSession session, MavenProject project, MavenArchiveConfiguration config,
+                               ClasspathSnapshot classpath )
+    {
+        Fingerprint fp = new Fingerprint();
+        fp.add( FORMAT );
+
+        fp.add( session == null ? null : session.getExecutionProperties().getProperty( "maven.version" ) );
+        fp.add( System.getProperty( "user.name" ) );
+        fp.add( System.getProperty( "java.version" ) );
+
+        fp.add( project.getGroupId() );
+        fp.add( project.getArtifactId() );
+        fp.add( project.getVersion() );
+        fp.add( project.getName() );
+        fp.add( project.getOrganization() == null ? null : project.getOrganization().getName() );
+
+        ManifestConfiguration manifest = config.getManifest();
+        fp.add( manifest.getMainClass() );
+        fp.add( manifest.getPackageName() );
+        fp.add( manifest.isAddClasspath() );
+        fp.add( manifest.isAddExtensions() );
+        fp.add( manifest.isAddDefaultSpecificationEntries() );
+        fp.add( manifest.isAddDefaultImplementationEntries() );
+        fp.add( manifest.getClasspathPrefix() );
+        fp.add( manifest.getClasspathLayoutType() );
+        fp.add( manifest.getCustomClasspathLayout() );
+        fp.add( manifest.isUseUniqueVersions() );
+
+        // a reproducible manifest has its entries sorted, otherwise they're written in the order they're configured
+        boolean sorted = config.isReproducible();
+        fp.add( sorted );
+        fp.add( config.isEntryFilter() );
+        fp.add( config.isManifestEntriesEmpty() ? Collections.<String, String>emptyMap()
+                    : config.getManifestEntries(), sorted );
+        if ( config.isManifestSectionsEmpty() )
+        {
+            fp.add( 0 );
+        }
+        else
+        {
+            fp.add( config.getManifestSections().size() );
+            for ( ManifestSection section : config.getManifestSections() )
+            {
+                fp.add( section.getName() );
+                fp.add( section.getManifestEntries(), sorted );
+            }
+        }
+
+        @SuppressWarnings( "unchecked" )
+        Set<Artifact> artifacts = project.getArtifacts();
+        fp.add( artifacts.size() );
+        for ( Artifact artifact : artifacts )
+        {
+            fp.add( artifact );
+            fp.add( artifact.getRepository() == null ? null : artifact.getRepository().getUrl() );
+        }
+
+        if ( classpath == null )
+        {
+            fp.add( -1 );
+        }
+        else
+        {
+            fp.add( classpath.getElements().size() );
+            for ( ClasspathSnapshot.Element element : classpath.getElements() )
+            {
+                fp.add( element.getPath() );
+                fp.add( element.isFile() );
+                fp.add( element.getArtifact() );
+            }
+        }
+        return fp.toString();
+    }
+
+    /**
+     * Feeds length prefixed values into a SHA-1 digest, so that different sequences of values can't
+     * collide by accident.
+     */
+    private static final class Fingerprint
+    {
+        private final MessageDigest digest;
+
+        Fingerprint()
+        {
+            try
+            {
+                digest = MessageDigest.getInstance( "SHA-1" );
+            }
+            catch ( NoSuchAlgorithmException e )
+            {
+                throw new IllegalStateException( "SHA-1 not supported by this JVM" );
+            }
+        }
+
+        void add( String value )
+        {
+            if ( value == null )
+            {
+                add( -1 );
+                return;
+            }
+            try
+            {
+                byte[] bytes = value.getBytes( ENCODING );
+                add( bytes.length );
+                digest.update( bytes );
+            }
+            catch ( UnsupportedEncodingException e )
+            {
+                throw new IllegalStateException( ENCODING + " not supported by this JVM" );
+            }
+        }
+
+        void add( int value )
+        {
+            digest.update( (byte) ( value >>> 24 ) );
+            digest.update( (byte) ( value >>> 16 ) );
+            digest.update( (byte) ( value >>> 8 ) );
+            digest.update( (byte) value );
+        }
+
+        void add( boolean value )
+        {
+            digest.update( value ? (byte) 1 : (byte) 0 );
+        }
+
+        void add( Map<String, String> entries, boolean sorted )
+        {
+            if ( !sorted )
+            {
+                add( entries.size() );
+                for ( Map.Entry<String, String> entry : entries.entrySet() )
+                {
+                    add( entry.getKey() );
+                    add( entry.getValue() );
+                }
+                return;
+            }
+            Map<String, String> sortedEntries = new TreeMap<String, String>();
+            List<String> nullKeys = new ArrayList<String>();
+            for ( Map.Entry<String, String> entry : entries.entrySet() )
+            {
+                if ( entry.getKey() == null )
+                {
+                    nullKeys.add( entry.getValue() );
+                }
+                else
+                {
+                    sortedEntries.put( entry.getKey(), entry.getValue() );
+                }
+            }
+            add( sortedEntries.size() + nullKeys.size() );
+            for ( Map.Entry<String, String> entry : sortedEntries.entrySet() )
+            {
+                add( entry.getKey() );
+                add( entry.getValue() );
+            }
+            for ( String value : nullKeys )
+            {
+                add( (String) null );
+                add( value );
+            }
+        }
+
+        void add( Artifact artifact )
+        {
+            if ( artifact == null )
+            {
+                add( -1 );
+                return;
+            }
+            add( artifact.getGroupId() );
+            add( artifact.getArtifactId() );
+            add( artifact.getVersion() );
+            add( artifact.getBaseVersion() );
+            add( artifact.getClassifier() );
+            add( artifact.getType() );
+            add( artifact.getScope() );
+            add( artifact.getFile() == null ? null : artifact.getFile().getPath() );
+            ArtifactHandler handler = artifact.getArtifactHandler();
+            add( handler == null ? null : handler.getExtension() );
+            add( handler == null ? null : handler.getClassifier() );
+        }
+
+        public String toString()
+        {
+            byte[] bytes = digest.digest();
+            StringBuilder hex = new StringBuilder( bytes.length * 2 );
+            for ( byte b : bytes )
+            {
+                hex.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) );
+                hex.append( Character.forDigit( b & 0xf, 16 ) );
+            }
+            return hex.toString();
+        }
+    }
+}
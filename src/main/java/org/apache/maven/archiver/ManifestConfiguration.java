@@ -79,6 +79,13 @@ public class ManifestConfiguration
     
     private boolean useUniqueVersions = true;
 
+    /**
+     * The number of threads checking the runtime classpath elements for existence.
+     *
+     * @since 2.5.1
+     */
+    private int classpathCheckThreads = 1;
+
     public String getMainClass()
     {
         return mainClass;
@@ -264,4 +271,29 @@ public class ManifestConfiguration
     {
         this.useUniqueVersions = useUniqueVersions;
     }
+
+    /**
+     * Retrieve the number of threads used to check which of the runtime classpath elements are
+     * files, and so belong into the Class-Path entry. The default of 1 checks them one after the
+     * other on the calling thread.
+     *
+     * @since 2.5.1
+     */
+    public int getClasspathCheckThreads()
+    {
+        return classpathCheckThreads;
+    }
+
+    /**
+     * Set the number of threads used to check which of the runtime classpath elements are
+     * files, and so belong into the Class-Path entry. Values greater than 1 check the elements
+     * in parallel, which pays off when the local repository is on a slow (network) file system.
+     * The resulting Class-Path is the same either way.
+     *
+     * @since 2.5.1
+     */
+    public void setClasspathCheckThreads( int classpathCheckThreads )
+    {
+        this.classpathCheckThreads = classpathCheckThreads;
+    }
 }
@@ -0,0 +1,244 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+import org.codehaus.plexus.archiver.jar.ManifestException;
+
+/**
+ * Writes a manifest straight to a byte stream. Unlike {@link org.codehaus.plexus.archiver.jar.Manifest}, which
+ * keeps an attribute object per entry and serializes the whole manifest into intermediate buffers, the sections
+ * only keep references to the attribute values, and every line is encoded and wrapped on its own. Attributes
+ * are merged the same way the plexus manifest merges them: a later value replaces an earlier one, except for
+ * <code>Class-Path</code>, which is appended to.
+ *
+ * @version $Id$
+ */
+class ManifestWriter
+{
+    static final int MAX_LINE_LENGTH = 72;
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final byte[] EOL = { '\r', '\n' };
+
+    private static final byte[] CONTINUATION = { '\r', '\n', ' ' };
+
+    private static final Attributes.Name CLASS_PATH = Attributes.Name.CLASS_PATH;
+
+    private final Section mainSection = new Section( null );
+
+    private final Map<String, Section> sections = new LinkedHashMap<String, Section>();
+
+    private boolean sorted;
+
+    ManifestWriter()
+    {
+        mainSection.setValue( Attributes.Name.MANIFEST_VERSION.toString(), "1.0" );
+    }
+
+    /**
+     * Sets whether the attributes and sections are written sorted by their names, rather than in the order they
+     * were added, so the manifest doesn't depend on the order of maps.
+     */
+    void setSorted( boolean sorted )
+    {
+        this.sorted = sorted;
+    }
+
+    Section getMainSection()
+    {
+        return mainSection;
+    }
+
+    /**
+     * @return the section with the given name, which is created if it doesn't exist yet.
+     */
+    Section getSection( String name )
+        throws ManifestException
+    {
+        if ( name == null )
+        {
+            throw new ManifestException( "Sections must have a name" );
+        }
+        Section section = sections.get( name );
+        if ( section == null )
+        {
+            section = new Section( name );
+            sections.put( name, section );
+        }
+        return section;
+    }
+
+    /**
+     * Writes the main section, followed by the named sections in the order they were first requested, unless
+     * they are sorted.
+     */
+    void write( OutputStream out )
+        throws IOException
+    {
+        // the version must come first
+        String version = mainSection.getValue( Attributes.Name.MANIFEST_VERSION.toString() );
+        if ( version != null )
+        {
+            writeLine( out, Attributes.Name.MANIFEST_VERSION.toString(), version );
+        }
+        for ( Map.Entry<Attributes.Name, String> attribute : getAttributes( mainSection ) )
+        {
+            if ( !Attributes.Name.MANIFEST_VERSION.equals( attribute.getKey() ) )
+            {
+                writeLine( out, attribute.getKey().toString(), attribute.getValue() );
+            }
+        }
+        out.write( EOL );
+
+        Collection<Section> sectionList = sections.values();
+        if ( sorted )
+        {
+            List<Section> sortedSections = new ArrayList<Section>( sectionList );
+            Collections.sort( sortedSections, new Comparator<Section>()
+            {
+                public int compare( Section s1, Section s2 )
+                {
+                    return s1.name.compareTo( s2.name );
+                }
+            } );
+            sectionList = sortedSections;
+        }
+        for ( Section section : sectionList )
+        {
+            writeLine( out, "Name", section.name );
+            for ( Map.Entry<Attributes.Name, String> attribute : getAttributes( section ) )
+            {
+                writeLine( out, attribute.getKey().toString(), attribute.getValue() );
+            }
+            out.write( EOL );
+        }
+        out.flush();
+    }
+
+    private Collection<Map.Entry<Attributes.Name, String>> getAttributes( Section section )
+    {
+        if ( !sorted )
+        {
+            return section.attributes.entrySet();
+        }
+        List<Map.Entry<Attributes.Name, String>> attributes =
+            new ArrayList<Map.Entry<Attributes.Name, String>>( section.attributes.entrySet() );
+        Collections.sort( attributes, new Comparator<Map.Entry<Attributes.Name, String>>()
+        {
+            public int compare( Map.Entry<Attributes.Name, String> a1, Map.Entry<Attributes.Name, String> a2 )
+            {
+                // names are case insensitive
+                return a1.getKey().toString().compareToIgnoreCase( a2.getKey().toString() );
+            }
+        } );
+        return attributes;
+    }
+
+    /**
+     * Writes a <code>name: value</code> line, wrapped so that no line exceeds {@link #MAX_LINE_LENGTH} bytes.
+     * Continuation lines start with a space, and multi-byte characters are never split across lines.
+     */
+    static void writeLine( OutputStream out, String name, String value )
+        throws IOException
+    {
+        byte[] line = ( name + ": " + value ).getBytes( ENCODING );
+        int pos = 0;
+        int limit = MAX_LINE_LENGTH;
+        while ( line.length - pos > limit )
+        {
+            int end = pos + limit;
+            while ( end > pos + 1 && ( line[end] & 0xC0 ) == 0x80 )
+            {
+                end--;
+            }
+            out.write( line, pos, end - pos );
+            out.write( CONTINUATION );
+            pos = end;
+            limit = MAX_LINE_LENGTH - 1;
+        }
+        out.write( line, pos, line.length - pos );
+        out.write( EOL );
+    }
+
+    /**
+     * The attributes of a single section, in the order they were first added.
+     */
+    static final class Section
+    {
+        private final String name;
+
+        private final Map<Attributes.Name, String> attributes = new LinkedHashMap<Attributes.Name, String>();
+
+        private Section( String name )
+        {
+            this.name = name;
+        }
+
+        /**
+         * @return the value of the attribute, looked up ignoring case, or null if there is none.
+         */
+        String getValue( String key )
+        {
+            return attributes.get( new Attributes.Name( key ) );
+        }
+
+        /**
+         * Sets the value of an attribute, replacing any previous value.
+         */
+        void setValue( String key, String value )
+        {
+            // like java.util.jar.Attributes, the spelling of the first key is kept
+            attributes.put( new Attributes.Name( key ), value );
+        }
+
+        /**
+         * Adds an attribute, appending the value to an existing <code>Class-Path</code>, and replacing the previous
+         * value of any other attribute. Like a plexus manifest attribute, the value is trimmed.
+         */
+        void addAttribute( String key, String value )
+            throws ManifestException
+        {
+            if ( key == null || value == null )
+            {
+                throw new ManifestException( "Attributes must have name and value" );
+            }
+            value = value.trim();
+            Attributes.Name attributeName = new Attributes.Name( key );
+            String existing = attributes.get( attributeName );
+            if ( existing != null && CLASS_PATH.equals( attributeName ) )
+            {
+                value = existing + " " + value;
+            }
+            attributes.put( attributeName, value );
+        }
+    }
+}
@@ -34,6 +34,14 @@ import java.util.Map;
  */
 public class MavenArchiveConfiguration
 {
+    /**
+     * The default time of the entries of reproducible archives, 1980-01-01T00:00:00Z in seconds since the epoch,
+     * which is the earliest time a zip file can hold.
+     *
+     * @since 2.5.1
+     */
+    public static final long DEFAULT_REPRODUCIBLE_EPOCH = 315532800L;
+
     private boolean compress = true;
 
     private boolean index;
@@ -58,6 +66,81 @@ public class MavenArchiveConfiguration
      */
     private File pomPropertiesFile;
 
+    /**
+     * @since 2.5.1
+     */
+    private boolean cacheManifest;
+
+    /**
+     * @since 2.5.1
+     */
+    private boolean incremental;
+
+    /**
+     * @since 2.5.1
+     */
+    private int compressionThreads = 1;
+
+    /**
+     * @since 2.5.1
+     */
+    private int compressionMemoryLimit = 64;
+
+    /**
+     * @since 2.5.1
+     */
+    private boolean adaptiveCompression;
+
+    /**
+     * @since 2.5.1
+     */
+    private int minCompressionSavings = 10;
+
+    /**
+     * @since 2.5.1
+     */
+    private boolean reproducible;
+
+    /**
+     * @since 2.5.1
+     */
+    private long reproducibleEpoch = DEFAULT_REPRODUCIBLE_EPOCH;
+
+    /**
+     * @since 2.5.1
+     */
+    private File archiveCacheDirectory;
+
+    /**
+     * @since 2.5.1
+     */
+    private int archiveCacheSize = 1024;
+
+    /**
+     * @since 2.5.1
+     */
+    private boolean archiveCacheHardLinks;
+
+    /**
+     * @since 2.5.1
+     */
+    private boolean entryFilter;
+
+    /**
+     * @since 2.5.1
+     */
+    private int mappedInputThreshold;
+
+    /**
+     * @since 2.5.1
+     */
+    private boolean pomPropertiesInMemory;
+
+    /**
+     * @since 2.5.1
+     */
+    private boolean compositionReport;
+
     public boolean isCompress()
     {
         return compress;
@@ -164,16 +247,10 @@ public class MavenArchiveConfiguration
 
     /**
      * <p>Returns, whether recreating the archive is forced (default). Setting
-     * this option to false means, that the archiver should compare the
-     * timestamps of included files with the timestamp of the target archive
-     * and rebuild the archive only, if the latter timestamp precedes the
-     * former timestamps. Checking for timestamps will typically offer a
-     * performance gain (in particular, if the following steps in a build
-     * can be suppressed, if an archive isn't recrated) on the cost that
-     * you get inaccurate results from time to time. In particular, removal
-     * of source files won't be detected.</p>
-     * <p>An archiver doesn't necessarily support checks for uptodate. If
-     * so, setting this option to true will simply be ignored.</p>
+     * this option to false means, that the archive is only rebuilt if the
+     * included files or the manifest changed since it was last built, as
+     * recorded in a journal of the included files. Unlike a comparison of
+     * timestamps, this also detects removed files.</p>
      *
      * @return True, if the target archive should always be created; false
      *         otherwise
@@ -186,16 +263,15 @@ public class MavenArchiveConfiguration
 
     /**
      * <p>Sets, whether recreating the archive is forced (default). Setting
-     * this option to false means, that the archiver should compare the
-     * timestamps of included files with the timestamp of the target archive
-     * and rebuild the archive only, if the latter timestamp precedes the
-     * former timestamps. Checking for timestamps will typically offer a
-     * performance gain (in particular, if the following steps in a build
-     * can be suppressed, if an archive isn't recrated) on the cost that
-     * you get inaccurate results from time to time. In particular, removal
-     * of source files won't be detected.</p>
-     * <p>An archiver doesn't necessarily support checks for uptodate. If
-     * so, setting this option to true will simply be ignored.</p>
+     * this option to false means, that the archive is only rebuilt if the
+     * included files or the manifest changed since it was last built. To
+     * that end, a journal of the included files (with their sizes, timestamps
+     * and content digests) is kept in the <code>maven-archiver</code> directory
+     * of the build. Files whose size and timestamp didn't change are trusted,
+     * files with a new timestamp only are compared by their digest, and added
+     * or removed files are detected as well. Skipping the archive will typically
+     * offer a performance gain, in particular, if the following steps in a build
+     * can be suppressed, if an archive isn't recreated.</p>
      *
      * @param forced True, if the target archive should always be created; false
      *               otherwise
@@ -227,4 +303,450 @@ public class MavenArchiveConfiguration
     {
         this.pomPropertiesFile = pomPropertiesFile;
     }
+
+    /**
+     * Returns, whether the generated manifest is kept in the build directory and reused by
+     * later builds. If so, a fingerprint of everything the manifest depends on (the archive and
+     * manifest configuration, the project coordinates, the artifacts and the runtime classpath)
+     * is stored next to the manifest, and as long as the fingerprint doesn't change, the stored
+     * manifest is used instead of generating a new one.
+     *
+     * @return True, if the manifest should be cached; false otherwise (default).
+     * @since 2.5.1
+     */
+    public boolean isCacheManifest()
+    {
+        return cacheManifest;
+    }
+
+    /**
+     * Sets, whether the generated manifest is kept in the build directory and reused by
+     * later builds, as long as nothing it depends on changes.
+     *
+     * @param cacheManifest True, if the manifest should be cached; false otherwise.
+     * @see #isCacheManifest()
+     * @since 2.5.1
+     */
+    public void setCacheManifest( boolean cacheManifest )
+    {
+        this.cacheManifest = cacheManifest;
+    }
+
+    /**
+     * Returns, whether the archive is updated incrementally. If so, the entries of the
+     * existing archive whose source files didn't change are copied over as they are,
+     * without compressing them again.
+     *
+     * @return True, if the archive is updated incrementally; false otherwise.
+     * @see #setIncremental(boolean)
+     * @since 2.5.1
+     */
+    public boolean isIncremental()
+    {
+        return incremental;
+    }
+
+    /**
+     * <p>Sets, whether the archive is updated incrementally. If so, and the target
+     * archive exists from a previous build, the entries whose source files have the
+     * same size and timestamp as before, and aren't newer than the target archive,
+     * are copied over from it in their compressed form. Only new and changed entries
+     * are compressed, and entries without a source file are dropped.</p>
+     * <p>Incremental updates are only supported for plain jar archivers, without a
+     * manifest file, which aren't given a manifest, finalizers or filters of their own
+     * either. They must keep the defaults of the settings only they know, so they must
+     * not add duplicate entries, leave out directory entries, use another encoding than
+     * UTF-8, write an archive comment or update an existing archive. Otherwise, the
+     * archive is written by the archiver, and this option is ignored. Like the archiver,
+     * the first of several entries with the same name is kept, unless duplicates should
+     * fail the archive.</p>
+     *
+     * @param incremental True, if the archive should be updated incrementally; false
+     *                    otherwise
+     * @see #isIncremental()
+     * @since 2.5.1
+     */
+    public void setIncremental( boolean incremental )
+    {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Returns the number of threads compressing the entries of the archive.
+     *
+     * @return The number of compressing threads, 1 by default.
+     * @see #setCompressionThreads(int)
+     * @since 2.5.1
+     */
+    public int getCompressionThreads()
+    {
+        return compressionThreads;
+    }
+
+    /**
+     * <p>Sets the number of threads compressing the entries of the archive. With
+     * more than one thread, the entries are compressed concurrently into buffers,
+     * which are written in the order of the entries, so the archive is the same
+     * as the one compressed by a single thread.</p>
+     * <p>Like incremental updates, parallel compression is only supported for plain
+     * jar archivers, without a manifest file. Otherwise, this option is ignored.</p>
+     *
+     * @param compressionThreads The number of compressing threads
+     * @see #setCompressionMemoryLimit(int)
+     * @since 2.5.1
+     */
+    public void setCompressionThreads( int compressionThreads )
+    {
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * Returns the memory the buffers of the entries compressed in parallel may take up.
+     *
+     * @return The memory limit in megabytes, 64 by default.
+     * @see #setCompressionMemoryLimit(int)
+     * @since 2.5.1
+     */
+    public int getCompressionMemoryLimit()
+    {
+        return compressionMemoryLimit;
+    }
+
+    /**
+     * Sets the memory, in megabytes, the buffers of the entries compressed in parallel
+     * may take up. Once the buffers reach the limit, no more entries are compressed
+     * until those ahead of them are written. Entries which don't fit under the limit
+     * at all are compressed while they are written, without buffering them.
+     *
+     * @param compressionMemoryLimit The memory limit in megabytes
+     * @see #setCompressionThreads(int)
+     * @since 2.5.1
+     */
+    public void setCompressionMemoryLimit( int compressionMemoryLimit )
+    {
+        this.compressionMemoryLimit = compressionMemoryLimit;
+    }
+
+    /**
+     * Returns, whether entries which don't compress well are stored instead of
+     * compressed.
+     *
+     * @return True, if the compression adapts to the entries; false otherwise.
+     * @see #setAdaptiveCompression(boolean)
+     * @since 2.5.1
+     */
+    public boolean isAdaptiveCompression()
+    {
+        return adaptiveCompression;
+    }
+
+    /**
+     * <p>Sets, whether entries which don't compress well are stored instead of
+     * compressed. Entries in a compressed format, like nested archives, gzip files
+     * and PNG or JPEG images, are recognized by their first bytes and stored as they
+     * are. Of the other entries, those whose first bytes don't shrink by at least
+     * {@link #getMinCompressionSavings()} percent are stored as well.</p>
+     * <p>Like incremental updates, adaptive compression is only supported for plain
+     * jar archivers, without a manifest file. Otherwise, and without compression,
+     * this option is ignored.</p>
+     *
+     * @param adaptiveCompression True, if the compression should adapt to the entries;
+     *                            false otherwise
+     * @see MavenArchiver#getCompressionStatistics()
+     * @since 2.5.1
+     */
+    public void setAdaptiveCompression( boolean adaptiveCompression )
+    {
+        this.adaptiveCompression = adaptiveCompression;
+    }
+
+    /**
+     * Returns the percentage by which compression must shrink an entry for adaptive
+     * compression to compress it.
+     *
+     * @return The minimum savings in percent, 10 by default.
+     * @see #setAdaptiveCompression(boolean)
+     * @since 2.5.1
+     */
+    public int getMinCompressionSavings()
+    {
+        return minCompressionSavings;
+    }
+
+    /**
+     * Sets the percentage by which compression must shrink an entry for adaptive
+     * compression to compress it.
+     *
+     * @param minCompressionSavings The minimum savings in percent
+     * @see #setAdaptiveCompression(boolean)
+     * @since 2.5.1
+     */
+    public void setMinCompressionSavings( int minCompressionSavings )
+    {
+        this.minCompressionSavings = minCompressionSavings;
+    }
+
+    /**
+     * Returns, whether the archive is reproducible, so that the same inputs give the
+     * same archive, down to the bytes.
+     *
+     * @return True, if the archive is reproducible; false otherwise.
+     * @see #setReproducible(boolean)
+     * @since 2.5.1
+     */
+    public boolean isReproducible()
+    {
+        return reproducible;
+    }
+
+    /**
+     * <p>Sets, whether the archive is reproducible, so that the same inputs give the
+     * same archive, down to the bytes. If so, the entries are sorted by their names,
+     * get the time {@link #getReproducibleEpoch()} and normalized permissions, the
+     * attributes and sections of the manifest are sorted by their names, and the
+     * <code>pom.properties</code> file is written without the date comment.</p>
+     * <p>Like incremental updates, entries are only sorted and given a fixed time for
+     * plain jar archivers. Since the time of the entries
+     * doesn't tell whether their sources changed, they aren't copied over from a
+     * previous archive, even if it's updated incrementally.</p>
+     *
+     * @param reproducible True, if the archive should be reproducible; false
+     *                     otherwise
+     * @see #setReproducibleEpoch(long)
+     * @since 2.5.1
+     */
+    public void setReproducible( boolean reproducible )
+    {
+        this.reproducible = reproducible;
+    }
+
+    /**
+     * Returns the time of the entries of a reproducible archive.
+     *
+     * @return The time in seconds since the epoch, {@link #DEFAULT_REPRODUCIBLE_EPOCH}
+     *         by default.
+     * @see #setReproducible(boolean)
+     * @since 2.5.1
+     */
+    public long getReproducibleEpoch()
+    {
+        return reproducibleEpoch;
+    }
+
+    /**
+     * Sets the time of the entries of a reproducible archive, in seconds since the
+     * epoch, like the <code>SOURCE_DATE_EPOCH</code> environment variable. The time
+     * is written in UTC, so the archive doesn't depend on the time zone of the build.
+     *
+     * @param reproducibleEpoch The time in seconds since the epoch
+     * @see #setReproducible(boolean)
+     * @since 2.5.1
+     */
+    public void setReproducibleEpoch( long reproducibleEpoch )
+    {
+        this.reproducibleEpoch = reproducibleEpoch;
+    }
+
+    /**
+     * Returns the directory of the archive cache.
+     *
+     * @return The directory of the archive cache, or null if archives aren't cached.
+     * @see #setArchiveCacheDirectory(File)
+     * @since 2.5.1
+     */
+    public File getArchiveCacheDirectory()
+    {
+        return archiveCacheDirectory;
+    }
+
+    /**
+     * <p>Sets the directory of the archive cache, which may be shared by all builds on
+     * a machine. Before an archive is created, a key is computed from the contents of
+     * its entries, the manifest and the configuration. If the cache has an archive for
+     * the key, it replaces the target archive, and nothing is compressed. Otherwise,
+     * the new archive is stored in the cache.</p>
+     * <p>Archives from the cache keep the times of the entries they were created with.
+     * To make the keys independent of the time of the build, the
+     * <code>pom.properties</code> file is written without the date comment, like in
+     * {@link #isReproducible() reproducible} archives.</p>
+     *
+     * @param archiveCacheDirectory The directory of the archive cache, or null to not
+     *                              cache archives
+     * @see #setArchiveCacheSize(int)
+     * @since 2.5.1
+     */
+    public void setArchiveCacheDirectory( File archiveCacheDirectory )
+    {
+        this.archiveCacheDirectory = archiveCacheDirectory;
+    }
+
+    /**
+     * Returns the size the archives in the archive cache may take up.
+     *
+     * @return The size limit in megabytes, 1024 by default.
+     * @see #setArchiveCacheSize(int)
+     * @since 2.5.1
+     */
+    public int getArchiveCacheSize()
+    {
+        return archiveCacheSize;
+    }
+
+    /**
+     * Sets the size, in megabytes, the archives in the archive cache may take up. Once
+     * they take up more, the least recently used archives are removed.
+     *
+     * @param archiveCacheSize The size limit in megabytes
+     * @see #setArchiveCacheDirectory(File)
+     * @since 2.5.1
+     */
+    public void setArchiveCacheSize( int archiveCacheSize )
+    {
+        this.archiveCacheSize = archiveCacheSize;
+    }
+
+    /**
+     * Returns, whether archives are hard linked to the archive cache.
+     *
+     * @return True, if archives are hard linked; false, if they are copied.
+     * @see #setArchiveCacheHardLinks(boolean)
+     * @since 2.5.1
+     */
+    public boolean isArchiveCacheHardLinks()
+    {
+        return archiveCacheHardLinks;
+    }
+
+    /**
+     * Sets, whether archives are hard linked to the archive cache, rather than copied,
+     * if the Java version (7 and up) and the file system support it. A hard linked
+     * archive shares its contents with the cached one, so any tool that modifies the
+     * archive in place, rather than replacing it, modifies the cached archive as well.
+     *
+     * @param archiveCacheHardLinks True, if archives should be hard linked; false, if
+     *                              they should be copied
+     * @see #setArchiveCacheDirectory(File)
+     * @since 2.5.1
+     */
+    public void setArchiveCacheHardLinks( boolean archiveCacheHardLinks )
+    {
+        this.archiveCacheHardLinks = archiveCacheHardLinks;
+    }
+
+    /**
+     * Returns, whether the archive contains an {@link EntryFilter} of its entry names.
+     *
+     * @return True, if the archive contains an entry filter; false otherwise.
+     * @see #setEntryFilter(boolean)
+     * @since 2.5.1
+     */
+    public boolean isEntryFilter()
+    {
+        return entryFilter;
+    }
+
+    /**
+     * Sets, whether the archive contains an {@link EntryFilter}, a Bloom filter of the
+     * names of its entries and packages, as <code>META-INF/ENTRIES.FILTER</code>. The
+     * <code>Entry-Filter</code> attribute of the manifest points to it. Class loaders
+     * which search a chain of jars can read the filter to skip the jars which can't
+     * contain a class or resource, with about 1% false positives.
+     *
+     * @param entryFilter True, if the archive should contain an entry filter; false
+     *                    otherwise
+     * @since 2.5.1
+     */
+    public void setEntryFilter( boolean entryFilter )
+    {
+        this.entryFilter = entryFilter;
+    }
+
+    /**
+     * Returns the size from which source files are read through memory mappings.
+     *
+     * @return The size in kilobytes, or 0 if files are never mapped, which is the
+     *         default.
+     * @see #setMappedInputThreshold(int)
+     * @since 2.5.1
+     */
+    public int getMappedInputThreshold()
+    {
+        return mappedInputThreshold;
+    }
+
+    /**
+     * Sets the size, in kilobytes, from which source files are read through memory
+     * mappings on their way into the archive, rather than through streams. This
+     * saves the read calls for large resources, such as models and data files.
+     * Smaller files are streamed, which is cheaper than setting up a mapping. On
+     * Windows, a mapped file can't be deleted until the mapping is garbage collected.
+     * <p>Like incremental updates, mapped input is only supported for plain jar
+     * archivers, without a manifest file. Otherwise, this option is ignored.</p>
+     *
+     * @param mappedInputThreshold The size in kilobytes, or 0 to never map files
+     * @see MavenArchiver#getCompressionStatistics()
+     * @since 2.5.1
+     */
+    public void setMappedInputThreshold( int mappedInputThreshold )
+    {
+        this.mappedInputThreshold = mappedInputThreshold;
+    }
+
+    /**
+     * Returns, whether the generated <code>pom.properties</code> is added to the
+     * archive from memory.
+     *
+     * @return True, if no file is written for it; false otherwise.
+     * @see #setPomPropertiesInMemory(boolean)
+     * @since 2.5.1
+     */
+    public boolean isPomPropertiesInMemory()
+    {
+        return pomPropertiesInMemory;
+    }
+
+    /**
+     * Sets, whether the generated <code>pom.properties</code> is added to the archive
+     * straight from memory, rather than written to
+     * <code>maven-archiver/pom.properties</code> in the build directory first. Like a
+     * reproducible one, it's written without the date comment, so it only changes along
+     * with the properties. A {@link #setPomPropertiesFile(File) pomPropertiesFile} is
+     * still used, if there is one.
+     *
+     * @param pomPropertiesInMemory True, if no file should be written for the
+     *                              <code>pom.properties</code>; false otherwise
+     * @since 2.5.1
+     */
+    public void setPomPropertiesInMemory( boolean pomPropertiesInMemory )
+    {
+        this.pomPropertiesInMemory = pomPropertiesInMemory;
+    }
+
+    /**
+     * Returns, whether a report of the composition of the archive is written.
+     *
+     * @return True, if the report is written; false otherwise.
+     * @see #setCompositionReport(boolean)
+     * @since 2.5.1
+     */
+    public boolean isCompositionReport()
+    {
+        return compositionReport;
+    }
+
+    /**
+     * Sets, whether a JSON report of the composition of the archive is written to
+     * <code>maven-archiver/<i>archive name</i>.composition.json</code> in the build
+     * directory. It breaks the entries down by top level directory and by package, with
+     * their raw and compressed sizes and compression ratios, and lists the largest entries.
+     * If the archive is written without the Plexus archiver, it includes the time spent
+     * deflating the entries as well.
+     *
+     * @param compositionReport True, if the report should be written; false otherwise
+     * @since 2.5.1
+     */
+    public void setCompositionReport( boolean compositionReport )
+    {
+        this.compositionReport = compositionReport;
+    }
 }
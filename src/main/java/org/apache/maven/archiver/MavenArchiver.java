@@ -19,30 +19,41 @@ package org.apache.maven.archiver;
  * under the License.
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.AbstractArchiver;
+import org.codehaus.plexus.archiver.ArchiveEntry;
+import org.codehaus.plexus.archiver.Archiver;
 import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.archiver.ResourceIterator;
 import org.codehaus.plexus.archiver.jar.JarArchiver;
 import org.codehaus.plexus.archiver.jar.Manifest;
 import org.codehaus.plexus.archiver.jar.ManifestException;
-import org.codehaus.plexus.interpolation.InterpolationException;
-import org.codehaus.plexus.interpolation.Interpolator;
-import org.codehaus.plexus.interpolation.PrefixAwareRecursionInterceptor;
-import org.codehaus.plexus.interpolation.PrefixedObjectValueSource;
-import org.codehaus.plexus.interpolation.PrefixedPropertiesValueSource;
-import org.codehaus.plexus.interpolation.RecursionInterceptor;
-import org.codehaus.plexus.interpolation.StringSearchInterpolator;
-import org.codehaus.plexus.interpolation.ValueSource;
+import org.codehaus.plexus.components.io.resources.PlexusIoResource;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.StringUtils;
 
 /**
@@ -66,20 +77,26 @@ public class MavenArchiver
         "${artifact.baseVersion}/${artifact.artifactId}-" +
         "${artifact.baseVersion}${dashClassifier?}.${artifact.extension}";
 
-    private static final List<String> ARTIFACT_EXPRESSION_PREFIXES;
-
-    static
-    {
-        List<String> artifactExpressionPrefixes = new ArrayList<String>();
-        artifactExpressionPrefixes.add( "artifact." );
-
-        ARTIFACT_EXPRESSION_PREFIXES = artifactExpressionPrefixes;
-    }
+    private static final ArchiverEvents EVENTS = ArchiverEvents.getInstance();
 
     private JarArchiver archiver;
 
     private File archiveFile;
 
+    private ClasspathEntryCache classpathEntryCache = ClasspathEntryCache.getSharedInstance();
+
+    /**
+     * The statistics of the last archive, which an archive created in the background sets from the thread it's
+     * created on.
+     */
+    private volatile CompressionStatistics compressionStatistics;
+
+    private ArchiverListener listener;
+
+    private ArchiverTrace trace = ArchiverTrace.getGlobal();
+
+    private Boolean jarWriter;
+
     /**
      * Return a pre-configured manifest
      *
@@ -100,11 +117,30 @@ public class MavenArchiver
 
     public Manifest getManifest( MavenSession session, MavenProject project, MavenArchiveConfiguration config )
         throws ManifestException, DependencyResolutionRequiredException
+    {
+        ClasspathSnapshot classpath = resolveClasspath( project, config, null );
+        Object event = EVENTS.beginManifest();
+        long start = startPhase( ArchiverPhase.MANIFEST );
+        long hits = getCacheHits();
+        Manifest manifest = getManifest( session, project, config, classpath );
+        finishPhase( ArchiverPhase.MANIFEST, start, 0, 0, 0, classpath, getCacheHits() - hits );
+        commitManifestEvent( event, project, config, classpath );
+        return manifest;
+    }
+
+    private Manifest getManifest( MavenSession session, MavenProject project, MavenArchiveConfiguration config,
+                                  ClasspathSnapshot classpath )
+        throws ManifestException, DependencyResolutionRequiredException
     {
         boolean hasManifestEntries = !config.isManifestEntriesEmpty();
         @SuppressWarnings( "unchecked" )
         Map<String, String> entries = hasManifestEntries ? config.getManifestEntries() : Collections.EMPTY_MAP;
-        Manifest manifest = getManifest( session, project, config.getManifest(), entries );
+        Manifest manifest = getManifest( session, project, config.getManifest(), entries, classpath );
+        if ( config.isEntryFilter() )
+        {
+            addManifestAttribute( sink( manifest ), entries, EntryFilter.MANIFEST_ATTRIBUTE,
+                                  EntryFilter.RESOURCE_NAME );
+        }
 
         // any custom manifest entries in the archive configuration manifest?
         if ( hasManifestEntries )
@@ -157,6 +193,80 @@ public class MavenArchiver
         return manifest;
     }
 
+    /**
+     * Writes the manifest {@link #getManifest(MavenSession, MavenProject, MavenArchiveConfiguration)} would return
+     * straight to a stream, without building a {@link Manifest} first. The attributes are the same, though they
+     * are written in the order they are generated in.
+     *
+     * @param out the stream to write the manifest to, which is flushed but not closed.
+     * @since 2.5.1
+     */
+    public void writeManifest( MavenSession session, MavenProject project, MavenArchiveConfiguration config,
+                               OutputStream out )
+        throws ManifestException, DependencyResolutionRequiredException, IOException
+    {
+        ClasspathSnapshot classpath = resolveClasspath( project, config, null );
+        Object event = EVENTS.beginManifest();
+        long start = startPhase( ArchiverPhase.MANIFEST );
+        long hits = getCacheHits();
+        writeManifest( session, project, config, classpath, out );
+        finishPhase( ArchiverPhase.MANIFEST, start, 0, 0, 0, classpath, getCacheHits() - hits );
+        commitManifestEvent( event, project, config, classpath );
+    }
+
+    private void writeManifest( MavenSession session, MavenProject project, MavenArchiveConfiguration config,
+                                ClasspathSnapshot classpath, OutputStream out )
+        throws ManifestException, DependencyResolutionRequiredException, IOException
+    {
+        boolean hasManifestEntries = !config.isManifestEntriesEmpty();
+        @SuppressWarnings( "unchecked" )
+        Map<String, String> entries = hasManifestEntries ? config.getManifestEntries() : Collections.EMPTY_MAP;
+
+        ManifestWriter writer = new ManifestWriter();
+        writer.setSorted( config.isReproducible() );
+        ManifestWriter.Section mainSection = writer.getMainSection();
+        AttributeSink main = sink( mainSection );
+        addGeneratedAttributes( session, project, config.getManifest(), entries, classpath, main );
+        if ( config.isEntryFilter() )
+        {
+            addManifestAttribute( main, entries, EntryFilter.MANIFEST_ATTRIBUTE, EntryFilter.RESOURCE_NAME );
+        }
+
+        // same rules as for the custom entries of getManifest(), see above
+        for ( Map.Entry<String, String> entry : entries.entrySet() )
+        {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            String generated = mainSection.getValue( key );
+            if ( key.equals( "Class-Path" ) && generated != null )
+            {
+                mainSection.setValue( key, value + " " + generated );
+            }
+            else
+            {
+                addManifestAttribute( main, key, value );
+            }
+        }
+
+        if ( !config.isManifestSectionsEmpty() )
+        {
+            for ( ManifestSection section : config.getManifestSections() )
+            {
+                ManifestWriter.Section theSection = writer.getSection( section.getName() );
+
+                if ( !section.isManifestEntriesEmpty() )
+                {
+                    for ( Map.Entry<String, String> entry : section.getManifestEntries().entrySet() )
+                    {
+                        theSection.addAttribute( entry.getKey(), entry.getValue() );
+                    }
+                }
+            }
+        }
+
+        writer.write( out );
+    }
+
     /**
      * Return a pre-configured manifest
      *
@@ -175,7 +285,7 @@ public class MavenArchiver
         return getManifest( mavenSession, project, config, Collections.<String, String>emptyMap() );
     }
 
-    private void addManifestAttribute( Manifest manifest, Map<String, String> map, String key, String value )
+    private void addManifestAttribute( AttributeSink manifest, Map<String, String> map, String key, String value )
         throws ManifestException
     {
         if ( map.containsKey( key ) )
@@ -187,29 +297,55 @@ public class MavenArchiver
 
     private void addManifestAttribute( Manifest manifest, String key, String value )
         throws ManifestException
+    {
+        addManifestAttribute( sink( manifest ), key, value );
+    }
+
+    private void addManifestAttribute( AttributeSink manifest, String key, String value )
+        throws ManifestException
     {
         if ( !StringUtils.isEmpty( value ) )
         {
-            Manifest.Attribute attr = new Manifest.Attribute( key, value );
-            manifest.addConfiguredAttribute( attr );
+            manifest.addAttribute( key, value );
         }
         else
         {
             // if the value is empty we have create an entry with an empty string 
             // to prevent null print in the manifest file
-            Manifest.Attribute attr = new Manifest.Attribute( key, "" );
-            manifest.addConfiguredAttribute( attr );
+            manifest.addAttribute( key, "" );
         }
     }
 
     protected Manifest getManifest( MavenSession session, MavenProject project, ManifestConfiguration config,
                                     Map<String, String> entries )
         throws ManifestException, DependencyResolutionRequiredException
+    {
+        return getManifest( session, project, config, entries, null );
+    }
+
+    /**
+     * @param snapshot the runtime classpath of the project, or null to resolve it here if needed
+     */
+    private Manifest getManifest( MavenSession session, MavenProject project, ManifestConfiguration config,
+                                  Map<String, String> entries, ClasspathSnapshot snapshot )
+        throws ManifestException, DependencyResolutionRequiredException
+    {
+        Manifest manifest = new Manifest();
+        addGeneratedAttributes( session, project, config, entries, snapshot, sink( manifest ) );
+        return manifest;
+    }
+
+    /**
+     * Adds the attributes generated from the project and the manifest configuration, except for the
+     * ones in <code>entries</code>. The <code>Class-Path</code> is added in any case.
+     */
+    private void addGeneratedAttributes( MavenSession session, MavenProject project, ManifestConfiguration config,
+                                         Map<String, String> entries, ClasspathSnapshot snapshot, AttributeSink m )
+        throws ManifestException, DependencyResolutionRequiredException
     {
         // TODO: Should we replace "map" with a copy? Note, that we modify it!
 
         // Added basic entries
-        Manifest m = new Manifest();
         addCreatedByEntry( session, m, entries );
 
         addCustomEntries( m, entries, config );
@@ -218,134 +354,49 @@ public class MavenArchiver
         {
             StringBuilder classpath = new StringBuilder();
 
-            @SuppressWarnings( "unchecked" )
-            List<String> artifacts = project.getRuntimeClasspathElements();
+            if ( snapshot == null )
+            {
+                snapshot = ClasspathSnapshot.create( project, config.getClasspathCheckThreads() );
+            }
             String classpathPrefix = config.getClasspathPrefix();
             String layoutType = config.getClasspathLayoutType();
-            String layout = config.getCustomClasspathLayout();
 
-            Interpolator interpolator = new StringSearchInterpolator();
+            // compiled lazily, so that a broken layout only fails if there is an artifact to format
+            ClasspathLayout layout = null;
+            ClasspathEntryCache.LayoutKey layoutKey = null;
 
-            for ( String artifactFile : artifacts )
+            for ( ClasspathSnapshot.Element element : snapshot.getElements() )
             {
-                File f = new File( artifactFile );
-                if ( f.getAbsoluteFile().isFile() )
+                if ( element.isFile() )
                 {
-                    @SuppressWarnings( "unchecked" )
-                    Artifact artifact = findArtifactWithFile( project.getArtifacts(), f );
+                    Artifact artifact = element.getArtifact();
 
                     if ( classpath.length() > 0 )
                     {
-                        classpath.append( " " );
+                        classpath.append( ' ' );
                     }
-                    classpath.append( classpathPrefix );
 
                     // NOTE: If the artifact or layout type (from config) is null, give up and use the file name by itself.
                     if ( artifact == null || layoutType == null )
                     {
-                        classpath.append( f.getName() );
+                        classpath.append( classpathPrefix );
+                        classpath.append( element.getFile().getName() );
                     }
                     else
                     {
-                        List<ValueSource> valueSources = new ArrayList<ValueSource>();
-                        valueSources.add(
-                            new PrefixedObjectValueSource( ARTIFACT_EXPRESSION_PREFIXES, artifact, true ) );
-                        valueSources.add( new PrefixedObjectValueSource( ARTIFACT_EXPRESSION_PREFIXES, artifact == null
-                            ? null
-                            : artifact.getArtifactHandler(), true ) );
-
-                        Properties extraExpressions = new Properties();
-                        if ( artifact != null )
-                        {
-                            // FIXME: This query method SHOULD NOT affect the internal
-                            // state of the artifact version, but it does.
-                            if ( !artifact.isSnapshot() )
-                            {
-                                extraExpressions.setProperty( "baseVersion", artifact.getVersion() );
-                            }
-
-                            extraExpressions.setProperty( "groupIdPath", artifact.getGroupId().replace( '.', '/' ) );
-                            if ( StringUtils.isNotEmpty( artifact.getClassifier() ) )
-                            {
-                                extraExpressions.setProperty( "dashClassifier", "-" + artifact.getClassifier() );
-                                extraExpressions.setProperty( "dashClassifier?", "-" + artifact.getClassifier() );
-                            }
-                            else
-                            {
-                                extraExpressions.setProperty( "dashClassifier", "" );
-                                extraExpressions.setProperty( "dashClassifier?", "" );
-                            }
-                        }
-                        valueSources.add(
-                            new PrefixedPropertiesValueSource( ARTIFACT_EXPRESSION_PREFIXES, extraExpressions, true ) );
-
-                        for ( ValueSource vs : valueSources )
-                        {
-                            interpolator.addValueSource( vs );
-                        }
-
-                        RecursionInterceptor recursionInterceptor =
-                            new PrefixAwareRecursionInterceptor( ARTIFACT_EXPRESSION_PREFIXES );
-
-                        try
+                        if ( layout == null )
                         {
-                            if ( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_SIMPLE.equals( layoutType ) )
-                            {
-                                if ( config.isUseUniqueVersions() )
-                                {
-                                    classpath.append( interpolator.interpolate( SIMPLE_LAYOUT, recursionInterceptor ) );
-                                }
-                                else
-                                {
-                                    classpath.append(
-                                        interpolator.interpolate( SIMPLE_LAYOUT_NONUNIQUE, recursionInterceptor ) );
-                                }
-                            }
-                            else if ( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_REPOSITORY.equals( layoutType ) )
-                            {
-                                // we use layout /$groupId[0]/../${groupId[n]/$artifactId/$version/{fileName}
-                                // here we must find the Artifact in the project Artifacts to generate the maven layout
-                                if ( config.isUseUniqueVersions() )
-                                {
-                                    classpath.append(
-                                        interpolator.interpolate( REPOSITORY_LAYOUT, recursionInterceptor ) );
-                                }
-                                else
-                                {
-                                    classpath.append(
-                                        interpolator.interpolate( REPOSITORY_LAYOUT_NONUNIQUE, recursionInterceptor ) );
-                                }
-                            }
-                            else if ( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_CUSTOM.equals( layoutType ) )
-                            {
-                                if ( layout == null )
-                                {
-                                    throw new ManifestException( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_CUSTOM
-                                                                     + " layout type was declared, but custom layout expression was not specified. Check your <archive><manifest><customLayout/> element." );
-                                }
-
-                                classpath.append( interpolator.interpolate( layout, recursionInterceptor ) );
-                            }
-                            else
-                            {
-                                throw new ManifestException( "Unknown classpath layout type: '" + layoutType
-                                                                 + "'. Check your <archive><manifest><layoutType/> element." );
-                            }
+                            layout = ClasspathLayout.forConfiguration( config );
+                            layoutKey = new ClasspathEntryCache.LayoutKey( classpathPrefix, layout );
                         }
-                        catch ( InterpolationException e )
+                        if ( classpathEntryCache != null )
                         {
-                            ManifestException error = new ManifestException(
-                                "Error interpolating artifact path for classpath entry: " + e.getMessage() );
-
-                            error.initCause( e );
-                            throw error;
+                            classpathEntryCache.append( classpath, layoutKey, element );
                         }
-                        finally
+                        else
                         {
-                            for ( ValueSource vs : valueSources )
-                            {
-                                interpolator.removeValuesSource( vs );
-                            }
+                            classpath.append( classpathPrefix );
+                            layout.appendTo( classpath, artifact );
                         }
                     }
                 }
@@ -438,11 +489,9 @@ public class MavenArchiver
                 }
             }
         }
-
-        return m;
     }
 
-    private void addCustomEntries( Manifest m, Map<String, String> entries, ManifestConfiguration config )
+    private void addCustomEntries( AttributeSink m, Map<String, String> entries, ManifestConfiguration config )
         throws ManifestException
     {
         addManifestAttribute( m, entries, "Built-By", System.getProperty( "user.name" ) );
@@ -481,6 +530,76 @@ public class MavenArchiver
         archiveFile = outputFile;
     }
 
+    /**
+     * @return the cache of rendered <code>Class-Path</code> entries, by default the
+     *         {@link ClasspathEntryCache#getSharedInstance() shared instance}, or null if disabled.
+     * @since 2.5.1
+     */
+    public ClasspathEntryCache getClasspathEntryCache()
+    {
+        return classpathEntryCache;
+    }
+
+    /**
+     * Sets the cache of rendered <code>Class-Path</code> entries.
+     *
+     * @param classpathEntryCache the cache to use, or null to render every entry.
+     * @since 2.5.1
+     */
+    public void setClasspathEntryCache( ClasspathEntryCache classpathEntryCache )
+    {
+        this.classpathEntryCache = classpathEntryCache;
+    }
+
+    /**
+     * @return what compressing the entries of the last archive cost and gained, or null if the archive wasn't
+     *         written, or was written by the archiver itself, which happens unless incremental updates, parallel
+     *         or adaptive compression are configured. Of an archive created in the background, they're only
+     *         available once its future is done, and null until then.
+     * @since 2.5.1
+     */
+    public CompressionStatistics getCompressionStatistics()
+    {
+        return compressionStatistics;
+    }
+
+    /**
+     * @since 2.5.1
+     */
+    public ArchiverListener getListener()
+    {
+        return listener;
+    }
+
+    /**
+     * @param listener what to tell about the phases of creating archives and manifests, or null. Without a
+     *            listener, the phases aren't even timed, unless they're {@link ArchiverTrace traced}.
+     * @since 2.5.1
+     */
+    public void setListener( ArchiverListener listener )
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @param trace where to record the phases and the compressed entries, or null. By default, this is the
+     *            {@link ArchiverTrace#getGlobal() trace} enabled by a system property.
+     */
+    void setTrace( ArchiverTrace trace )
+    {
+        this.trace = trace;
+    }
+
+    /**
+     * @param jarWriter true to write the archives with our own jar writer, false to leave them to the jar archiver,
+     *            or null to choose by the configuration, which is the default. Our own jar writer still requires
+     *            a plain jar archiver, without a manifest file.
+     */
+    void setJarWriter( Boolean jarWriter )
+    {
+        this.jarWriter = jarWriter;
+    }
+
     /**
      * @deprecated
      */
@@ -495,14 +614,192 @@ public class MavenArchiver
                                MavenArchiveConfiguration archiveConfiguration )
         throws ArchiverException, ManifestException, IOException, DependencyResolutionRequiredException
     {
+        ArchiveRequest request = new ArchiveRequest( archiveFile, archiver, archiveConfiguration );
+        compressionStatistics = null;
+        createArchive( session, project, request, null );
+        compressionStatistics = request.getCompressionStatistics();
+    }
+
+    /**
+     * Creates the archive in the background, on a pool of daemon threads which all archivers share, with a thread
+     * per processor. The build has to wait for the archive before it ends.
+     *
+     * @see #createArchiveAsync(MavenSession, MavenProject, MavenArchiveConfiguration, Executor)
+     * @since 2.5.1
+     */
+    public Future<File> createArchiveAsync( MavenSession session, MavenProject project,
+                                            MavenArchiveConfiguration archiveConfiguration )
+        throws ArchiverException, ManifestException, IOException, DependencyResolutionRequiredException
+    {
+        return createArchiveAsync( session, project, archiveConfiguration, ArchiverThreads.getArchivePool() );
+    }
+
+    /**
+     * Creates the archive in the background. The Maven descriptor and the manifest are created before this method
+     * returns, everything else (comparing the inputs with the journal, compressing and writing) is left to the
+     * executor. Neither this archiver, nor the jar archiver may be used until the archive is done.
+     *
+     * @param executor where to create the archive.
+     * @return the archive file, once written. Its <code>get</code> method throws an
+     *         <code>ExecutionException</code> with whatever <code>createArchive</code> would have thrown.
+     *         Cancelling it interrupts the writing thread, which our own jar writer notices after the current entry,
+     *         leaving the previous archive in place; the jar archiver itself doesn't notice.
+     * @since 2.5.1
+     */
+    public Future<File> createArchiveAsync( MavenSession session, MavenProject project,
+                                            MavenArchiveConfiguration archiveConfiguration, Executor executor )
+        throws ArchiverException, ManifestException, IOException, DependencyResolutionRequiredException
+    {
+        final ArchiveRequest request = new ArchiveRequest( archiveFile, archiver, archiveConfiguration );
+        compressionStatistics = null;
+        final Callable<File> writer = prepareArchive( session, project, request, null );
+        FutureTask<File> task = new FutureTask<File>( new Callable<File>()
+        {
+            public File call()
+                throws Exception
+            {
+                File file = writer.call();
+                compressionStatistics = request.getCompressionStatistics();
+                return file;
+            }
+        } );
+        executor.execute( task );
+        return task;
+    }
+
+    /**
+     * Creates several archives of a project at once, on the threads all archivers share. The runtime classpath is resolved
+     * once for all of them, archives with the same manifest configuration share the manifest, and the generated
+     * <code>pom.properties</code> file is written once. The state of each archive stays in its request, so
+     * this archiver creates all of them, and stores the statistics of their compression in the requests.
+     *
+     * @param requests the archives to create, whose archivers must be distinct.
+     * @throws IOException or any of the other exceptions, as thrown by the first archive that failed, once
+     *             the others are done.
+     * @since 2.5.1
+     */
+    public void createArchives( final MavenSession session, final MavenProject project,
+                                List<ArchiveRequest> requests )
+        throws ArchiverException, ManifestException, IOException, DependencyResolutionRequiredException
+    {
+        final SharedInputs shared = new SharedInputs( project );
+        List<Callable<File>> tasks = new ArrayList<Callable<File>>( requests.size() );
+        for ( final ArchiveRequest request : requests )
+        {
+            tasks.add( new Callable<File>()
+            {
+                public File call()
+                    throws Exception
+                {
+                    return prepareArchive( session, project, request, shared ).call();
+                }
+            } );
+        }
+        List<Future<File>> futures =
+            ArchiverThreads.submit( tasks, Math.min( requests.size(), Runtime.getRuntime().availableProcessors() ) );
+
+        Throwable failure = null;
+        for ( Future<File> future : futures )
+        {
+            try
+            {
+                future.get();
+            }
+            catch ( ExecutionException e )
+            {
+                if ( failure == null )
+                {
+                    failure = e.getCause();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                ArchiverThreads.cancel( futures );
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while creating archives" );
+            }
+        }
+        if ( failure != null )
+        {
+            rethrow( failure );
+        }
+    }
+
+    private static void rethrow( Throwable failure )
+        throws ArchiverException, ManifestException, IOException, DependencyResolutionRequiredException
+    {
+        if ( failure instanceof ArchiverException )
+        {
+            throw (ArchiverException) failure;
+        }
+        if ( failure instanceof ManifestException )
+        {
+            throw (ManifestException) failure;
+        }
+        if ( failure instanceof IOException )
+        {
+            throw (IOException) failure;
+        }
+        if ( failure instanceof DependencyResolutionRequiredException )
+        {
+            throw (DependencyResolutionRequiredException) failure;
+        }
+        if ( failure instanceof RuntimeException )
+        {
+            throw (RuntimeException) failure;
+        }
+        if ( failure instanceof Error )
+        {
+            throw (Error) failure;
+        }
+        throw new IllegalStateException( failure );
+    }
+
+    /**
+     * Creates the archive of a request, and stores the statistics of its compression in the request. Nothing but
+     * the caches and the listener of this archiver is used, so requests may be created concurrently.
+     *
+     * @param shared what the archives of a batch share, or null for a single archive.
+     */
+    void createArchive( MavenSession session, MavenProject project, ArchiveRequest request, SharedInputs shared )
+        throws ArchiverException, ManifestException, IOException, DependencyResolutionRequiredException
+    {
+        Callable<File> writer = prepareArchive( session, project, request, shared );
+        try
+        {
+            writer.call();
+        }
+        catch ( Exception e )
+        {
+            rethrow( e );
+        }
+    }
+
+    /**
+     * Adds the Maven descriptor to the archiver and creates the manifest.
+     *
+     * @param shared what the archives of a batch share, or null for a single archive.
+     * @return what writes the archive, and returns the archive file.
+     */
+    private Callable<File> prepareArchive( MavenSession session, MavenProject project, final ArchiveRequest request,
+                                           SharedInputs shared )
+        throws ArchiverException, ManifestException, IOException, DependencyResolutionRequiredException
+    {
+        MavenArchiveConfiguration archiveConfiguration = request.getConfiguration();
+        JarArchiver archiver = request.getArchiver();
+
         // we have to clone the project instance so we can write out the pom with the deployment version,
         // without impacting the main project instance...
         // TODO use clone() in Maven 2.0.9+
+        final Object archiveEvent = EVENTS.beginArchive();
+        final long archiveStart = startPhase( ArchiverPhase.ARCHIVE );
         MavenProject workingProject = new MavenProject( project );
+        request.setCompressionStatistics( null );
 
         boolean forced = archiveConfiguration.isForced();
         if ( archiveConfiguration.isAddMavenDescriptor() )
         {
+            long start = startPhase( ArchiverPhase.MAVEN_DESCRIPTOR );
             // ----------------------------------------------------------------------
             // We want to add the metadata for the project to the JAR in two forms:
             //
@@ -543,12 +840,28 @@ public class MavenArchiver
                     archiver.addFile( pomPropertiesFile, "META-INF/maven/" + groupId + "/" + artifactId + "/pom.properties" );
                 }
             }
-            if ( pomPropertiesFile == null )
+            if ( pomPropertiesFile == null && archiveConfiguration.isPomPropertiesInMemory() )
+            {
+                new PomPropertiesUtil().addPomProperties( workingProject, archiver );
+            }
+            else if ( pomPropertiesFile == null )
             {
                 File dir = new File( workingProject.getBuild().getDirectory(), "maven-archiver" );
                 pomPropertiesFile = new File( dir, "pom.properties" );
-                new PomPropertiesUtil().createPomProperties( workingProject, archiver, pomPropertiesFile, forced );
+                // a date in the file would change the key of the archive cache with every build
+                boolean reproducible = archiveConfiguration.isReproducible()
+                    || archiveConfiguration.getArchiveCacheDirectory() != null;
+                if ( shared != null )
+                {
+                    shared.addPomProperties( workingProject, archiver, pomPropertiesFile, forced, reproducible );
+                }
+                else
+                {
+                    new PomPropertiesUtil().createPomProperties( workingProject, archiver, pomPropertiesFile, forced,
+                                                                 reproducible );
+                }
             }
+            finishPhase( ArchiverPhase.MAVEN_DESCRIPTOR, start, 2, 0, 0, null, 0 );
         }
 
         // ----------------------------------------------------------------------
@@ -562,40 +875,679 @@ public class MavenArchiver
             archiver.setManifest( manifestFile );
         }
 
-        Manifest manifest = getManifest( session, workingProject, archiveConfiguration );
+        // resolve the runtime classpath once, for both the Class-Path entry and the index jars
+        ClasspathSnapshot classpath = resolveClasspath( project, archiveConfiguration, shared );
+
+        // our own jar writer can reuse the entries of the previous archive, compress them in parallel or
+        // adaptively, write them reproducibly, and map large sources, but only writes plain jars
+        boolean useJarWriter = ( jarWriter != null ? jarWriter.booleanValue()
+            : archiveConfiguration.isIncremental() || archiveConfiguration.getCompressionThreads() > 1
+                || archiveConfiguration.isAdaptiveCompression() && archiveConfiguration.isCompress()
+                || archiveConfiguration.isReproducible() || archiveConfiguration.getMappedInputThreshold() > 0 )
+            && manifestFile == null && isPlainJarArchiver( archiver );
+
+        // the attributes of a plexus manifest are written in the order of a hash map, so a reproducible
+        // manifest is always written by our own manifest writer
+        Object manifestEvent = EVENTS.beginManifest();
+        long manifestStart = startPhase( ArchiverPhase.MANIFEST );
+        long hits = getCacheHits();
+        Manifest manifest = null;
+        byte[] manifestBytes = null;
+        if ( shared != null )
+        {
+            // the archives of a batch share their manifests in memory, rather than through the manifest cache
+            String fingerprint = ManifestCache.fingerprint( session, workingProject, archiveConfiguration, classpath );
+            synchronized ( shared )
+            {
+                manifestBytes = shared.getManifest( fingerprint );
+                if ( manifestBytes != null )
+                {
+                    hits++;
+                }
+                else
+                {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    writeManifest( session, workingProject, archiveConfiguration, classpath, buffer );
+                    manifestBytes = buffer.toByteArray();
+                    shared.putManifest( fingerprint, manifestBytes );
+                }
+            }
+            if ( !useJarWriter )
+            {
+                manifest = new Manifest( new ByteArrayInputStream( manifestBytes ) );
+            }
+        }
+        else if ( archiveConfiguration.isCacheManifest() )
+        {
+            // the manifest is cached as written by our own manifest writer, so that our own jar writer adds it as is
+            ManifestCache cache =
+                new ManifestCache( getArchiveStateFile( workingProject, request, ManifestCache.SUFFIX ) );
+            String fingerprint = ManifestCache.fingerprint( session, workingProject, archiveConfiguration, classpath );
+            manifestBytes = cache.load( fingerprint );
+            if ( manifestBytes != null )
+            {
+                hits++;
+            }
+            else
+            {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                writeManifest( session, workingProject, archiveConfiguration, classpath, buffer );
+                manifestBytes = buffer.toByteArray();
+                cache.store( fingerprint, manifestBytes );
+            }
+            if ( !useJarWriter )
+            {
+                manifest = new Manifest( new ByteArrayInputStream( manifestBytes ) );
+            }
+        }
+        else if ( !useJarWriter )
+        {
+            manifest = getManifest( session, workingProject, archiveConfiguration, classpath );
+        }
+
+        if ( manifestBytes == null && ( useJarWriter || !forced
+            || archiveConfiguration.getArchiveCacheDirectory() != null || archiveConfiguration.isIndex() ) )
+        {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            if ( manifest != null )
+            {
+                manifest.write( buffer );
+            }
+            else
+            {
+                writeManifest( session, workingProject, archiveConfiguration, classpath, buffer );
+            }
+            manifestBytes = buffer.toByteArray();
+        }
+        finishPhase( ArchiverPhase.MANIFEST, manifestStart, 0, 0, 0, classpath, getCacheHits() - hits );
+        commitManifestEvent( manifestEvent, workingProject, archiveConfiguration, classpath );
+
+        final MavenProject finalProject = workingProject;
+        final ClasspathSnapshot finalClasspath = classpath;
+        final boolean finalUseJarWriter = useJarWriter;
+        final Manifest finalManifest = manifest;
+        final byte[] finalManifestBytes = manifestBytes;
+        return new Callable<File>()
+        {
+            public File call()
+                throws Exception
+            {
+                writeArchive( request, finalProject, finalClasspath, finalUseJarWriter, finalManifest,
+                              finalManifestBytes, archiveStart, archiveEvent );
+                return request.getOutputFile();
+            }
+        };
+    }
+
+    /**
+     * Checks whether our own jar writer writes the same archive as the archiver would: whether it's a plain jar
+     * archiver, which keeps the defaults of the settings the jar writer doesn't know, and has neither a manifest,
+     * nor finalizers or filters of its own.
+     * <p>
+     * The settings without getters are read from the private fields of the plexus-archiver version this component
+     * depends on. Should one of them be gone in another version, the archiver isn't considered plain, and writes
+     * the archive itself.
+     */
+    static boolean isPlainJarArchiver( JarArchiver archiver )
+    {
+        if ( archiver.getClass() != JarArchiver.class )
+        {
+            return false;
+        }
+        String duplicates = archiver.getDuplicateBehavior();
+        String encoding = archiver.getEncoding();
+        return ( Archiver.DUPLICATES_SKIP.equals( duplicates ) || Archiver.DUPLICATES_PRESERVE.equals( duplicates )
+            || Archiver.DUPLICATES_FAIL.equals( duplicates ) ) && !archiver.isFilesonly()
+            && !archiver.isInUpdateMode() && archiver.getComment() == null
+            && ( encoding == null || "UTF8".equalsIgnoreCase( encoding ) || "UTF-8".equalsIgnoreCase( encoding ) )
+            && !isSet( archiver, JarArchiver.class, "configuredManifest" )
+            && !isSet( archiver, JarArchiver.class, "manifestFile" )
+            && !isSet( archiver, JarArchiver.class, "filesetManifestConfig" )
+            && !isSet( archiver, AbstractArchiver.class, "finalizers" )
+            && !isSet( archiver, AbstractArchiver.class, "filterSupport" );
+    }
+
+    /**
+     * Checks whether a setting the archiver has no getter for is set, that is, whether its field is neither null,
+     * nor an empty collection.
+     *
+     * @return true if it's set, or if the field can't be read.
+     */
+    private static boolean isSet( JarArchiver archiver, Class<?> type, String name )
+    {
+        try
+        {
+            Field field = type.getDeclaredField( name );
+            field.setAccessible( true );
+            Object value = field.get( archiver );
+            return value != null && !( value instanceof Collection && ( (Collection<?>) value ).isEmpty() );
+        }
+        catch ( NoSuchFieldException e )
+        {
+            return true;
+        }
+        catch ( IllegalAccessException e )
+        {
+            return true;
+        }
+        catch ( SecurityException e )
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Writes the archive, unless the journal finds it up to date or the archive cache has it.
+     *
+     * @param manifest the manifest for the archiver, or null if our own jar writer writes the archive.
+     * @param manifestBytes the manifest as written, or null if the archiver writes it and neither the journal, the
+     *            archive cache, nor the index need it.
+     * @param archiveStart the start of the archive phase.
+     * @param archiveEvent the flight recorder event of the archive, or null.
+     */
+    private void writeArchive( ArchiveRequest request, MavenProject workingProject, ClasspathSnapshot classpath,
+                               boolean useJarWriter, Manifest manifest, byte[] manifestBytes, long archiveStart,
+                               Object archiveEvent )
+        throws ArchiverException, ManifestException, IOException
+    {
+        MavenArchiveConfiguration archiveConfiguration = request.getConfiguration();
+        JarArchiver archiver = request.getArchiver();
+        File archiveFile = request.getOutputFile();
+        boolean forced = archiveConfiguration.isForced();
+        File manifestFile = archiveConfiguration.getManifestFile();
+
+        ArchiveCache cache = null;
+        if ( archiveConfiguration.getArchiveCacheDirectory() != null )
+        {
+            cache = new ArchiveCache( archiveConfiguration.getArchiveCacheDirectory(),
+                                      archiveConfiguration.getArchiveCacheSize() * 1024L * 1024L,
+                                      archiveConfiguration.isArchiveCacheHardLinks() );
+        }
+
+        // unless forced, compare the inputs with the journal of the previous build, which (unlike the
+        // timestamp check of the archivers) notices removed files and ignores touched ones
+        BuildJournal journal = null;
+        String settings = null;
+        List<ArchiveEntry> resources = null;
+        if ( !forced || cache != null || listener != null || trace != null || archiveEvent != null )
+        {
+            // the archiver forgets its resources once the archive is created
+            resources = new ArrayList<ArchiveEntry>();
+            for ( ResourceIterator i = archiver.getResources(); i.hasNext(); )
+            {
+                resources.add( i.next() );
+            }
+        }
+        if ( !forced || cache != null )
+        {
+            long start = startPhase( ArchiverPhase.JOURNAL );
+            journal = new BuildJournal( getArchiveStateFile( workingProject, request, BuildJournal.SUFFIX ),
+                                        Runtime.getRuntime().availableProcessors() );
+            settings = getArchiveSettings( request, manifestBytes, classpath );
+            if ( !forced && journal.isUpToDate( archiveFile, settings, resources.iterator() ) )
+            {
+                if ( journal.hasTouchedInputs() )
+                {
+                    journal.record( archiveFile, settings, resources.iterator() );
+                }
+                finishPhase( ArchiverPhase.JOURNAL, start, resources, 0, 0 );
+                writeCompositionReport( workingProject, request, null, true );
+                finishArchive( archiveStart, archiveEvent, workingProject, request, resources,
+                               true, false );
+                return;
+            }
+            journal.delete();
+            finishPhase( ArchiverPhase.JOURNAL, start, resources, 0, 0 );
+        }
+
+        // look for an archive with the same contents before compressing anything
+        String cacheKey = null;
+        if ( cache != null )
+        {
+            long start = startPhase( ArchiverPhase.ARCHIVE_CACHE );
+            cacheKey = journal.getInputKey( settings, resources.iterator() );
+            if ( cache.fetch( cacheKey, archiveFile ) )
+            {
+                journal.record( archiveFile, settings, resources.iterator() );
+                finishPhase( ArchiverPhase.ARCHIVE_CACHE, start, resources, archiveFile.length(), 1 );
+                writeCompositionReport( workingProject, request, null, false );
+                finishArchive( archiveStart, archiveEvent, workingProject, request, resources,
+                               false, true );
+                return;
+            }
+            finishPhase( ArchiverPhase.ARCHIVE_CACHE, start, resources, 0, 0 );
+        }
+
+        byte[] index = null;
+        boolean archiverIndex = false;
+        byte[] entryFilter = null;
+        if ( archiveConfiguration.isIndex() || archiveConfiguration.isEntryFilter() )
+        {
+            if ( resources == null )
+            {
+                resources = new ArrayList<ArchiveEntry>();
+                for ( ResourceIterator i = archiver.getResources(); i.hasNext(); )
+                {
+                    resources.add( i.next() );
+                }
+            }
+            List<String> names = getEntryNames( resources );
+            if ( archiveConfiguration.isIndex() )
+            {
+                // the archiver can't be told to skip an index among the resources, only to replace it with its own
+                archiverIndex = !useJarWriter && contains( names, JarIndex.INDEX_NAME );
+                if ( !archiverIndex )
+                {
+                    long start = startPhase( ArchiverPhase.INDEX );
+                    index = createIndex( archiveFile, manifestFile, manifestBytes, classpath, names );
+                    finishPhase( ArchiverPhase.INDEX, start, names.size(), 0, index.length, classpath, 0 );
+                }
+            }
+            // a filter among the resources is kept
+            if ( archiveConfiguration.isEntryFilter() && !contains( names, EntryFilter.RESOURCE_NAME ) )
+            {
+                names.add( JarWriter.META_INF );
+                names.add( JarWriter.MANIFEST_NAME );
+                names.add( EntryFilter.RESOURCE_NAME );
+                if ( archiveConfiguration.isIndex() )
+                {
+                    names.add( JarIndex.INDEX_NAME );
+                }
+                long start = startPhase( ArchiverPhase.ENTRY_FILTER );
+                entryFilter = EntryFilter.create( names ).toByteArray();
+                finishPhase( ArchiverPhase.ENTRY_FILTER, start, names.size(), 0, entryFilter.length, null, 0 );
+            }
+        }
+
+        Map<String, Long> deflateTimes = null;
+        long writeStart = startPhase( ArchiverPhase.WRITE );
+        if ( useJarWriter )
+        {
+            JarWriter writer = new JarWriter( archiveFile );
+            writer.setIndex( index );
+            writer.setEntryFilter( entryFilter );
+            writer.setMappedInputThreshold( archiveConfiguration.getMappedInputThreshold() * 1024L );
+            writer.setCompress( archiveConfiguration.isCompress() );
+            writer.setRoundUp( archiver.isRoundUp() );
+            writer.setFailOnDuplicates( Archiver.DUPLICATES_FAIL.equals( archiver.getDuplicateBehavior() ) );
+            writer.setIncremental( archiveConfiguration.isIncremental() );
+            writer.setThreads( archiveConfiguration.getCompressionThreads() );
+            writer.setMemoryLimit( archiveConfiguration.getCompressionMemoryLimit() * 1024L * 1024L );
+            writer.setAdaptiveCompression( archiveConfiguration.isAdaptiveCompression(),
+                                           archiveConfiguration.getMinCompressionSavings() );
+            writer.setReproducible( archiveConfiguration.isReproducible(),
+                                    archiveConfiguration.getReproducibleEpoch() * 1000L );
+            writer.setRecordDeflateTimes( archiveConfiguration.isCompositionReport() );
+            writer.setTrace( trace );
+            writer.write( manifestBytes, resources != null ? resources.iterator() : archiver.getResources() );
+            request.setCompressionStatistics( writer.getStatistics() );
+            deflateTimes = writer.getDeflateTimes();
+        }
+        else
+        {
+            // Configure the jar
+            archiver.addConfiguredManifest( manifest );
+
+            archiver.setCompress( archiveConfiguration.isCompress() );
 
-        // Configure the jar
-        archiver.addConfiguredManifest( manifest );
+            // unless the index is ours, the archiver opens every jar on the classpath completely
+            archiver.setIndex( archiverIndex );
+            if ( archiverIndex && classpath != null )
+            {
+                for ( ClasspathSnapshot.Element element : classpath.getElements() )
+                {
+                    archiver.addConfiguredIndexJars( element.getFile() );
+                }
+            }
+            if ( index != null )
+            {
+                addGeneratedResource( archiver, JarIndex.INDEX_NAME, index );
+            }
+            if ( entryFilter != null )
+            {
+                addGeneratedResource( archiver, EntryFilter.RESOURCE_NAME, entryFilter );
+            }
 
-        archiver.setCompress( archiveConfiguration.isCompress() );
+            // if we get here without being forced, the journal found the archive to be out of date
+            archiver.setForced( true );
 
-        archiver.setIndex( archiveConfiguration.isIndex() );
+            // the archiver writes into the file it's given, while the existing archive may be hard linked to the
+            // archive cache of an earlier build, so it writes a new file, which then replaces the archive
+            File dir = archiveFile.getAbsoluteFile().getParentFile();
+            if ( !dir.isDirectory() && !dir.mkdirs() )
+            {
+                throw new IOException( "Failed to create directory: " + dir );
+            }
+            File tmpFile = File.createTempFile( archiveFile.getName(), ".tmp", dir );
+            try
+            {
+                if ( archiver.isInUpdateMode() && archiveFile.isFile() )
+                {
+                    FileUtils.copyFile( archiveFile, tmpFile );
+                }
+                else
+                {
+                    tmpFile.delete();
+                }
+                archiver.setDestFile( tmpFile );
 
-        archiver.setDestFile( archiveFile );
+                // create archive
+                archiver.createArchive();
+                FileReplacement.replace( tmpFile, archiveFile );
+            }
+            finally
+            {
+                archiver.setDestFile( archiveFile );
+                tmpFile.delete();
+            }
+        }
+        finishPhase( ArchiverPhase.WRITE, writeStart, resources, archiveFile.length(), 0 );
+        writeCompositionReport( workingProject, request, deflateTimes, false );
 
-        // make the archiver index the jars on the classpath, if we are adding that to the manifest
-        if ( archiveConfiguration.getManifest().isAddClasspath() )
+        if ( cache != null )
+        {
+            cache.store( cacheKey, archiveFile );
+        }
+        if ( journal != null )
         {
-            @SuppressWarnings( "unchecked" ) List<String> artifacts = project.getRuntimeClasspathElements();
-            for ( String artifact : artifacts )
+            journal.record( archiveFile, settings, resources.iterator() );
+        }
+        finishArchive( archiveStart, archiveEvent, workingProject, request, resources, false, false );
+    }
+
+    /**
+     * Writes the composition report of the archive, if configured.
+     *
+     * @param deflateTimes the nanoseconds spent deflating the entries, by name, or null if unknown.
+     * @param keep whether an existing report is kept, as the archive is unchanged.
+     */
+    private static void writeCompositionReport( MavenProject project, ArchiveRequest request,
+                                                Map<String, Long> deflateTimes, boolean keep )
+        throws IOException
+    {
+        if ( request.getConfiguration().isCompositionReport() )
+        {
+            File archiveFile = request.getOutputFile();
+            File reportFile = CompositionReport.getFile( new File( project.getBuild().getDirectory() ), archiveFile );
+            if ( !keep || !reportFile.exists() )
             {
-                File f = new File( artifact );
-                archiver.addConfiguredIndexJars( f );
+                CompositionReport.write( archiveFile, deflateTimes, reportFile );
             }
         }
+    }
 
-        archiver.setForced( forced );
-        if ( !archiveConfiguration.isForced() && archiver.isSupportingForced() )
+    private void finishArchive( long start, Object event, MavenProject project, ArchiveRequest request,
+                                List<ArchiveEntry> resources, boolean upToDate, boolean cached )
+    {
+        File archiveFile = request.getOutputFile();
+        if ( listener != null || trace != null )
+        {
+            finishPhase( ArchiverPhase.ARCHIVE, start, new PhaseCounters( resources.size(), getSize( resources ),
+                                                                          archiveFile.length(), 0, cached ? 1 : 0 ),
+                         archiveFile.getName() );
+        }
+        if ( trace != null )
         {
-            // TODO Should issue a warning here, but how do we get a logger?
-            // TODO getLog().warn( "Forced build is disabled, but disabling the forced mode isn't supported by the archiver." );
+            // a build may be killed once its archives are done, so don't wait for the JVM to exit
+            trace.flush();
         }
+        if ( event != null )
+        {
+            EVENTS.commitArchive( event, archiveFile, project.getId(), resources.size(), getSize( resources ),
+                                  archiveFile.length(), request.getConfiguration().isForced(), upToDate, cached );
+        }
+    }
 
-        // create archive
-        archiver.createArchive();
+    private void commitManifestEvent( Object event, MavenProject project, MavenArchiveConfiguration config,
+                                      ClasspathSnapshot classpath )
+    {
+        if ( event != null )
+        {
+            EVENTS.commitManifest( event, project.getId(), classpath != null ? classpath.getElements().size() : 0,
+                                   config.getManifest().getClasspathLayoutType() );
+        }
+    }
+
+    /**
+     * Resolves the runtime classpath of the project, if the manifest needs it.
+     *
+     * @param shared what the archives of a batch share, or null.
+     */
+    private ClasspathSnapshot resolveClasspath( MavenProject project, MavenArchiveConfiguration config,
+                                                SharedInputs shared )
+        throws DependencyResolutionRequiredException
+    {
+        if ( !config.getManifest().isAddClasspath() )
+        {
+            return null;
+        }
+        long start = startPhase( ArchiverPhase.CLASSPATH );
+        int threads = config.getManifest().getClasspathCheckThreads();
+        ClasspathSnapshot classpath =
+            shared != null ? shared.getClasspath( threads ) : ClasspathSnapshot.create( project, threads );
+        finishPhase( ArchiverPhase.CLASSPATH, start, 0, 0, 0, classpath, 0 );
+        return classpath;
     }
 
-    private void addCreatedByEntry( MavenSession session, Manifest m, Map entries )
+    /**
+     * @return the start of the phase, or zero if there is neither a listener to tell about it, nor a trace.
+     */
+    private long startPhase( ArchiverPhase phase )
+    {
+        if ( listener == null && trace == null )
+        {
+            return 0;
+        }
+        if ( listener != null )
+        {
+            listener.phaseStarted( phase );
+        }
+        return System.nanoTime();
+    }
+
+    private void finishPhase( ArchiverPhase phase, long start, long entries, long bytesIn, long bytesOut,
+                              ClasspathSnapshot classpath, long cacheHits )
+    {
+        if ( listener != null || trace != null )
+        {
+            int classpathElements = classpath != null ? classpath.getElements().size() : 0;
+            finishPhase( phase, start, new PhaseCounters( entries, bytesIn, bytesOut, classpathElements,
+                                                          cacheHits ), null );
+        }
+    }
+
+    /**
+     * Finishes a phase processing the given resources, which are only counted if there is a listener or a trace.
+     */
+    private void finishPhase( ArchiverPhase phase, long start, List<ArchiveEntry> resources, long bytesOut,
+                              long cacheHits )
+    {
+        if ( listener != null || trace != null )
+        {
+            finishPhase( phase, start, new PhaseCounters( resources.size(), getSize( resources ), bytesOut, 0,
+                                                          cacheHits ), null );
+        }
+    }
+
+    /**
+     * @param archiveName the name of the archive, for the trace of the archive phase, or null.
+     */
+    private void finishPhase( ArchiverPhase phase, long start, PhaseCounters counters, String archiveName )
+    {
+        long duration = System.nanoTime() - start;
+        if ( listener != null )
+        {
+            listener.phaseFinished( phase, duration, counters );
+        }
+        if ( trace != null )
+        {
+            trace.phase( phase, start, duration, counters, archiveName );
+        }
+    }
+
+    /**
+     * @return the size of the resources, as far as it is known.
+     */
+    private static long getSize( List<ArchiveEntry> resources )
+    {
+        long size = 0;
+        for ( ArchiveEntry entry : resources )
+        {
+            PlexusIoResource resource = entry.getResource();
+            if ( resource != null && resource.getSize() > 0 )
+            {
+                size += resource.getSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the hits of the classpath entry cache, if there is a listener or a trace to tell about them.
+     */
+    private long getCacheHits()
+    {
+        return ( listener != null || trace != null ) && classpathEntryCache != null
+            ? classpathEntryCache.getHitCount() : 0;
+    }
+
+    /**
+     * @return a file of the <code>maven-archiver</code> directory of the build that belongs to the archive. It's
+     *         named after the archive and a hash of its path, so that archives with the same name in different
+     *         directories don't share it.
+     */
+    private static File getArchiveStateFile( MavenProject project, ArchiveRequest request, String suffix )
+    {
+        File archiveFile = request.getOutputFile();
+        String path = archiveFile.getAbsolutePath();
+        return new File( new File( project.getBuild().getDirectory(), "maven-archiver" ),
+                         archiveFile.getName() + "-" + Integer.toHexString( path.hashCode() ) + suffix );
+    }
+
+    /**
+     * Adds a generated file to the archive straight from memory, like the <code>pom.properties</code>.
+     */
+    private static void addGeneratedResource( Archiver archiver, String name, byte[] contents )
+        throws ArchiverException
+    {
+        archiver.addResource( new ByteArrayResource( name, contents, System.currentTimeMillis() ), name,
+                              archiver.getOverrideFileMode() );
+    }
+
+    /**
+     * @return the names the resources get in the archive, with directory names ending with a slash.
+     */
+    private static List<String> getEntryNames( List<ArchiveEntry> resources )
+    {
+        List<String> names = new ArrayList<String>( resources.size() + 4 );
+        for ( ArchiveEntry entry : resources )
+        {
+            String name = entry.getName().replace( '\\', '/' );
+            if ( name.length() > 0 && !name.equals( "/" ) )
+            {
+                names.add( entry.getType() == ArchiveEntry.DIRECTORY && !name.endsWith( "/" ) ? name + "/" : name );
+            }
+        }
+        return names;
+    }
+
+    private static boolean contains( List<String> names, String name )
+    {
+        for ( String n : names )
+        {
+            if ( n.equalsIgnoreCase( name ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the index of the archive and the jars on the classpath, if we are adding that to the manifest.
+     */
+    private static byte[] createIndex( File archiveFile, File manifestFile, byte[] manifest,
+                                       ClasspathSnapshot classpath, List<String> names )
+        throws IOException
+    {
+        // like the jar archiver, index the jars by their entries in the merged Class-Path
+        String classPath = new java.util.jar.Manifest( new ByteArrayInputStream( manifest ) ).getMainAttributes()
+            .getValue( "Class-Path" );
+        if ( manifestFile != null && manifestFile.isFile() )
+        {
+            InputStream in = new FileInputStream( manifestFile );
+            try
+            {
+                String fileClassPath = new java.util.jar.Manifest( in ).getMainAttributes().getValue( "Class-Path" );
+                if ( fileClassPath != null )
+                {
+                    classPath = classPath == null ? fileClassPath : fileClassPath + " " + classPath;
+                }
+            }
+            finally
+            {
+                IOUtil.close( in );
+            }
+        }
+
+        List<File> jars = new ArrayList<File>();
+        if ( classpath != null )
+        {
+            for ( ClasspathSnapshot.Element element : classpath.getElements() )
+            {
+                if ( element.isFile() )
+                {
+                    jars.add( element.getFile() );
+                }
+            }
+        }
+        return new JarIndex( Runtime.getRuntime().availableProcessors() ).create( archiveFile.getName(), names,
+                                                                                  classPath, jars );
+    }
+
+    /**
+     * @return a digest of everything but the resources the archive depends on.
+     */
+    private static String getArchiveSettings( ArchiveRequest request, byte[] manifest, ClasspathSnapshot classpath )
+        throws IOException
+    {
+        MavenArchiveConfiguration config = request.getConfiguration();
+        StringBuilder settings = new StringBuilder();
+        settings.append( "archiver=" ).append( request.getArchiver().getClass().getName() ).append( '\n' );
+        settings.append( "compress=" ).append( config.isCompress() ).append( '\n' );
+        if ( config.isReproducible() )
+        {
+            settings.append( "reproducibleEpoch=" ).append( config.getReproducibleEpoch() ).append( '\n' );
+        }
+        if ( config.isAdaptiveCompression() )
+        {
+            settings.append( "minCompressionSavings=" ).append( config.getMinCompressionSavings() ).append( '\n' );
+        }
+        settings.append( "index=" ).append( config.isIndex() ).append( '\n' );
+        settings.append( "entryFilter=" ).append( config.isEntryFilter() ).append( '\n' );
+        File manifestFile = config.getManifestFile();
+        if ( manifestFile != null )
+        {
+            settings.append( "manifestFile=" ).append( manifestFile.getPath() ).append( ':' );
+            settings.append( manifestFile.length() ).append( ':' ).append( manifestFile.lastModified() ).append( '\n' );
+        }
+        if ( config.isIndex() && classpath != null )
+        {
+            for ( ClasspathSnapshot.Element element : classpath.getElements() )
+            {
+                File file = element.getFile();
+                settings.append( "index=" ).append( file.getPath() ).append( ':' );
+                settings.append( file.length() ).append( ':' ).append( file.lastModified() ).append( '\n' );
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write( manifest );
+        bytes.write( settings.toString().getBytes( "UTF-8" ) );
+        return BuildJournal.digest( new ByteArrayInputStream( bytes.toByteArray() ) );
+    }
+
+    private void addCreatedByEntry( MavenSession session, AttributeSink m, Map<String, String> entries )
         throws ManifestException
     {
         String createdBy = "Apache Maven";
@@ -610,20 +1562,36 @@ public class MavenArchiver
         addManifestAttribute( m, entries, "Created-By", createdBy );
     }
 
+    private static AttributeSink sink( final Manifest manifest )
+    {
+        return new AttributeSink()
+        {
+            public void addAttribute( String key, String value )
+                throws ManifestException
+            {
+                manifest.addConfiguredAttribute( new Manifest.Attribute( key, value ) );
+            }
+        };
+    }
 
-    private Artifact findArtifactWithFile( Set<Artifact> artifacts, File file )
+    private static AttributeSink sink( final ManifestWriter.Section section )
     {
-        for ( Artifact artifact : artifacts )
+        return new AttributeSink()
         {
-            // normally not null but we can check
-            if ( artifact.getFile() != null )
+            public void addAttribute( String key, String value )
+                throws ManifestException
             {
-                if ( artifact.getFile().equals( file ) )
-                {
-                    return artifact;
-                }
+                section.addAttribute( key, value );
             }
-        }
-        return null;
+        };
+    }
+
+    /**
+     * Receives the main attributes, either into a {@link Manifest} or into a {@link ManifestWriter}.
+     */
+    private interface AttributeSink
+    {
+        void addAttribute( String key, String value )
+            throws ManifestException;
     }
 }
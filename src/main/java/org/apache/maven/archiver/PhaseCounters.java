@@ -0,0 +1,96 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+/**
+ * What an {@link ArchiverPhase} processed. Counters which don't apply to a phase are zero.
+ *
+ * @version $Id$
+ * @since 2.5.1
+ */
+public final class PhaseCounters
+{
+    private final long entries;
+
+    private final long bytesIn;
+
+    private final long bytesOut;
+
+    private final int classpathElements;
+
+    private final long cacheHits;
+
+    PhaseCounters( long entries, long bytesIn, long bytesOut, int classpathElements, long cacheHits )
+    {
+        this.entries = entries;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.classpathElements = classpathElements;
+        this.cacheHits = cacheHits;
+    }
+
+    /**
+     * @return the number of entries of the archive, or of the index or entry filter.
+     */
+    public long getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * @return the size of the entries, as far as it is known before they are read.
+     */
+    public long getBytesIn()
+    {
+        return bytesIn;
+    }
+
+    /**
+     * @return the size of what the phase wrote: the archive, the index or the entry filter.
+     */
+    public long getBytesOut()
+    {
+        return bytesOut;
+    }
+
+    /**
+     * @return the number of elements of the runtime classpath.
+     */
+    public int getClasspathElements()
+    {
+        return classpathElements;
+    }
+
+    /**
+     * @return the number of things found in a cache: manifests, classpath entries or archives. The classpath entry
+     *         cache is shared, so archivers running at the same time count each other's hits.
+     */
+    public long getCacheHits()
+    {
+        return cacheHits;
+    }
+
+    public String toString()
+    {
+        return "entries: " + entries + ", bytes in: " + bytesIn + ", bytes out: " + bytesOut
+            + ", classpath elements: " + classpathElements + ", cache hits: " + cacheHits;
+    }
+}
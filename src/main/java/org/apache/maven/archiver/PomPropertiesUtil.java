@@ -19,12 +19,21 @@ package org.apache.maven.archiver;
  * under the License.
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.maven.project.MavenProject;
@@ -42,6 +51,22 @@ public class PomPropertiesUtil
 {
     private static final String GENERATED_BY_MAVEN = "Generated by Maven";
 
+    private static final int MAX_STAMPS = 1024;
+
+    /**
+     * The digests of the properties in the files written or compared most recently, by their absolute paths, so
+     * that an unchanged file doesn't have to be read again as long as its size and timestamp don't change.
+     */
+    private static final Map<String, Stamp> STAMPS = new LinkedHashMap<String, Stamp>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry( Map.Entry<String, Stamp> eldest )
+        {
+            return size() > MAX_STAMPS;
+        }
+    };
+
     private boolean sameContents( Properties props, File file )
             throws IOException
     {
@@ -49,6 +74,12 @@ public class PomPropertiesUtil
         {
             return false;
         }
+        String digest = digest( props );
+        Boolean same = compareStamp( file, digest );
+        if ( same != null )
+        {
+            return same.booleanValue();
+        }
         Properties fileProps = new Properties();
         InputStream istream = null;
         try 
@@ -57,7 +88,12 @@ public class PomPropertiesUtil
             fileProps.load( istream );
             istream.close();
             istream = null;
-            return fileProps.equals( props );
+            if ( fileProps.equals( props ) )
+            {
+                stamp( file, digest );
+                return true;
+            }
+            return false;
         }
         catch ( IOException e )
         {
@@ -93,6 +129,124 @@ public class PomPropertiesUtil
         {
             IOUtil.close( os );
         }
+        stamp( outputFile, digest( properties ) );
+    }
+
+    /**
+     * @return whether the file holds the properties with the given digest, or null if the file changed since it
+     *         was last written or compared, or never was.
+     */
+    private static Boolean compareStamp( File file, String digest )
+    {
+        Stamp stamp;
+        synchronized ( STAMPS )
+        {
+            stamp = STAMPS.get( file.getAbsolutePath() );
+        }
+        if ( stamp == null || stamp.length != file.length() || stamp.lastModified != file.lastModified() )
+        {
+            return null;
+        }
+        return Boolean.valueOf( stamp.digest.equals( digest ) );
+    }
+
+    private static void stamp( File file, String digest )
+    {
+        synchronized ( STAMPS )
+        {
+            STAMPS.put( file.getAbsolutePath(), new Stamp( file.length(), file.lastModified(), digest ) );
+        }
+    }
+
+    private String digest( Properties properties )
+        throws IOException
+    {
+        return BuildJournal.digest( new ByteArrayInputStream( storeReproducibly( properties ) ) );
+    }
+
+    /**
+     * Writes the properties like {@link Properties#store(OutputStream, String)}, but without the date comment, with
+     * the properties sorted by their keys, and with <code>\n</code> line endings, so the same properties always
+     * give the same bytes.
+     */
+    private byte[] storeReproducibly( Properties properties )
+        throws IOException
+    {
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        properties.store( stored, null );
+        // store() uses ISO-8859-1, and escapes everything else
+        String[] lines = new String( stored.toByteArray(), "ISO-8859-1" ).split( "\r?\n" );
+
+        List<String> entries = new ArrayList<String>( Arrays.asList( lines ) );
+        for ( Iterator<String> i = entries.iterator(); i.hasNext(); )
+        {
+            String line = i.next();
+            if ( line.length() == 0 || line.startsWith( "#" ) )
+            {
+                i.remove();
+            }
+        }
+        Collections.sort( entries );
+
+        StringBuilder buffer = new StringBuilder();
+        buffer.append( '#' ).append( GENERATED_BY_MAVEN ).append( '\n' );
+        for ( String entry : entries )
+        {
+            buffer.append( entry ).append( '\n' );
+        }
+        return buffer.toString().getBytes( "ISO-8859-1" );
+    }
+
+    private void createReproduciblePropertyFile( Properties properties, File outputFile )
+        throws IOException
+    {
+        File outputDir = outputFile.getParentFile();
+        if ( outputDir != null  &&  !outputDir.isDirectory()  &&  !outputDir.mkdirs() )
+        {
+            throw new IOException( "Failed to create directory: " + outputDir );
+        }
+        byte[] contents = storeReproducibly( properties );
+        String digest = BuildJournal.digest( new ByteArrayInputStream( contents ) );
+        // unlike the properties, the file has to be the same, down to the bytes
+        if ( outputFile.isFile() && outputFile.length() == contents.length )
+        {
+            Boolean same = compareStamp( outputFile, digest );
+            if ( same != null )
+            {
+                if ( same.booleanValue() )
+                {
+                    return;
+                }
+            }
+            else
+            {
+                InputStream is = new FileInputStream( outputFile );
+                try
+                {
+                    if ( Arrays.equals( contents, IOUtil.toByteArray( is ) ) )
+                    {
+                        stamp( outputFile, digest );
+                        return;
+                    }
+                }
+                finally
+                {
+                    IOUtil.close( is );
+                }
+            }
+        }
+        OutputStream os = new FileOutputStream( outputFile );
+        try
+        {
+            os.write( contents );
+            os.close();
+            os = null;
+        }
+        finally
+        {
+            IOUtil.close( os );
+        }
+        stamp( outputFile, digest );
     }
 
     /**
@@ -102,9 +256,53 @@ public class PomPropertiesUtil
                                      boolean forceCreation )
         throws ArchiverException, IOException
     {
-        final String artifactId = project.getArtifactId();
-        final String groupId = project.getGroupId();
+        createPomProperties( project, archiver, pomPropertiesFile, forceCreation, false );
+    }
+
+    /**
+     * Creates the pom.properties file.
+     *
+     * @param reproducible whether to write the file without the date comment, so that it only changes along with
+     *            the properties.
+     * @since 2.5.1
+     */
+    public void createPomProperties( MavenProject project, Archiver archiver, File pomPropertiesFile,
+                                     boolean forceCreation, boolean reproducible )
+        throws ArchiverException, IOException
+    {
+        Properties p = createProperties( project );
 
+        if ( reproducible )
+        {
+            createReproduciblePropertyFile( p, pomPropertiesFile );
+        }
+        else
+        {
+            createPropertyFile( p, pomPropertiesFile, forceCreation );
+        }
+
+        archiver.addFile( pomPropertiesFile, getEntryName( project ) );
+    }
+
+    /**
+     * Adds the pom.properties straight from memory, without writing a file. Like a reproducible file, it has no
+     * date comment. It gets the time of the build, like the manifest, rather than that of the POM: the properties
+     * come from the model, which may change while the POM doesn't, so their contents have to be compared with
+     * every build.
+     *
+     * @since 2.5.1
+     */
+    public void addPomProperties( MavenProject project, Archiver archiver )
+        throws ArchiverException, IOException
+    {
+        byte[] contents = storeReproducibly( createProperties( project ) );
+        String name = getEntryName( project );
+        archiver.addResource( new ByteArrayResource( name, contents, System.currentTimeMillis() ), name,
+                              archiver.getOverrideFileMode() );
+    }
+
+    private Properties createProperties( MavenProject project )
+    {
         Properties p = new Properties();
 
         p.setProperty( "groupId", project.getGroupId() );
@@ -113,8 +311,30 @@ public class PomPropertiesUtil
 
         p.setProperty( "version", project.getVersion() );
 
-        createPropertyFile( p, pomPropertiesFile, forceCreation );
+        return p;
+    }
 
-        archiver.addFile( pomPropertiesFile, "META-INF/maven/" + groupId + "/" + artifactId + "/pom.properties" );
+    private static String getEntryName( MavenProject project )
+    {
+        return "META-INF/maven/" + project.getGroupId() + "/" + project.getArtifactId() + "/pom.properties";
+    }
+
+    /**
+     * The size and timestamp a file had when it was known to hold the properties with the digest.
+     */
+    private static final class Stamp
+    {
+        private final long length;
+
+        private final long lastModified;
+
+        private final String digest;
+
+        Stamp( long length, long lastModified, String digest )
+        {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
     }
 }
@@ -0,0 +1,101 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.Archiver;
+import org.codehaus.plexus.archiver.ArchiverException;
+
+/**
+ * What the archives of a project created together have in common: the runtime classpath, the manifests and the
+ * <code>pom.properties</code> file. Whichever archive needs a piece first computes it, and the others wait for it
+ * rather than computing it again, or writing the same file at the same time.
+ *
+ * @version $Id$
+ */
+class SharedInputs
+{
+    private final MavenProject project;
+
+    private ClasspathSnapshot classpath;
+
+    private final Map<String, byte[]> manifests = new HashMap<String, byte[]>();
+
+    private final Set<File> pomPropertiesFiles = new HashSet<File>();
+
+    SharedInputs( MavenProject project )
+    {
+        this.project = project;
+    }
+
+    /**
+     * @return the runtime classpath of the project, resolved by the first caller.
+     */
+    synchronized ClasspathSnapshot getClasspath( int threads )
+        throws DependencyResolutionRequiredException
+    {
+        if ( classpath == null )
+        {
+            classpath = ClasspathSnapshot.create( project, threads );
+        }
+        return classpath;
+    }
+
+    /**
+     * @return the manifest stored under the fingerprint of its inputs, or null. Callers hold the lock of this
+     *         object while they create and store a missing manifest.
+     */
+    byte[] getManifest( String fingerprint )
+    {
+        return manifests.get( fingerprint );
+    }
+
+    void putManifest( String fingerprint, byte[] manifest )
+    {
+        manifests.put( fingerprint, manifest );
+    }
+
+    /**
+     * Adds the <code>pom.properties</code> file to the archiver, after creating it if no other archive did.
+     */
+    synchronized void addPomProperties( MavenProject workingProject, Archiver archiver, File file, boolean forced,
+                                        boolean reproducible )
+        throws ArchiverException, IOException
+    {
+        if ( pomPropertiesFiles.add( file.getAbsoluteFile() ) )
+        {
+            new PomPropertiesUtil().createPomProperties( workingProject, archiver, file, forced, reproducible );
+        }
+        else
+        {
+            archiver.addFile( file, "META-INF/maven/" + workingProject.getGroupId() + "/"
+                + workingProject.getArtifactId() + "/pom.properties" );
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The central directory of an existing zip file, read without inflating anything. It tells where the
+ * (compressed) data of each entry is, so that it can be copied as is into another archive.
+ *
+ * @version $Id$
+ */
+class ZipDirectory
+{
+    static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+
+    static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+
+    static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+    static final int LOCAL_FILE_HEADER_LENGTH = 30;
+
+    static final int CENTRAL_FILE_HEADER_LENGTH = 46;
+
+    static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH = 56;
+
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH = 20;
+
+    /**
+     * The header id of the extra field holding the sizes and offset which don't fit into the fields of a zip64
+     * entry.
+     */
+    static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+    static final long ZIP64_MAGIC = 0xffffffffL;
+
+    static final int ZIP64_MAGIC_COUNT = 0xffff;
+
+    /**
+     * Central directories from this size on are memory mapped by {@link #readNames(File)}. Smaller ones are read,
+     * which is as fast, and a mapping can't be released explicitly: it keeps the file locked on Windows until it's
+     * garbage collected.
+     */
+    static final int MAP_THRESHOLD = 256 * 1024;
+
+    private final File file;
+
+    private final Map<String, Entry> entries;
+
+    private ZipDirectory( File file, Map<String, Entry> entries )
+    {
+        this.file = file;
+        this.entries = Collections.unmodifiableMap( entries );
+    }
+
+    /**
+     * Reads the central directory of a zip file.
+     *
+     * @throws IOException if the file can't be read, or isn't a zip file this class understands (which
+     *             excludes multi-disk archives).
+     */
+    static ZipDirectory read( File file )
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            long[] location = locate( channel, file );
+            int count = (int) location[0];
+            int size = (int) location[2];
+            ByteBuffer directory = read( channel, location[1], size );
+            Map<String, Entry> entries = new LinkedHashMap<String, Entry>( count * 2 );
+            int pos = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                checkHeader( directory, pos, size, file );
+                Entry entry = new Entry();
+                entry.flags = directory.getShort( pos + 8 ) & 0xffff;
+                entry.method = directory.getShort( pos + 10 ) & 0xffff;
+                entry.dosTime = directory.getInt( pos + 12 ) & ZIP64_MAGIC;
+                entry.crc = directory.getInt( pos + 16 ) & ZIP64_MAGIC;
+                entry.compressedSize = directory.getInt( pos + 20 ) & ZIP64_MAGIC;
+                entry.size = directory.getInt( pos + 24 ) & ZIP64_MAGIC;
+                entry.externalAttributes = directory.getInt( pos + 38 ) & ZIP64_MAGIC;
+                entry.localHeaderOffset = directory.getInt( pos + 42 ) & ZIP64_MAGIC;
+                entry.name = getName( directory, pos );
+                if ( entry.size == ZIP64_MAGIC || entry.compressedSize == ZIP64_MAGIC
+                    || entry.localHeaderOffset == ZIP64_MAGIC )
+                {
+                    readZip64Extra( directory, pos, entry );
+                }
+
+                if ( !entries.containsKey( entry.name ) )
+                {
+                    entries.put( entry.name, entry );
+                }
+                pos = next( directory, pos );
+            }
+            return new ZipDirectory( file, entries );
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads only the names of the entries of a zip file, in the order of the central directory. Large central
+     * directories are memory mapped, rather than read.
+     *
+     * @throws IOException if the file can't be read, or isn't a zip file this class understands.
+     */
+    static List<String> readNames( File file )
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            long[] location = locate( channel, file );
+            int count = (int) location[0];
+            int size = (int) location[2];
+            ByteBuffer directory;
+            if ( size >= MAP_THRESHOLD )
+            {
+                directory = channel.map( FileChannel.MapMode.READ_ONLY, location[1], size );
+                directory.order( ByteOrder.LITTLE_ENDIAN );
+            }
+            else
+            {
+                directory = read( channel, location[1], size );
+            }
+            List<String> names = new ArrayList<String>( count );
+            int pos = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                checkHeader( directory, pos, size, file );
+                names.add( getName( directory, pos ) );
+                pos = next( directory, pos );
+            }
+            return names;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Finds the central directory through the end of central directory record.
+     *
+     * @return the number of entries, the offset and the size of the central directory.
+     */
+    private static long[] locate( FileChannel channel, File file )
+        throws IOException
+    {
+        long length = channel.size();
+
+        // the end of central directory record is followed by a comment of at most 64k
+        int tailLength = (int) Math.min( length, END_OF_CENTRAL_DIRECTORY_LENGTH + MAX_COMMENT_LENGTH );
+        ByteBuffer tail = read( channel, length - tailLength, tailLength );
+        int eocd = -1;
+        for ( int i = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i-- )
+        {
+            if ( tail.getInt( i ) == END_OF_CENTRAL_DIRECTORY_SIGNATURE )
+            {
+                eocd = i;
+                break;
+            }
+        }
+        if ( eocd < 0 )
+        {
+            throw new IOException( "Not a zip file: " + file );
+        }
+
+        long count = tail.getShort( eocd + 10 ) & 0xffff;
+        long size = tail.getInt( eocd + 12 ) & ZIP64_MAGIC;
+        long offset = tail.getInt( eocd + 16 ) & ZIP64_MAGIC;
+        if ( ( tail.getShort( eocd + 4 ) & 0xffff ) != 0 )
+        {
+            throw new IOException( "Unsupported zip file: " + file );
+        }
+        if ( count == ZIP64_MAGIC_COUNT || size == ZIP64_MAGIC || offset == ZIP64_MAGIC )
+        {
+            // the actual values are in the zip64 end of central directory record, found through its locator
+            long locatorOffset = length - tailLength + eocd - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH;
+            if ( locatorOffset < 0 )
+            {
+                throw new IOException( "Unsupported zip file: " + file );
+            }
+            ByteBuffer locator = read( channel, locatorOffset, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH );
+            if ( locator.getInt( 0 ) != ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE )
+            {
+                throw new IOException( "Unsupported zip file: " + file );
+            }
+            long recordOffset = locator.getLong( 8 );
+            if ( recordOffset < 0 || recordOffset > locatorOffset - ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH )
+            {
+                throw new IOException( "Corrupt zip64 end of central directory locator: " + file );
+            }
+            ByteBuffer record = read( channel, recordOffset, ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH );
+            if ( record.getInt( 0 ) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE || record.getInt( 16 ) != 0 )
+            {
+                throw new IOException( "Unsupported zip file: " + file );
+            }
+            count = record.getLong( 32 );
+            size = record.getLong( 40 );
+            offset = record.getLong( 48 );
+        }
+        // the central directory is read into a single buffer
+        if ( count < 0 || size < 0 || size > Integer.MAX_VALUE || count > size / CENTRAL_FILE_HEADER_LENGTH
+            || offset < 0 || offset + size > length )
+        {
+            throw new IOException( "Unsupported zip file: " + file );
+        }
+        return new long[]{ count, offset, size };
+    }
+
+    /**
+     * Reads the values of an entry which are too large for the fields of the central directory header from its
+     * zip64 extra field. It only holds those, in the order of the header. Without the field, the values of the
+     * header are kept, as they may actually be that large.
+     */
+    private static void readZip64Extra( ByteBuffer directory, int pos, Entry entry )
+    {
+        int nameLength = directory.getShort( pos + 28 ) & 0xffff;
+        int extraLength = directory.getShort( pos + 30 ) & 0xffff;
+        int extra = pos + CENTRAL_FILE_HEADER_LENGTH + nameLength;
+        int end = extra + extraLength;
+        while ( extra + 4 <= end )
+        {
+            int id = directory.getShort( extra ) & 0xffff;
+            int length = directory.getShort( extra + 2 ) & 0xffff;
+            int field = extra + 4;
+            if ( id == ZIP64_EXTRA_ID )
+            {
+                int fieldEnd = Math.min( field + length, end );
+                if ( entry.size == ZIP64_MAGIC && field + 8 <= fieldEnd )
+                {
+                    entry.size = directory.getLong( field );
+                    field += 8;
+                }
+                if ( entry.compressedSize == ZIP64_MAGIC && field + 8 <= fieldEnd )
+                {
+                    entry.compressedSize = directory.getLong( field );
+                    field += 8;
+                }
+                if ( entry.localHeaderOffset == ZIP64_MAGIC && field + 8 <= fieldEnd )
+                {
+                    entry.localHeaderOffset = directory.getLong( field );
+                }
+                return;
+            }
+            extra = field + length;
+        }
+    }
+
+    private static void checkHeader( ByteBuffer directory, int pos, int size, File file )
+        throws IOException
+    {
+        if ( pos + CENTRAL_FILE_HEADER_LENGTH > size || directory.getInt( pos ) != CENTRAL_FILE_HEADER_SIGNATURE )
+        {
+            throw new IOException( "Corrupt central directory: " + file );
+        }
+    }
+
+    private static String getName( ByteBuffer directory, int pos )
+        throws IOException
+    {
+        int nameLength = directory.getShort( pos + 28 ) & 0xffff;
+        byte[] name = new byte[nameLength];
+        directory.position( pos + CENTRAL_FILE_HEADER_LENGTH );
+        directory.get( name );
+        return new String( name, "UTF-8" );
+    }
+
+    /**
+     * @return the position of the central directory header following the one at the given position.
+     */
+    private static int next( ByteBuffer directory, int pos )
+    {
+        int nameLength = directory.getShort( pos + 28 ) & 0xffff;
+        int extraLength = directory.getShort( pos + 30 ) & 0xffff;
+        int commentLength = directory.getShort( pos + 32 ) & 0xffff;
+        return pos + CENTRAL_FILE_HEADER_LENGTH + nameLength + extraLength + commentLength;
+    }
+
+    private static ByteBuffer read( FileChannel channel, long position, int length )
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+        while ( buffer.hasRemaining() )
+        {
+            if ( channel.read( buffer, position + buffer.position() ) < 0 )
+            {
+                throw new IOException( "Unexpected end of file" );
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Computes the offset of the entry data, which follows the local file header.
+     */
+    long getDataOffset( FileChannel channel, Entry entry )
+        throws IOException
+    {
+        ByteBuffer header = read( channel, entry.localHeaderOffset, LOCAL_FILE_HEADER_LENGTH );
+        if ( header.getInt( 0 ) != LOCAL_FILE_HEADER_SIGNATURE )
+        {
+            throw new IOException( "Corrupt local file header of " + entry.name + " in " + file );
+        }
+        int nameLength = header.getShort( 26 ) & 0xffff;
+        int extraLength = header.getShort( 28 ) & 0xffff;
+        return entry.localHeaderOffset + LOCAL_FILE_HEADER_LENGTH + nameLength + extraLength;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return the entry with the given name, or null.
+     */
+    Entry getEntry( String name )
+    {
+        return entries.get( name );
+    }
+
+    /**
+     * @return the entries, in the order of the central directory.
+     */
+    Collection<Entry> getEntries()
+    {
+        return entries.values();
+    }
+
+    /**
+     * A single entry of the central directory.
+     */
+    static final class Entry
+    {
+        private String name;
+
+        private int flags;
+
+        private int method;
+
+        private long dosTime;
+
+        private long crc;
+
+        private long compressedSize;
+
+        private long size;
+
+        private long externalAttributes;
+
+        private long localHeaderOffset;
+
+        String getName()
+        {
+            return name;
+        }
+
+        int getFlags()
+        {
+            return flags;
+        }
+
+        int getMethod()
+        {
+            return method;
+        }
+
+        long getDosTime()
+        {
+            return dosTime;
+        }
+
+        long getCrc()
+        {
+            return crc;
+        }
+
+        long getCompressedSize()
+        {
+            return compressedSize;
+        }
+
+        long getSize()
+        {
+            return size;
+        }
+
+        long getExternalAttributes()
+        {
+            return externalAttributes;
+        }
+
+        boolean isDirectory()
+        {
+            return name.endsWith( "/" );
+        }
+
+        /**
+         * @return true if the entry is neither encrypted, nor uses a compression method other than stored or
+         *         deflated, so its data can be copied into another archive as is.
+         */
+        boolean isCopyable()
+        {
+            return ( flags & 1 ) == 0 && ( method == JarWriter.STORED || method == JarWriter.DEFLATED );
+        }
+    }
+}
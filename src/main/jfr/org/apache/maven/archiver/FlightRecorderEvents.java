@@ -0,0 +1,225 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The archiver events, as Java Flight Recorder events. Only loaded through {@link ArchiverEvents} if the recorder
+ * is available. Besides their own fields, the events have the thread and the time they happened at, so they line
+ * up with the other events of a recording of the build.
+ *
+ * @version $Id$
+ */
+class FlightRecorderEvents
+    extends ArchiverEvents
+{
+    private static final EventType ARCHIVE = EventType.getEventType( ArchiveEvent.class );
+
+    private static final EventType MANIFEST = EventType.getEventType( ManifestEvent.class );
+
+    private static final EventType ENTRY = EventType.getEventType( EntryEvent.class );
+
+    Object beginArchive()
+    {
+        if ( !ARCHIVE.isEnabled() )
+        {
+            return null;
+        }
+        ArchiveEvent event = new ArchiveEvent();
+        event.begin();
+        return event;
+    }
+
+    void commitArchive( Object event, File file, String project, long entries, long size, long compressedSize,
+                        boolean forced, boolean upToDate, boolean cached )
+    {
+        if ( event != null )
+        {
+            ArchiveEvent archive = (ArchiveEvent) event;
+            archive.end();
+            if ( archive.shouldCommit() )
+            {
+                archive.file = file.getPath();
+                archive.project = project;
+                archive.entries = entries;
+                archive.size = size;
+                archive.compressedSize = compressedSize;
+                archive.forced = forced;
+                archive.upToDate = upToDate;
+                archive.cached = cached;
+                archive.commit();
+            }
+        }
+    }
+
+    Object beginManifest()
+    {
+        if ( !MANIFEST.isEnabled() )
+        {
+            return null;
+        }
+        ManifestEvent event = new ManifestEvent();
+        event.begin();
+        return event;
+    }
+
+    void commitManifest( Object event, String project, int classpathElements, String layoutType )
+    {
+        if ( event != null )
+        {
+            ManifestEvent manifest = (ManifestEvent) event;
+            manifest.end();
+            if ( manifest.shouldCommit() )
+            {
+                manifest.project = project;
+                manifest.classpathElements = classpathElements;
+                manifest.layoutType = layoutType;
+                manifest.commit();
+            }
+        }
+    }
+
+    Object beginEntry()
+    {
+        if ( !ENTRY.isEnabled() )
+        {
+            return null;
+        }
+        EntryEvent event = new EntryEvent();
+        event.begin();
+        return event;
+    }
+
+    void commitEntry( Object event, File archive, String name, long size, long compressedSize, boolean deflated )
+    {
+        if ( event != null )
+        {
+            EntryEvent entry = (EntryEvent) event;
+            entry.end();
+            if ( entry.shouldCommit() )
+            {
+                entry.archive = archive.getPath();
+                entry.name = name;
+                entry.size = size;
+                entry.compressedSize = compressedSize;
+                entry.deflated = deflated;
+                entry.commit();
+            }
+        }
+    }
+
+    @Name( "org.apache.maven.archiver.Archive" )
+    @Label( "Archive" )
+    @Category( { "Maven", "Archiver" } )
+    @Description( "The creation of an archive, or finding it up to date" )
+    @StackTrace( false )
+    static class ArchiveEvent
+        extends Event
+    {
+        @Label( "File" )
+        String file;
+
+        @Label( "Project" )
+        String project;
+
+        @Label( "Entries" )
+        long entries;
+
+        @Label( "Size" )
+        @DataAmount
+        long size;
+
+        @Label( "Compressed Size" )
+        @DataAmount
+        long compressedSize;
+
+        @Label( "Forced" )
+        boolean forced;
+
+        @Label( "Up to Date" )
+        boolean upToDate;
+
+        @Label( "Cached" )
+        boolean cached;
+    }
+
+    @Name( "org.apache.maven.archiver.Manifest" )
+    @Label( "Manifest" )
+    @Category( { "Maven", "Archiver" } )
+    @Description( "The creation of a manifest" )
+    @StackTrace( false )
+    static class ManifestEvent
+        extends Event
+    {
+        @Label( "Project" )
+        String project;
+
+        @Label( "Classpath Elements" )
+        int classpathElements;
+
+        @Label( "Layout Type" )
+        String layoutType;
+    }
+
+    /**
+     * Disabled unless enabled in the recording settings, and then only recorded for entries which take longer
+     * than the threshold to read and compress.
+     */
+    @Name( "org.apache.maven.archiver.Entry" )
+    @Label( "Slow Entry" )
+    @Category( { "Maven", "Archiver" } )
+    @Description( "The compression of an entry of our own jar writer which took longer than the threshold" )
+    @Enabled( false )
+    @Threshold( "20 ms" )
+    @StackTrace( false )
+    static class EntryEvent
+        extends Event
+    {
+        @Label( "Archive" )
+        String archive;
+
+        @Label( "Name" )
+        String name;
+
+        @Label( "Size" )
+        @DataAmount
+        long size;
+
+        @Label( "Compressed Size" )
+        @DataAmount
+        long compressedSize;
+
+        @Label( "Deflated" )
+        boolean deflated;
+    }
+}
@@ -0,0 +1,90 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class ArchiveCacheTest
+    extends TestCase
+{
+    public void testArchiveCache()
+        throws Exception
+    {
+        File cacheDirectory = new File( "target/test/archive-cache" );
+        FileUtils.deleteDirectory( cacheDirectory );
+        File classes = new File( "target/test/cached-classes" );
+        FileUtils.deleteDirectory( classes );
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/A.txt", "a", System.currentTimeMillis() - 60000L );
+
+        MavenSession session = MavenArchiverTest.getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setArchiveCacheDirectory( cacheDirectory );
+        config.setArchiveCacheHardLinks( true );
+
+        File jarFile = new File( "target/test/cached.jar" );
+        jarFile.delete();
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        File[] cached = cacheDirectory.listFiles();
+        assertEquals( 2, cached.length );
+        Arrays.sort( cached );
+        File cachedFile = cached[0];
+        File usedFile = cached[1];
+        assertEquals( cachedFile.getName().replace( ".jar", ".used" ), usedFile.getName() );
+        assertEquals( jarFile.length(), cachedFile.length() );
+
+        // a hit replaces the archive with the cached one, even if the sources were touched, and marks it as used
+        // without changing the time it shares with the archive it's linked to
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/A.txt", "a", System.currentTimeMillis() );
+        jarFile.delete();
+        FileUtils.fileWrite( jarFile.getPath(), "not a jar" );
+        cachedFile.setLastModified( System.currentTimeMillis() - 60000L );
+        usedFile.setLastModified( System.currentTimeMillis() - 60000L );
+        long stored = cachedFile.lastModified();
+        long used = usedFile.lastModified();
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        assertEquals( 2, cacheDirectory.list().length );
+        assertEquals( stored, cachedFile.lastModified() );
+        assertEquals( stored, jarFile.lastModified() );
+        assertTrue( usedFile.lastModified() > used );
+        assertEquals( "a", MavenArchiverTest.getContents( jarFile, "org/apache/dummy/A.txt" ) );
+
+        // without the cache, the archive linked to it is replaced, rather than written to
+        config.setArchiveCacheDirectory( null );
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/A.txt", "c", System.currentTimeMillis() );
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        assertEquals( "c", MavenArchiverTest.getContents( jarFile, "org/apache/dummy/A.txt" ) );
+        assertEquals( "a", MavenArchiverTest.getContents( cachedFile, "org/apache/dummy/A.txt" ) );
+        config.setArchiveCacheDirectory( cacheDirectory );
+
+        // different contents make another key, and the least recently used archive goes once the cache is full
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/A.txt", "b", System.currentTimeMillis() );
+        usedFile.setLastModified( System.currentTimeMillis() - 60000L );
+        config.setArchiveCacheSize( 0 );
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        assertFalse( cachedFile.exists() );
+        assertFalse( usedFile.exists() );
+        assertEquals( "b", MavenArchiverTest.getContents( jarFile, "org/apache/dummy/A.txt" ) );
+    }
+}
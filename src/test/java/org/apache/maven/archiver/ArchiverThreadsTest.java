@@ -0,0 +1,106 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ArchiverThreadsTest
+    extends TestCase
+{
+    public void testLimitedExecutor()
+        throws Exception
+    {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final List<Integer> started = Collections.synchronizedList( new ArrayList<Integer>() );
+        final CountDownLatch done = new CountDownLatch( 50 );
+        Executor executor = ArchiverThreads.newLimitedExecutor( 3 );
+        for ( int i = 0; i < 50; i++ )
+        {
+            final int task = i;
+            executor.execute( new Runnable()
+            {
+                public void run()
+                {
+                    started.add( Integer.valueOf( task ) );
+                    int now = active.incrementAndGet();
+                    int max;
+                    do
+                    {
+                        max = maxActive.get();
+                    }
+                    while ( now > max && !maxActive.compareAndSet( max, now ) );
+                    try
+                    {
+                        Thread.sleep( 2 );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    active.decrementAndGet();
+                    done.countDown();
+                }
+            } );
+        }
+        assertTrue( done.await( 30, TimeUnit.SECONDS ) );
+        assertTrue( "tasks did not run in parallel", maxActive.get() > 1 );
+        assertTrue( "more tasks running than threads", maxActive.get() <= 3 );
+        assertEquals( 50, started.size() );
+    }
+
+    public void testCancelledTaskDoesNotInterruptTheNext()
+        throws Exception
+    {
+        final CountDownLatch running = new CountDownLatch( 1 );
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        tasks.add( new Callable<Boolean>()
+        {
+            public Boolean call()
+                throws Exception
+            {
+                running.countDown();
+                Thread.sleep( 60000 );
+                return Boolean.FALSE;
+            }
+        } );
+        tasks.add( new Callable<Boolean>()
+        {
+            public Boolean call()
+            {
+                return Boolean.valueOf( Thread.currentThread().isInterrupted() );
+            }
+        } );
+        List<Future<Boolean>> futures = ArchiverThreads.submit( tasks, 1 );
+        assertTrue( running.await( 30, TimeUnit.SECONDS ) );
+        futures.get( 0 ).cancel( true );
+        assertEquals( Boolean.FALSE, futures.get( 1 ).get( 30, TimeUnit.SECONDS ) );
+    }
+}
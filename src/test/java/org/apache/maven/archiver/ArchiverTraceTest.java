@@ -0,0 +1,141 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+
+public class ArchiverTraceTest
+    extends TestCase
+{
+    public void testTrace()
+        throws Exception
+    {
+        File classes = new File( "target/test/trace-classes" );
+        FileUtils.deleteDirectory( classes );
+        for ( int i = 0; i < 20; i++ )
+        {
+            MavenArchiverTest.createFile( classes, "org/apache/dummy/A" + i + ".txt", "contents of " + i,
+                                          System.currentTimeMillis() );
+        }
+        File jarFile = new File( "target/test/trace.jar" );
+        jarFile.delete();
+
+        StringWriter out = new StringWriter();
+        ArchiverTrace trace = new ArchiverTrace( out );
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.getManifest().setAddClasspath( true );
+        config.setCompressionThreads( 2 );
+        JarArchiver jarArchiver = new JarArchiver();
+        jarArchiver.addDirectory( classes );
+        MavenArchiver archiver = MavenArchiverTest.getMavenArchiver( jarArchiver );
+        archiver.setOutputFile( jarFile );
+        archiver.setTrace( trace );
+        archiver.createArchive( MavenArchiverTest.getDummySession(), MavenArchiverTest.getDummyProject(), config );
+        // each archive is flushed once it's done
+        assertTrue( out.toString(), out.toString().contains( "\"file\": \"trace.jar\"" ) );
+        archiver.getManifest( MavenArchiverTest.getDummySession(), MavenArchiverTest.getDummyProject(), config );
+
+        trace.close();
+        String json = out.toString();
+        assertTrue( json, json.startsWith( "{\"displayTimeUnit\": \"ms\", \"traceEvents\": [" ) );
+        assertTrue( json, json.contains( "{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": "
+            + Thread.currentThread().getId() + ", " ) );
+        assertTrue( json, json.contains( "\"name\": \"maven-archiver-worker-" ) );
+        assertTrue( json, json.contains( "{\"name\": \"ARCHIVE\", \"cat\": \"phase\", \"ph\": \"X\", " ) );
+        assertTrue( json, json.contains( "\"file\": \"trace.jar\"" ) );
+        assertTrue( json, json.contains( "{\"name\": \"WRITE\", " ) );
+        assertTrue( json, json.contains( "\"name\": \"org/apache/dummy/A7.txt\", \"size\": " ) );
+        // once by createArchive, once by getManifest
+        assertEquals( 2, json.split( "\\{\"name\": \"MANIFEST\", " ).length - 1 );
+        assertEquals( 2, json.split( "\\{\"name\": \"CLASSPATH\", " ).length - 1 );
+        assertTrue( json, json.endsWith( "\n]}\n" ) );
+    }
+
+    public void testStopsSilentlyWhenItCantBeWritten()
+        throws Exception
+    {
+        final boolean[] broken = { false };
+        final StringWriter out = new StringWriter();
+        Writer failing = new Writer()
+        {
+            public void write( char[] cbuf, int off, int len )
+                throws IOException
+            {
+                check();
+                out.write( cbuf, off, len );
+            }
+
+            public void flush()
+                throws IOException
+            {
+                check();
+            }
+
+            public void close()
+                throws IOException
+            {
+                check();
+            }
+
+            private void check()
+                throws IOException
+            {
+                if ( broken[0] )
+                {
+                    throw new IOException( "broken" );
+                }
+            }
+        };
+        ArchiverTrace trace = new ArchiverTrace( failing );
+        trace.waited( "a", System.nanoTime() );
+        trace.flush();
+        String written = out.toString();
+        assertTrue( written, written.contains( "{\"name\": \"wait\", " ) );
+
+        PrintStream err = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr( new PrintStream( errors ) );
+        try
+        {
+            broken[0] = true;
+            trace.close();
+            broken[0] = false;
+            // once writing failed, nothing is recorded, nor reported
+            trace.waited( "b", System.nanoTime() );
+            trace.flush();
+            trace.close();
+        }
+        finally
+        {
+            System.setErr( err );
+        }
+        assertEquals( written, out.toString() );
+        assertEquals( 0, errors.size() );
+    }
+}
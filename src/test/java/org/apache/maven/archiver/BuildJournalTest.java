@@ -0,0 +1,108 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.jar.JarFile;
+
+public class BuildJournalTest
+    extends TestCase
+{
+    public void testJournalPerArchivePath()
+        throws Exception
+    {
+        File jarFile = new File( "target/test/journal-a/same.jar" );
+        File otherJarFile = new File( "target/test/journal-b/same.jar" );
+        File classes = new File( "target/test/journal-same-classes" );
+        File otherClasses = new File( "target/test/journal-other-classes" );
+        FileUtils.deleteDirectory( classes );
+        FileUtils.deleteDirectory( otherClasses );
+        long past = System.currentTimeMillis() - 120000L;
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/A.txt", "a", past );
+        MavenArchiverTest.createFile( otherClasses, "org/apache/dummy/B.txt", "b", past );
+
+        MavenSession session = MavenArchiverTest.getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setForced( false );
+        MavenArchiverTest.deleteAndAssertNotPresent( jarFile );
+        MavenArchiverTest.deleteAndAssertNotPresent( otherJarFile );
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        MavenArchiverTest.createArchive( session, config, otherJarFile, otherClasses );
+        assertFalse( MavenArchiverTest.getArchiveStateFile( jarFile, BuildJournal.SUFFIX ).equals(
+            MavenArchiverTest.getArchiveStateFile( otherJarFile, BuildJournal.SUFFIX ) ) );
+
+        // the archive with the same name elsewhere doesn't replace the journal
+        jarFile.setLastModified( past );
+        long time = jarFile.lastModified();
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        assertEquals( time, jarFile.lastModified() );
+    }
+
+    public void testRecreationDetectsRemovedAndTouchedFiles()
+        throws Exception
+    {
+        File jarFile = new File( "target/test/journal.jar" );
+        File classes = new File( "target/test/journal-classes" );
+        FileUtils.deleteDirectory( classes );
+        long past = System.currentTimeMillis() - 120000L;
+        File touched = MavenArchiverTest.createFile( classes, "org/apache/dummy/Touched.txt", "touched", past );
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/Removed.txt", "removed", past );
+
+        MavenSession session = MavenArchiverTest.getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setForced( false );
+
+        MavenArchiverTest.deleteAndAssertNotPresent( jarFile );
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        assertTrue( MavenArchiverTest.getArchiveStateFile( jarFile, BuildJournal.SUFFIX ).isFile() );
+        jarFile.setLastModified( past );
+        long time = jarFile.lastModified();
+
+        // nothing changed
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        assertEquals( time, jarFile.lastModified() );
+
+        // only the timestamp changed, which the digest reveals
+        touched.setLastModified( System.currentTimeMillis() );
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        assertEquals( time, jarFile.lastModified() );
+
+        // all files are older than the archive, so a timestamp check wouldn't notice the removed one
+        touched.setLastModified( past );
+        assertTrue( new File( classes, "org/apache/dummy/Removed.txt" ).delete() );
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        assertTrue( jarFile.lastModified() > time );
+
+        JarFile jar = new JarFile( jarFile );
+        try
+        {
+            assertEquals( "touched", MavenArchiverTest.getContents( jar, "org/apache/dummy/Touched.txt" ) );
+            assertNull( jar.getEntry( "org/apache/dummy/Removed.txt" ) );
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+}
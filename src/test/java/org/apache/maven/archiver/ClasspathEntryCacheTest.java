@@ -0,0 +1,78 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+
+import java.util.jar.Manifest;
+
+public class ClasspathEntryCacheTest
+    extends TestCase
+{
+    public void testClasspathEntryCache()
+        throws Exception
+    {
+        MavenSession session = MavenArchiverTest.getDummySession();
+        MavenProject project = MavenArchiverTest.getDummyProject();
+
+        ClasspathEntryCache cache = new ClasspathEntryCache( 4 );
+        MavenArchiver archiver = new MavenArchiver();
+        archiver.setClasspathEntryCache( cache );
+
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.getManifest().setAddClasspath( true );
+        config.getManifest().setClasspathLayoutType( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_REPOSITORY );
+
+        String expected = "org/apache/dummy/dummy1/1.0/dummy1-1.0.jar org/apache/dummy/foo/dummy2/1.5/dummy2-1.5.jar"
+            + " org/apache/dummy/bar/dummy3/2.0/dummy3-2.0.jar";
+        Manifest manifest = archiver.getManifest( session, project, config );
+        assertEquals( expected, manifest.getMainAttributes().getValue( "Class-Path" ) );
+        assertEquals( 0, cache.getHitCount() );
+        assertEquals( 3, cache.getMissCount() );
+
+        manifest = archiver.getManifest( session, MavenArchiverTest.getDummyProject(), config );
+        assertEquals( expected, manifest.getMainAttributes().getValue( "Class-Path" ) );
+        assertEquals( 3, cache.getHitCount() );
+        assertEquals( 3, cache.getMissCount() );
+
+        // a different prefix yields different entries, and pushes some of the old ones out
+        config.getManifest().setClasspathPrefix( "lib" );
+        manifest = archiver.getManifest( session, project, config );
+        assertTrue( manifest.getMainAttributes().getValue( "Class-Path" ).startsWith( "lib/org/apache/dummy/" ) );
+        assertEquals( 6, cache.getMissCount() );
+        assertEquals( 4, cache.size() );
+        assertEquals( 2, cache.getEvictionCount() );
+
+        // the elements of a snapshot remember their entries, without looking them up in the cache again
+        ClasspathSnapshot.Element element = ClasspathSnapshot.create( project ).getElements().get( 1 );
+        ClasspathLayout layout = ClasspathLayout.forConfiguration( config.getManifest() );
+        StringBuilder buffer = new StringBuilder();
+        cache.append( buffer, new ClasspathEntryCache.LayoutKey( "lib/", layout ), element );
+        cache.clear();
+        cache.append( buffer.append( ' ' ), new ClasspathEntryCache.LayoutKey( "lib/", layout ), element );
+        assertEquals( "lib/org/apache/dummy/dummy1/1.0/dummy1-1.0.jar lib/org/apache/dummy/dummy1/1.0/dummy1-1.0.jar",
+                      buffer.toString() );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 0, cache.getMissCount() );
+        assertEquals( 0, cache.size() );
+    }
+}
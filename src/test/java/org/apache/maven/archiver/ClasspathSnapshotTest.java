@@ -0,0 +1,217 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClasspathSnapshotTest
+    extends TestCase
+{
+    /**
+     * A file system where every check takes a while, and only some of the elements are files.
+     */
+    static class SlowFileProbe
+        implements ClasspathSnapshot.FileProbe
+    {
+        private final Set<File> files;
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private final AtomicInteger maxActive = new AtomicInteger();
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private final Set<String> threads = Collections.synchronizedSet( new HashSet<String>() );
+
+        SlowFileProbe( Set<File> files )
+        {
+            this.files = files;
+        }
+
+        public boolean isFile( File file )
+        {
+            calls.incrementAndGet();
+            threads.add( Thread.currentThread().getName() );
+            int now = active.incrementAndGet();
+            try
+            {
+                int max;
+                do
+                {
+                    max = maxActive.get();
+                }
+                while ( now > max && !maxActive.compareAndSet( max, now ) );
+
+                Thread.sleep( 10 );
+                return files.contains( file );
+            }
+            catch ( InterruptedException e )
+            {
+                throw new IllegalStateException( e );
+            }
+            finally
+            {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    public void testParallelChecksKeepClasspathOrder()
+        throws Exception
+    {
+        final List<String> elements = new ArrayList<String>();
+        Set<File> files = new HashSet<File>();
+        Set<Artifact> artifacts = new LinkedHashSet<Artifact>();
+        elements.add( new File( "target/classes" ).getAbsolutePath() );
+        for ( int i = 0; i < 50; i++ )
+        {
+            File file = new File( "repository/dummy" + i + "/1.0/dummy" + i + "-1.0.jar" ).getAbsoluteFile();
+            elements.add( file.getPath() );
+            // every fifth element went missing
+            if ( i % 5 != 0 )
+            {
+                files.add( file );
+            }
+            // and every seventh element has no artifact
+            if ( i % 7 != 0 )
+            {
+                MockArtifact artifact = new MockArtifact();
+                artifact.setGroupId( "org.apache.dummy" );
+                artifact.setArtifactId( "dummy" + i );
+                artifact.setVersion( "1.0" );
+                artifact.setType( "jar" );
+                artifact.setScope( "runtime" );
+                artifact.setArtifactHandler( new DefaultArtifactHandler( "jar" ) );
+                artifact.setFile( file );
+                artifacts.add( artifact );
+            }
+        }
+
+        Model model = new Model();
+        model.setArtifactId( "dummy" );
+        MavenProject project = new MavenProject( model )
+        {
+            public List getRuntimeClasspathElements()
+            {
+                return elements;
+            }
+        };
+        project.setArtifacts( artifacts );
+
+        SlowFileProbe sequentialProbe = new SlowFileProbe( files );
+        ClasspathSnapshot sequential = ClasspathSnapshot.create( project, 1, sequentialProbe );
+        assertEquals( 1, sequentialProbe.maxActive.get() );
+        assertEquals( elements.size(), sequentialProbe.calls.get() );
+
+        SlowFileProbe parallelProbe = new SlowFileProbe( files );
+        ClasspathSnapshot parallel = ClasspathSnapshot.create( project, 8, parallelProbe );
+        assertTrue( "checks did not run in parallel", parallelProbe.maxActive.get() > 1 );
+        assertTrue( "more checks in flight than threads", parallelProbe.maxActive.get() <= 8 );
+        assertEquals( elements.size(), parallelProbe.calls.get() );
+
+        assertEquals( elements.size(), parallel.getElements().size() );
+        for ( int i = 0; i < elements.size(); i++ )
+        {
+            ClasspathSnapshot.Element expected = sequential.getElements().get( i );
+            ClasspathSnapshot.Element actual = parallel.getElements().get( i );
+            assertEquals( elements.get( i ), actual.getPath() );
+            assertEquals( expected.getPath(), actual.getPath() );
+            assertEquals( expected.isFile(), actual.isFile() );
+            assertSame( expected.getArtifact(), actual.getArtifact() );
+        }
+        assertFalse( parallel.getElements().get( 0 ).isFile() );
+        assertNull( parallel.getElements().get( 1 ).getArtifact() );
+        assertEquals( "dummy2", parallel.getElements().get( 3 ).getArtifact().getArtifactId() );
+
+        // the checks run on the shared threads, which the next snapshot reuses
+        for ( String thread : parallelProbe.threads )
+        {
+            assertTrue( thread, thread.startsWith( "maven-archiver-worker-" ) );
+        }
+        SlowFileProbe nextProbe = new SlowFileProbe( files );
+        ClasspathSnapshot.create( project, 8, nextProbe );
+        Set<String> reused = new HashSet<String>( nextProbe.threads );
+        reused.retainAll( parallelProbe.threads );
+        assertFalse( nextProbe.threads.toString(), reused.isEmpty() );
+    }
+
+    public void testParallelChecksProduceSameManifest()
+        throws Exception
+    {
+        final List<String> elements = new ArrayList<String>();
+        Set<Artifact> artifacts = new LinkedHashSet<Artifact>();
+        elements.add( new File( "target" ).getAbsolutePath() );
+        String[] jars = { "dummy1-1.0.jar", "dummy2-1.5.jar", "dummy3-2.0.jar", "dummy.dot-1.5.jar" };
+        for ( String jar : jars )
+        {
+            File file = new File( "src/test/resources", jar ).getAbsoluteFile();
+            elements.add( file.getPath() );
+            MockArtifact artifact = new MockArtifact();
+            artifact.setGroupId( "org.apache.dummy" );
+            artifact.setArtifactId( jar.substring( 0, jar.lastIndexOf( '-' ) ) );
+            artifact.setVersion( jar.substring( jar.lastIndexOf( '-' ) + 1, jar.length() - 4 ) );
+            artifact.setType( "jar" );
+            artifact.setScope( "runtime" );
+            artifact.setArtifactHandler( new DefaultArtifactHandler( "jar" ) );
+            artifact.setFile( file );
+            artifacts.add( artifact );
+        }
+
+        Model model = new Model();
+        model.setArtifactId( "dummy" );
+        MavenProject project = new MavenProject( model )
+        {
+            public List getRuntimeClasspathElements()
+            {
+                return elements;
+            }
+        };
+        project.setArtifacts( artifacts );
+
+        MavenArchiver archiver = new MavenArchiver();
+        archiver.setClasspathEntryCache( null );
+
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.getManifest().setAddClasspath( true );
+        config.getManifest().setClasspathLayoutType( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_REPOSITORY );
+        String sequential = archiver.getManifest( null, project, config ).getMainAttributes().getValue( "Class-Path" );
+
+        config.getManifest().setClasspathCheckThreads( 3 );
+        String parallel = archiver.getManifest( null, project, config ).getMainAttributes().getValue( "Class-Path" );
+
+        assertEquals( "org/apache/dummy/dummy1/1.0/dummy1-1.0.jar org/apache/dummy/dummy2/1.5/dummy2-1.5.jar"
+                          + " org/apache/dummy/dummy3/2.0/dummy3-2.0.jar org/apache/dummy/dummy.dot/1.5/dummy.dot-1.5.jar",
+                      sequential );
+        assertEquals( sequential, parallel );
+    }
+}
@@ -0,0 +1,93 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+
+public class CompositionReportTest
+    extends TestCase
+{
+    public void testCompositionReport()
+        throws Exception
+    {
+        File classes = new File( "target/test/composition-classes" );
+        FileUtils.deleteDirectory( classes );
+        StringBuilder text = new StringBuilder();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            text.append( "line " ).append( i % 10 ).append( '\n' );
+        }
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/Large.txt", text.toString(),
+                                      System.currentTimeMillis() );
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/Small.txt", "small", System.currentTimeMillis() );
+        MavenArchiverTest.createFile( classes, "org/apache/Other.txt", "other", System.currentTimeMillis() );
+        MavenArchiverTest.createFile( classes, "Root.txt", "root \"quoted\"", System.currentTimeMillis() );
+        File jarFile = new File( "target/test/composition.jar" );
+        jarFile.delete();
+        File reportFile = new File( "target/maven-archiver/composition.jar" + CompositionReport.SUFFIX );
+        reportFile.delete();
+
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setCompositionReport( true );
+        config.setCompressionThreads( 2 );
+        JarArchiver jarArchiver = new JarArchiver();
+        jarArchiver.addDirectory( classes );
+        MavenArchiver archiver = MavenArchiverTest.getMavenArchiver( jarArchiver );
+        archiver.setOutputFile( jarFile );
+        archiver.createArchive( MavenArchiverTest.getDummySession(), MavenArchiverTest.getDummyProject(), config );
+
+        assertTrue( reportFile.exists() );
+        String report = FileUtils.fileRead( reportFile, "UTF-8" );
+        assertTrue( report, report.contains( "\"archive\": \"composition.jar\"" ) );
+        assertTrue( report, report.contains( "\"deflateTimesKnown\": true" ) );
+        assertTrue( report, report.contains( "{\"name\": \"org/apache/dummy\", \"entries\": 2, \"rawBytes\": "
+            + ( text.length() + 5 ) + ", " ) );
+        assertTrue( report, report.contains( "{\"name\": \"org/apache\", \"entries\": 1, \"rawBytes\": 5, " ) );
+        assertTrue( report, report.contains( "{\"name\": \"org\", \"entries\": 3, " ) );
+        assertTrue( report, report.contains( "\"META-INF/MANIFEST.MF\"" ) );
+        assertTrue( report, report.contains( "\"Root.txt\"" ) );
+        // the largest compressed entry comes first
+        int largest = report.indexOf( "\"largestEntries\"" );
+        assertTrue( report.indexOf( "org/apache/dummy/Large.txt", largest ) > largest );
+        assertTrue( report.indexOf( "org/apache/dummy/Large.txt", largest )
+            < report.indexOf( "org/apache/dummy/Small.txt", largest ) );
+        assertTrue( report, report.contains( "\"deflateNanos\": " ) );
+
+        // the plexus archiver doesn't tell how long deflating took
+        config.setCompressionThreads( 1 );
+        jarArchiver = new JarArchiver();
+        jarArchiver.addDirectory( classes );
+        archiver.setArchiver( jarArchiver );
+        archiver.createArchive( MavenArchiverTest.getDummySession(), MavenArchiverTest.getDummyProject(), config );
+        report = FileUtils.fileRead( reportFile, "UTF-8" );
+        assertTrue( report, report.contains( "\"deflateTimesKnown\": false" ) );
+        assertFalse( report, report.contains( "\"deflateNanos\"" ) );
+        assertTrue( report, report.contains( "\"org/apache/dummy/Large.txt\"" ) );
+    }
+
+    public void testQuote()
+    {
+        assertEquals( "\"a\\\"b\\\\c\\u000a\"", CompositionReport.quote( "a\"b\\c\n" ) );
+    }
+}
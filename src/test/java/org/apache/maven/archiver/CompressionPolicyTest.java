@@ -0,0 +1,109 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class CompressionPolicyTest
+    extends TestCase
+{
+    private final CompressionPolicy policy = new CompressionPolicy( 10 );
+
+    private final Deflater deflater = new Deflater();
+
+    private final CompressionStatistics statistics = new CompressionStatistics();
+
+    protected void tearDown()
+    {
+        deflater.end();
+    }
+
+    public void testGzip()
+        throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream( bytes );
+        out.write( text() );
+        out.close();
+        byte[] gzip = bytes.toByteArray();
+        assertTrue( CompressionPolicy.isCompressedFormat( gzip, gzip.length ) );
+        assertFalse( policy.shouldDeflate( gzip, gzip.length, deflater, statistics ) );
+
+        // the magic bytes alone, followed by anything but the deflate method, don't make a gzip file
+        byte[] text = text();
+        text[0] = (byte) 0x1f;
+        text[1] = (byte) 0x8b;
+        assertFalse( CompressionPolicy.isCompressedFormat( text, text.length ) );
+        assertTrue( policy.shouldDeflate( text, text.length, deflater, statistics ) );
+    }
+
+    public void testNestedArchive()
+        throws Exception
+    {
+        byte[] stored = zip( text(), ZipEntry.STORED );
+        assertFalse( CompressionPolicy.isCompressedFormat( stored, stored.length ) );
+        assertTrue( policy.shouldDeflate( stored, stored.length, deflater, statistics ) );
+
+        byte[] noise = new byte[CompressionPolicy.SAMPLE_SIZE];
+        new Random( 42 ).nextBytes( noise );
+        byte[] deflated = zip( noise, ZipEntry.DEFLATED );
+        assertFalse( CompressionPolicy.isCompressedFormat( deflated, deflated.length ) );
+        assertFalse( policy.shouldDeflate( deflated, deflated.length, deflater, statistics ) );
+    }
+
+    private static byte[] text()
+    {
+        StringBuffer text = new StringBuffer();
+        for ( int i = 0; i < 2000; i++ )
+        {
+            text.append( "line " ).append( i ).append( '\n' );
+        }
+        return text.toString().getBytes();
+    }
+
+    private static byte[] zip( byte[] contents, int method )
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream( bytes );
+        ZipEntry entry = new ZipEntry( "entry" );
+        entry.setMethod( method );
+        if ( method == ZipEntry.STORED )
+        {
+            CRC32 crc = new CRC32();
+            crc.update( contents );
+            entry.setSize( contents.length );
+            entry.setCrc( crc.getValue() );
+        }
+        out.putNextEntry( entry );
+        out.write( contents );
+        out.close();
+        return bytes.toByteArray();
+    }
+}
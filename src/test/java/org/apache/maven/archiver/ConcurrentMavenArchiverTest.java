@@ -0,0 +1,131 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
+
+public class ConcurrentMavenArchiverTest
+    extends TestCase
+{
+    public void testConcurrentMavenArchiver()
+        throws Exception
+    {
+        final int projects = 4;
+        final int archives = 12;
+        final MavenSession session = MavenArchiverTest.getDummySession();
+        final List<MavenProject> projectList = new ArrayList<MavenProject>();
+        final List<ArchiveRequest> requests = new ArrayList<ArchiveRequest>();
+        for ( int p = 0; p < projects; p++ )
+        {
+            File dir = new File( "target/test/concurrent/project" + p );
+            FileUtils.deleteDirectory( dir );
+            MavenProject project = MavenArchiverTest.getDummyProject();
+            project.getBuild().setDirectory( dir.getPath() );
+            projectList.add( project );
+            for ( int a = 0; a < archives; a++ )
+            {
+                File classes = new File( dir, "classes" + a );
+                MavenArchiverTest.createFile( classes, "org/apache/dummy/A.txt", "project" + p + ", archive" + a,
+                            System.currentTimeMillis() );
+                JarArchiver jarArchiver = new JarArchiver();
+                jarArchiver.addDirectory( classes );
+                MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+                config.getManifest().setAddClasspath( true );
+                if ( a % 3 == 1 )
+                {
+                    config.getManifest().setClasspathLayoutType( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_CUSTOM );
+                    config.getManifest().setCustomClasspathLayout( "lib/${artifact.artifactId}.${artifact.extension}" );
+                }
+                config.setCompressionThreads( a % 4 == 2 ? 2 : 1 );
+                config.setReproducible( a % 4 == 3 );
+                requests.add( new ArchiveRequest( new File( dir, "archive" + a + ".jar" ), jarArchiver, config ) );
+            }
+        }
+
+        final ConcurrentMavenArchiver archiver = ConcurrentMavenArchiver.getSharedInstance();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( 16 );
+        try
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for ( int i = 0; i < requests.size(); i++ )
+            {
+                final ArchiveRequest request = requests.get( i );
+                final MavenProject project = projectList.get( i / archives );
+                futures.add( executor.submit( new Callable<Object>()
+                {
+                    public Object call()
+                        throws Exception
+                    {
+                        start.await();
+                        archiver.createArchive( session, project, request );
+                        return null;
+                    }
+                } ) );
+            }
+            start.countDown();
+            for ( Future<?> future : futures )
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        // the locks of the build directories are gone with the archives
+        assertEquals( 0, archiver.getLockCount() );
+
+        for ( int i = 0; i < requests.size(); i++ )
+        {
+            int p = i / archives;
+            int a = i % archives;
+            JarFile jar = new JarFile( requests.get( i ).getOutputFile() );
+            try
+            {
+                assertEquals( "project" + p + ", archive" + a,
+                              MavenArchiverTest.getContents( jar, "org/apache/dummy/A.txt" ) );
+                assertNotNull(
+                    MavenArchiverTest.getContents( jar, "META-INF/maven/org.apache.dummy/dummy/pom.properties" ) );
+                String classPath = jar.getManifest().getMainAttributes().getValue( "Class-Path" );
+                assertTrue( classPath, classPath.contains( a % 3 == 1 ? "lib/dummy1.jar" : "dummy1-1.0.jar" ) );
+            }
+            finally
+            {
+                jar.close();
+            }
+            assertEquals( a % 4 == 2 || a % 4 == 3, requests.get( i ).getCompressionStatistics() != null );
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+public class EntryFilterTest
+    extends TestCase
+{
+    public void testEntryFilter()
+        throws Exception
+    {
+        File classes = new File( "target/test/filtered-classes" );
+        FileUtils.deleteDirectory( classes );
+        for ( int i = 0; i < 100; i++ )
+        {
+            String name = "org/apache/dummy/p" + ( i % 10 ) + "/C" + i + ".class";
+            MavenArchiverTest.createFile( classes, name, "c", System.currentTimeMillis() );
+        }
+
+        MavenSession session = MavenArchiverTest.getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setEntryFilter( true );
+        File jarFile = new File( "target/test/filtered.jar" );
+
+        for ( boolean jarWriter : MavenArchiverTest.JAR_WRITERS )
+        {
+            jarFile.delete();
+            MavenArchiverTest.createArchive( session, config, jarFile, classes, jarWriter );
+
+            JarFile jar = new JarFile( jarFile );
+            try
+            {
+                assertEquals( EntryFilter.RESOURCE_NAME,
+                              jar.getManifest().getMainAttributes().getValue( EntryFilter.MANIFEST_ATTRIBUTE ) );
+                EntryFilter filter = EntryFilter.read( jar );
+                assertNotNull( filter );
+                for ( Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); )
+                {
+                    String name = e.nextElement().getName();
+                    assertTrue( name, filter.mightContain( name ) );
+                }
+                assertTrue( filter.mightContainPackage( "org.apache.dummy.p3" ) );
+
+                int falsePositives = 0;
+                for ( int i = 0; i < 1000; i++ )
+                {
+                    if ( filter.mightContain( "org/apache/missing/C" + i + ".class" ) )
+                    {
+                        falsePositives++;
+                    }
+                }
+                assertTrue( "false positives: " + falsePositives, falsePositives < 50 );
+            }
+            finally
+            {
+                jar.close();
+            }
+        }
+
+        // without the filter, the jar has neither the entry nor the attribute
+        config.setEntryFilter( false );
+        jarFile.delete();
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        JarFile jar = new JarFile( jarFile );
+        try
+        {
+            assertNull( jar.getEntry( EntryFilter.RESOURCE_NAME ) );
+            assertNull( EntryFilter.read( jar ) );
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+}
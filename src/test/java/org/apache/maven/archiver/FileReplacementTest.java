@@ -0,0 +1,71 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+
+public class FileReplacementTest
+    extends TestCase
+{
+    public void testReplace()
+        throws Exception
+    {
+        File dir = new File( "target/test/replacement" );
+        FileUtils.deleteDirectory( dir );
+        dir.mkdirs();
+        File source = new File( dir, "new.jar" );
+        File target = new File( dir, "archive.jar" );
+
+        FileUtils.fileWrite( source.getPath(), "first" );
+        FileReplacement.replace( source, target );
+        assertFalse( source.exists() );
+        assertEquals( "first", FileUtils.fileRead( target ) );
+
+        FileUtils.fileWrite( source.getPath(), "second" );
+        FileReplacement.replace( source, target );
+        assertFalse( source.exists() );
+        assertEquals( "second", FileUtils.fileRead( target ) );
+    }
+
+    public void testReplaceKeepsHardLinkedFile()
+        throws Exception
+    {
+        File dir = new File( "target/test/replacement-link" );
+        FileUtils.deleteDirectory( dir );
+        dir.mkdirs();
+        File shared = new File( dir, "shared.jar" );
+        File target = new File( dir, "archive.jar" );
+        File source = new File( dir, "new.jar" );
+        FileUtils.fileWrite( shared.getPath(), "shared" );
+        if ( !ArchiveCache.link( shared, target ) )
+        {
+            // no hard links before Java 7
+            return;
+        }
+
+        FileUtils.fileWrite( source.getPath(), "replaced" );
+        FileReplacement.replace( source, target );
+        assertEquals( "replaced", FileUtils.fileRead( target ) );
+        assertEquals( "shared", FileUtils.fileRead( shared ) );
+    }
+}
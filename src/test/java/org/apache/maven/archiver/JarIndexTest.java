@@ -0,0 +1,92 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.jar.JarFile;
+
+public class JarIndexTest
+    extends TestCase
+{
+    public void testIndex()
+        throws Exception
+    {
+        File classes = new File( "target/test/indexed-classes" );
+        FileUtils.deleteDirectory( classes );
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/A.txt", "a", System.currentTimeMillis() );
+        MavenArchiverTest.createFile( classes, "Root.txt", "root", System.currentTimeMillis() );
+
+        MavenSession session = MavenArchiverTest.getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setIndex( true );
+        config.getManifest().setAddClasspath( true );
+        File jarFile = new File( "target/test/indexed.jar" );
+        File generatedIndex = new File( "target/maven-archiver/indexed.jar.INDEX.LIST" );
+        generatedIndex.delete();
+
+        for ( boolean jarWriter : MavenArchiverTest.JAR_WRITERS )
+        {
+            jarFile.delete();
+            MavenArchiverTest.createArchive( session, config, jarFile, classes, jarWriter );
+
+            JarFile jar = new JarFile( jarFile );
+            try
+            {
+                String index = MavenArchiverTest.getContents( jar, "META-INF/INDEX.LIST" );
+                assertTrue( index, index.startsWith( "JarIndex-Version: 1.0\n\nindexed.jar\nMETA-INF\n" ) );
+                assertTrue( index, index.contains( "\nMETA-INF/maven/org.apache.dummy/dummy\n" ) );
+                assertTrue( index, index.contains( "\norg/apache/dummy\nRoot.txt\n\n" ) );
+                assertTrue( index, index.contains( "\n\ndummy1-1.0.jar\nMETA-INF\nMETA-INF/maven\n" ) );
+                assertTrue( index, index.contains( "\norg/apache/maven/archiver\n\ndummy2-1.5.jar\n" ) );
+            }
+            finally
+            {
+                jar.close();
+            }
+        }
+
+        // the index is added from memory
+        assertFalse( generatedIndex.exists() );
+
+        // an index among the resources is replaced
+        MavenArchiverTest.createFile( classes, "META-INF/INDEX.LIST", "stale", System.currentTimeMillis() );
+        for ( boolean jarWriter : MavenArchiverTest.JAR_WRITERS )
+        {
+            jarFile.delete();
+            MavenArchiverTest.createArchive( session, config, jarFile, classes, jarWriter );
+
+            JarFile jar = new JarFile( jarFile );
+            try
+            {
+                String index = MavenArchiverTest.getContents( jar, "META-INF/INDEX.LIST" );
+                assertTrue( index, index.startsWith( "JarIndex-Version: 1.0" ) );
+                assertTrue( index, index.indexOf( "dummy1-1.0.jar" ) > 0 );
+            }
+            finally
+            {
+                jar.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.archiver.ArchiveEntry;
+import org.codehaus.plexus.archiver.Archiver;
+import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+public class JarWriterTest
+    extends TestCase
+{
+    public void testJarWriterKeepsArchiverSettings()
+        throws Exception
+    {
+        File jarFile = new File( "target/test/archiver-settings.jar" );
+        File classes = new File( "target/test/archiver-settings-classes" );
+        FileUtils.deleteDirectory( classes );
+        long now = System.currentTimeMillis();
+        File first = MavenArchiverTest.createFile( classes, "org/apache/dummy/First.txt", "first", now );
+        File second = MavenArchiverTest.createFile( classes, "org/apache/dummy/Second.txt", "second", now );
+        MavenSession session = MavenArchiverTest.getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setCompressionThreads( 2 );
+
+        // duplicates fail the archive if the archiver is told so, and are skipped otherwise
+        JarArchiver jarArchiver = MavenArchiverTest.getCleanJarArciver( jarFile );
+        jarArchiver.addFile( first, "dup.txt" );
+        jarArchiver.addFile( second, "dup.txt" );
+        MavenArchiver archiver = MavenArchiverTest.getMavenArchiver( jarArchiver );
+        archiver.createArchive( session, MavenArchiverTest.getDummyProject(), config );
+        JarFile jar = new JarFile( jarFile );
+        try
+        {
+            assertEquals( "first", MavenArchiverTest.getContents( jar, "dup.txt" ) );
+        }
+        finally
+        {
+            jar.close();
+        }
+
+        jarArchiver = MavenArchiverTest.getCleanJarArciver( jarFile );
+        jarArchiver.setDuplicateBehavior( Archiver.DUPLICATES_FAIL );
+        jarArchiver.addFile( first, "dup.txt" );
+        jarArchiver.addFile( second, "dup.txt" );
+        try
+        {
+            archiver = MavenArchiverTest.getMavenArchiver( jarArchiver );
+            archiver.createArchive( session, MavenArchiverTest.getDummyProject(), config );
+            fail( "duplicate accepted" );
+        }
+        catch ( ArchiverException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "dup.txt" ) );
+        }
+
+        // settings our own jar writer doesn't know leave the archive to the archiver
+        jarArchiver = MavenArchiverTest.getCleanJarArciver( jarFile );
+        jarArchiver.setFilesonly( true );
+        jarArchiver.addDirectory( classes );
+        archiver = MavenArchiverTest.getMavenArchiver( jarArchiver );
+        archiver.createArchive( session, MavenArchiverTest.getDummyProject(), config );
+        assertNull( archiver.getCompressionStatistics() );
+        jar = new JarFile( jarFile );
+        try
+        {
+            assertNotNull( jar.getEntry( "org/apache/dummy/First.txt" ) );
+        }
+        finally
+        {
+            jar.close();
+        }
+
+        // and so does a manifest of the archiver's own
+        jarArchiver = MavenArchiverTest.getCleanJarArciver( jarFile );
+        org.codehaus.plexus.archiver.jar.Manifest manifest = new org.codehaus.plexus.archiver.jar.Manifest();
+        manifest.addConfiguredAttribute(
+            new org.codehaus.plexus.archiver.jar.Manifest.Attribute( "X-Archiver", "own" ) );
+        jarArchiver.addConfiguredManifest( manifest );
+        jarArchiver.addDirectory( classes );
+        archiver = MavenArchiverTest.getMavenArchiver( jarArchiver );
+        archiver.createArchive( session, MavenArchiverTest.getDummyProject(), config );
+        assertNull( archiver.getCompressionStatistics() );
+        Attributes attributes = MavenArchiverTest.getJarFileManifest( jarFile ).getMainAttributes();
+        assertEquals( "own", attributes.getValue( "X-Archiver" ) );
+    }
+
+    public void testZip64Archive()
+        throws Exception
+    {
+        // more entries than the end of central directory record can count
+        int count = 0x10000 + 10;
+        long past = System.currentTimeMillis() - 120000L;
+        List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+        for ( int i = 0; i < count; i++ )
+        {
+            String name = "org/apache/dummy/p" + ( i % 16 ) + "/Entry" + i + ".txt";
+            ByteArrayResource resource = new ByteArrayResource( name, ( "entry " + i ).getBytes( "UTF-8" ), past );
+            entries.add( ArchiveEntry.createFileEntry( name, resource, 0644 ) );
+        }
+        byte[] manifest = "Manifest-Version: 1.0\r\n\r\n".getBytes( "UTF-8" );
+        File jarFile = new File( "target/test/zip64.jar" );
+        jarFile.delete();
+        JarWriter writer = new JarWriter( jarFile );
+        writer.setIncremental( true );
+        writer.write( manifest, entries.iterator() );
+
+        // the entries, their directories, META-INF and the manifest
+        int total = count + 3 + 16 + 2;
+        JarFile jar = new JarFile( jarFile );
+        try
+        {
+            assertEquals( total, jar.size() );
+            assertEquals( "entry 12345", MavenArchiverTest.getContents( jar, "org/apache/dummy/p9/Entry12345.txt" ) );
+            assertEquals( "entry " + ( count - 1 ),
+                          MavenArchiverTest.getContents( jar, "org/apache/dummy/p9/Entry65545.txt" ) );
+        }
+        finally
+        {
+            jar.close();
+        }
+        assertEquals( total, ZipDirectory.read( jarFile ).getEntries().size() );
+        assertEquals( total, ZipDirectory.readNames( jarFile ).size() );
+
+        writer.write( manifest, entries.iterator() );
+        assertEquals( count, writer.getReusedEntries() );
+        assertEquals( total, ZipDirectory.read( jarFile ).getEntries().size() );
+    }
+}
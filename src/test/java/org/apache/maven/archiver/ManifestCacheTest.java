@@ -0,0 +1,124 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+public class ManifestCacheTest
+    extends TestCase
+{
+    public void testFingerprintEntryOrder()
+        throws Exception
+    {
+        MavenSession session = MavenArchiverTest.getDummySession();
+        MavenProject project = MavenArchiverTest.getDummyProject();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put( "Alpha", "first" );
+        entries.put( "Zeta", "last" );
+        config.setManifestEntries( entries );
+        String alphaFirst = ManifestCache.fingerprint( session, project, config, null );
+
+        Map<String, String> reversed = new LinkedHashMap<String, String>();
+        reversed.put( "Zeta", "last" );
+        reversed.put( "Alpha", "first" );
+        config.setManifestEntries( reversed );
+        String zetaFirst = ManifestCache.fingerprint( session, project, config, null );
+
+        // the entries are written in the order they're configured
+        assertFalse( alphaFirst.equals( zetaFirst ) );
+
+        // unless the manifest is reproducible, which sorts them
+        config.setReproducible( true );
+        String sorted = ManifestCache.fingerprint( session, project, config, null );
+        config.setManifestEntries( entries );
+        assertEquals( sorted, ManifestCache.fingerprint( session, project, config, null ) );
+        assertFalse( sorted.equals( alphaFirst ) );
+    }
+
+    public void testCachedManifest()
+        throws Exception
+    {
+        File jarFile = new File( "target/test/dummy.jar" );
+        MavenSession session = MavenArchiverTest.getDummySession();
+
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setCacheManifest( true );
+        config.getManifest().setAddClasspath( true );
+        config.getManifest().setMainClass( "org.apache.maven.Foo" );
+
+        File cachedManifest = MavenArchiverTest.getArchiveStateFile( jarFile, ManifestCache.SUFFIX );
+        File fingerprint = new File( cachedManifest.getPath() + ManifestCache.FINGERPRINT_SUFFIX );
+        cachedManifest.delete();
+        fingerprint.delete();
+
+        Attributes attributes = createArchive( session, config, jarFile );
+        assertTrue( cachedManifest.getPath(), cachedManifest.isFile() );
+        assertTrue( fingerprint.isFile() );
+        assertEquals( "org.apache.maven.Foo", attributes.getValue( "Main-Class" ) );
+        assertEquals( "dummy1-1.0.jar dummy2-1.5.jar dummy3-2.0.jar", attributes.getValue( "Class-Path" ) );
+
+        // the stored manifest is used as long as the inputs don't change
+        String stored = FileUtils.fileRead( cachedManifest, "UTF-8" );
+        FileUtils.fileWrite( cachedManifest.getPath(), "UTF-8", stored.trim() + "\r\nX-Cached: true\r\n\r\n" );
+        attributes = createArchive( session, config, jarFile );
+        assertEquals( "true", attributes.getValue( "X-Cached" ) );
+        assertEquals( "dummy1-1.0.jar dummy2-1.5.jar dummy3-2.0.jar", attributes.getValue( "Class-Path" ) );
+
+        config.getManifest().setMainClass( "org.apache.maven.Bar" );
+        attributes = createArchive( session, config, jarFile );
+        assertNull( attributes.getValue( "X-Cached" ) );
+        assertEquals( "org.apache.maven.Bar", attributes.getValue( "Main-Class" ) );
+
+        // another archive of the project has a manifest of its own, which the first one's doesn't replace
+        File testJarFile = new File( "target/test/dummy-tests.jar" );
+        config.getManifest().setMainClass( "org.apache.maven.Test" );
+        createArchive( session, config, testJarFile );
+        assertTrue( MavenArchiverTest.getArchiveStateFile( testJarFile, ManifestCache.SUFFIX ).isFile() );
+        FileUtils.fileWrite( cachedManifest.getPath(), "UTF-8",
+                             FileUtils.fileRead( cachedManifest, "UTF-8" ).trim() + "\r\nX-Cached: true\r\n\r\n" );
+        config.getManifest().setMainClass( "org.apache.maven.Bar" );
+        assertEquals( "true", createArchive( session, config, jarFile ).getValue( "X-Cached" ) );
+
+        // our own jar writer adds the cached manifest as is
+        config.setCompressionThreads( 2 );
+        assertEquals( "true", createArchive( session, config, jarFile ).getValue( "X-Cached" ) );
+    }
+
+    /**
+     * Creates an archive of the dummy project, and returns the main attributes of its manifest.
+     */
+    private static Attributes createArchive( MavenSession session, MavenArchiveConfiguration config, File jarFile )
+        throws Exception
+    {
+        MavenArchiver archiver = MavenArchiverTest.getMavenArchiver( MavenArchiverTest.getCleanJarArciver( jarFile ) );
+        archiver.createArchive( session, MavenArchiverTest.getDummyProject(), config );
+        return MavenArchiverTest.getJarFileManifest( jarFile ).getMainAttributes();
+    }
+}
@@ -34,33 +34,54 @@ import org.apache.maven.monitor.event.EventDispatcher;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.settings.Settings;
 import org.codehaus.plexus.PlexusContainer;
+import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.jar.JarArchiver;
 import org.codehaus.plexus.archiver.jar.ManifestException;
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.StringUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
 
 @SuppressWarnings( "ResultOfMethodCallIgnored" )
 public class MavenArchiverTest
     extends TestCase
 {
+    /**
+     * The writers to create an archive with: the jar archiver, and our own jar writer.
+     */
+    static final boolean[] JAR_WRITERS = { false, true };
+
     static class ArtifactComparator
         implements Comparator<Artifact>
     {
@@ -249,6 +270,639 @@ public class MavenArchiverTest
         assertTrue( jarFile.lastModified() > time );
     }
 
+    static void createArchive( MavenSession session, MavenArchiveConfiguration config, File jarFile, File classes )
+        throws Exception
+    {
+        JarArchiver jarArchiver = new JarArchiver();
+        jarArchiver.setDestFile( jarFile );
+        jarArchiver.addDirectory( classes );
+        getMavenArchiver( jarArchiver ).createArchive( session, getDummyProject(), config );
+    }
+
+    /**
+     * Creates an archive with the given writer, whatever the configuration would choose.
+     *
+     * @param jarWriter true for our own jar writer, false for the jar archiver.
+     */
+    static void createArchive( MavenSession session, MavenArchiveConfiguration config, File jarFile, File classes,
+                               boolean jarWriter )
+        throws Exception
+    {
+        JarArchiver jarArchiver = new JarArchiver();
+        jarArchiver.setDestFile( jarFile );
+        jarArchiver.addDirectory( classes );
+        MavenArchiver archiver = getMavenArchiver( jarArchiver );
+        archiver.setJarWriter( Boolean.valueOf( jarWriter ) );
+        archiver.createArchive( session, getDummyProject(), config );
+        // only our own jar writer keeps statistics
+        assertEquals( jarWriter, archiver.getCompressionStatistics() != null );
+    }
+
+    static File getArchiveStateFile( File archive, String suffix )
+    {
+        return new File( "target/maven-archiver", archive.getName() + "-"
+            + Integer.toHexString( archive.getAbsolutePath().hashCode() ) + suffix );
+    }
+
+    public void testPlainJarArchiver()
+        throws Exception
+    {
+        // every setting read from a private field must be found, or no archiver is plain
+        assertTrue( MavenArchiver.isPlainJarArchiver( new JarArchiver() ) );
+
+        JarArchiver withManifestFile = new JarArchiver();
+        withManifestFile.setManifest( new File( "src/test/resources/pom.xml" ) );
+        assertFalse( MavenArchiver.isPlainJarArchiver( withManifestFile ) );
+
+        JarArchiver withManifest = new JarArchiver();
+        withManifest.addConfiguredManifest( new org.codehaus.plexus.archiver.jar.Manifest() );
+        assertFalse( MavenArchiver.isPlainJarArchiver( withManifest ) );
+
+        JarArchiver withComment = new JarArchiver();
+        withComment.setComment( "comment" );
+        assertFalse( MavenArchiver.isPlainJarArchiver( withComment ) );
+    }
+
+    public void testIncrementalArchive()
+        throws Exception
+    {
+        File jarFile = new File( "target/test/incremental.jar" );
+        File classes = new File( "target/test/incremental-classes" );
+        FileUtils.deleteDirectory( classes );
+        long past = System.currentTimeMillis() - 120000L;
+        File unchanged = createFile( classes, "org/apache/dummy/Unchanged.txt", "unchanged", past );
+        File changed = createFile( classes, "org/apache/dummy/Changed.txt", "changed", past );
+        File removed = createFile( classes, "org/apache/dummy/Removed.txt", "removed", past );
+
+        MavenSession session = getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setIncremental( true );
+        config.getManifest().setMainClass( "org.apache.maven.Foo" );
+
+        JarArchiver jarArchiver = getCleanJarArciver( jarFile );
+        jarArchiver.addDirectory( classes );
+        getMavenArchiver( jarArchiver ).createArchive( session, getDummyProject(), config );
+        assertTrue( jarFile.exists() );
+
+        // same size and timestamp as before, so the entry is taken from the previous jar
+        FileUtils.fileWrite( unchanged.getPath(), "UNCHANGED" );
+        unchanged.setLastModified( past );
+        FileUtils.fileWrite( changed.getPath(), "changed again" );
+        assertTrue( removed.delete() );
+        createFile( classes, "org/apache/dummy/Added.txt", "added", System.currentTimeMillis() );
+
+        jarArchiver = new JarArchiver();
+        jarArchiver.setDestFile( jarFile );
+        jarArchiver.addDirectory( classes );
+        getMavenArchiver( jarArchiver ).createArchive( session, getDummyProject(), config );
+
+        JarFile jar = new JarFile( jarFile );
+        try
+        {
+            assertEquals( "org.apache.maven.Foo", jar.getManifest().getMainAttributes().getValue( "Main-Class" ) );
+            assertEquals( "unchanged", getContents( jar, "org/apache/dummy/Unchanged.txt" ) );
+            assertEquals( "changed again", getContents( jar, "org/apache/dummy/Changed.txt" ) );
+            assertEquals( "added", getContents( jar, "org/apache/dummy/Added.txt" ) );
+            assertNull( jar.getEntry( "org/apache/dummy/Removed.txt" ) );
+            assertNotNull( jar.getEntry( "org/apache/dummy/" ) );
+            assertNotNull( jar.getEntry( "META-INF/maven/org.apache.dummy/dummy/pom.properties" ) );
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+
+    public void testParallelCompression()
+        throws Exception
+    {
+        File classes = new File( "target/test/parallel-classes" );
+        FileUtils.deleteDirectory( classes );
+        long past = System.currentTimeMillis() - 120000L;
+        for ( int i = 0; i < 200; i++ )
+        {
+            StringBuffer contents = new StringBuffer();
+            for ( int j = 0; j < i * 10; j++ )
+            {
+                contents.append( "line " ).append( j ).append( '\n' );
+            }
+            createFile( classes, "org/apache/dummy/p" + ( i % 7 ) + "/File" + i + ".txt", contents.toString(), past );
+        }
+        // larger than the memory limit, so it's compressed while it's written
+        StringBuffer large = new StringBuffer();
+        for ( int j = 0; large.length() < 1536 * 1024; j++ )
+        {
+            large.append( "large " ).append( j ).append( '\n' );
+        }
+        createFile( classes, "org/apache/dummy/Large.txt", large.toString(), past );
+
+        MavenSession session = getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setIncremental( true );
+        File sequentialFile = new File( "target/test/sequential.jar" );
+        sequentialFile.delete();
+        createArchive( session, config, sequentialFile, classes );
+
+        config = new MavenArchiveConfiguration();
+        config.setCompressionThreads( 4 );
+        config.setCompressionMemoryLimit( 1 );
+        File parallelFile = new File( "target/test/parallel.jar" );
+        parallelFile.delete();
+        createArchive( session, config, parallelFile, classes );
+
+        JarFile sequential = new JarFile( sequentialFile );
+        JarFile parallel = new JarFile( parallelFile );
+        try
+        {
+            List<String> sequentialNames = new ArrayList<String>();
+            for ( Enumeration<JarEntry> e = sequential.entries(); e.hasMoreElements(); )
+            {
+                sequentialNames.add( e.nextElement().getName() );
+            }
+            List<String> parallelNames = new ArrayList<String>();
+            for ( Enumeration<JarEntry> e = parallel.entries(); e.hasMoreElements(); )
+            {
+                parallelNames.add( e.nextElement().getName() );
+            }
+            assertEquals( sequentialNames, parallelNames );
+            assertTrue( parallelNames.contains( "org/apache/dummy/Large.txt" ) );
+
+            for ( String name : parallelNames )
+            {
+                if ( name.endsWith( "/" ) || name.endsWith( "pom.properties" ) )
+                {
+                    continue;
+                }
+                assertEquals( name, getContents( sequential, name ), getContents( parallel, name ) );
+                if ( name.startsWith( "org/" ) )
+                {
+                    JarEntry entry = parallel.getJarEntry( name );
+                    assertEquals( name, sequential.getJarEntry( name ).getCompressedSize(),
+                                  entry.getCompressedSize() );
+                    assertEquals( name, sequential.getJarEntry( name ).getTime(), entry.getTime() );
+                }
+            }
+        }
+        finally
+        {
+            sequential.close();
+            parallel.close();
+        }
+    }
+
+    public void testMappedInput()
+        throws Exception
+    {
+        File classes = new File( "target/test/mapped-classes" );
+        FileUtils.deleteDirectory( classes );
+        StringBuffer large = new StringBuffer();
+        for ( int j = 0; large.length() < 300 * 1024; j++ )
+        {
+            large.append( "large " ).append( j ).append( '\n' );
+        }
+        createFile( classes, "org/apache/dummy/Large.txt", large.toString(), System.currentTimeMillis() );
+        createFile( classes, "org/apache/dummy/Small.txt", "small", System.currentTimeMillis() );
+        long largeSize = new File( classes, "org/apache/dummy/Large.txt" ).length();
+
+        MavenSession session = getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setMappedInputThreshold( 64 );
+        File jarFile = new File( "target/test/mapped.jar" );
+
+        // written by the calling thread, and compressed by the thread pool
+        for ( int threads = 1; threads <= 2; threads++ )
+        {
+            config.setCompressionThreads( threads );
+            jarFile.delete();
+            JarArchiver jarArchiver = new JarArchiver();
+            jarArchiver.setDestFile( jarFile );
+            jarArchiver.addDirectory( classes );
+            MavenArchiver archiver = getMavenArchiver( jarArchiver );
+            archiver.createArchive( session, getDummyProject(), config );
+
+            CompressionStatistics statistics = archiver.getCompressionStatistics();
+            assertEquals( largeSize, statistics.getMappedBytes() );
+            assertEquals( statistics.getSize() - largeSize, statistics.getStreamedBytes() );
+            JarFile jar = new JarFile( jarFile );
+            try
+            {
+                assertEquals( large.toString(), getContents( jar, "org/apache/dummy/Large.txt" ) );
+                assertEquals( "small", getContents( jar, "org/apache/dummy/Small.txt" ) );
+            }
+            finally
+            {
+                jar.close();
+            }
+        }
+    }
+
+    public void testAdaptiveCompression()
+        throws Exception
+    {
+        File classes = new File( "target/test/adaptive-classes" );
+        FileUtils.deleteDirectory( classes );
+        StringBuffer text = new StringBuffer();
+        for ( int j = 0; j < 2000; j++ )
+        {
+            text.append( "line " ).append( j ).append( '\n' );
+        }
+        createFile( classes, "org/apache/dummy/Text.txt", text.toString(), System.currentTimeMillis() );
+        Random random = new Random( 42 );
+        byte[] noise = new byte[20000];
+        random.nextBytes( noise );
+        createFile( classes, "org/apache/dummy/noise.bin", noise );
+        byte[] png = new byte[20000];
+        random.nextBytes( png );
+        System.arraycopy( new byte[]{ (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' }, 0, png, 0, 8 );
+        createFile( classes, "org/apache/dummy/image.png", png );
+
+        for ( int threads = 1; threads <= 2; threads++ )
+        {
+            File jarFile = new File( "target/test/adaptive" + threads + ".jar" );
+            jarFile.delete();
+            MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+            config.setAdaptiveCompression( true );
+            config.setCompressionThreads( threads );
+
+            JarArchiver jarArchiver = new JarArchiver();
+            jarArchiver.setDestFile( jarFile );
+            jarArchiver.addDirectory( classes );
+            MavenArchiver archiver = getMavenArchiver( jarArchiver );
+            archiver.createArchive( getDummySession(), getDummyProject(), config );
+
+            JarFile jar = new JarFile( jarFile );
+            try
+            {
+                assertEquals( ZipEntry.DEFLATED, jar.getEntry( "org/apache/dummy/Text.txt" ).getMethod() );
+                assertEquals( ZipEntry.STORED, jar.getEntry( "org/apache/dummy/noise.bin" ).getMethod() );
+                assertEquals( ZipEntry.STORED, jar.getEntry( "org/apache/dummy/image.png" ).getMethod() );
+                assertEquals( text.toString(), getContents( jar, "org/apache/dummy/Text.txt" ) );
+                InputStream in = jar.getInputStream( jar.getEntry( "org/apache/dummy/image.png" ) );
+                try
+                {
+                    assertTrue( Arrays.equals( png, IOUtil.toByteArray( in ) ) );
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            finally
+            {
+                jar.close();
+            }
+
+            CompressionStatistics statistics = archiver.getCompressionStatistics();
+            assertEquals( 2, statistics.getStoredEntries() );
+            assertEquals( 40000, statistics.getStoredBytes() );
+            assertTrue( statistics.getSavedBytes() > 0 );
+            assertEquals( statistics.getSize(), statistics.getCompressedSize() + statistics.getSavedBytes() );
+        }
+    }
+
+    public void testReproducibleArchive()
+        throws Exception
+    {
+        File classes = new File( "target/test/reproducible-classes" );
+        MavenSession session = getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setReproducible( true );
+        config.addManifestEntry( "Zeta", "last" );
+        config.addManifestEntry( "Alpha", "first" );
+        config.addManifestEntry( "Middle", "between" );
+        config.getManifest().setMainClass( "org.apache.maven.Foo" );
+
+        byte[][] jars = new byte[2][];
+        for ( int i = 0; i < jars.length; i++ )
+        {
+            // different times and creation order in every round
+            FileUtils.deleteDirectory( classes );
+            long time = System.currentTimeMillis() - 3600000L * ( i + 1 );
+            String[] names = { "org/apache/dummy/B.txt", "org/apache/dummy/A.txt", "org/apache/C.txt" };
+            for ( int j = 0; j < names.length; j++ )
+            {
+                createFile( classes, names[( j + i ) % names.length], names[( j + i ) % names.length], time + j );
+            }
+
+            File jarFile = new File( "target/test/reproducible" + i + ".jar" );
+            jarFile.delete();
+            createArchive( session, config, jarFile, classes );
+            InputStream in = new FileInputStream( jarFile );
+            try
+            {
+                jars[i] = IOUtil.toByteArray( in );
+            }
+            finally
+            {
+                in.close();
+            }
+
+            JarFile jar = new JarFile( jarFile );
+            try
+            {
+                List<String> entries = new ArrayList<String>();
+                for ( Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); )
+                {
+                    entries.add( e.nextElement().getName() );
+                }
+                assertEquals( "META-INF/", entries.get( 0 ) );
+                assertEquals( "META-INF/MANIFEST.MF", entries.get( 1 ) );
+                List<String> sorted = new ArrayList<String>( entries.subList( 2, entries.size() ) );
+                Collections.sort( sorted );
+                assertEquals( sorted, entries.subList( 2, entries.size() ) );
+
+                String properties = getContents( jar, "META-INF/maven/org.apache.dummy/dummy/pom.properties" );
+                assertEquals( "#Generated by Maven\nartifactId=dummy\ngroupId=org.apache.dummy\nversion=0.1\n",
+                              properties );
+
+                String manifest = getContents( jar, "META-INF/MANIFEST.MF" );
+                assertTrue( manifest, manifest.indexOf( "Alpha" ) < manifest.indexOf( "Middle" ) );
+                assertTrue( manifest, manifest.indexOf( "Middle" ) < manifest.indexOf( "Zeta" ) );
+            }
+            finally
+            {
+                jar.close();
+            }
+        }
+        assertTrue( Arrays.equals( jars[0], jars[1] ) );
+    }
+
+    public void testCreateArchives()
+        throws Exception
+    {
+        File classes = new File( "target/test/batch-classes" );
+        FileUtils.deleteDirectory( classes );
+        createFile( classes, "org/apache/dummy/A.txt", "a", System.currentTimeMillis() );
+        File sources = new File( "target/test/batch-sources" );
+        FileUtils.deleteDirectory( sources );
+        createFile( sources, "org/apache/dummy/A.java", "class A {}", System.currentTimeMillis() );
+
+        List<ArchiveRequest> requests = new ArrayList<ArchiveRequest>();
+        for ( int i = 0; i < 4; i++ )
+        {
+            File jarFile = new File( "target/test/batch" + i + ".jar" );
+            jarFile.delete();
+            JarArchiver jarArchiver = new JarArchiver();
+            jarArchiver.addDirectory( i % 2 == 0 ? classes : sources );
+            MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+            config.getManifest().setAddClasspath( true );
+            config.setCompressionThreads( i < 2 ? 1 : 2 );
+            requests.add( new ArchiveRequest( jarFile, jarArchiver, config ) );
+        }
+        final Set<String> threads = Collections.synchronizedSet( new TreeSet<String>() );
+        MavenArchiver batch = getMavenArchiver( new JarArchiver() );
+        batch.setListener( new ArchiverListener()
+        {
+            public void phaseStarted( ArchiverPhase phase )
+            {
+                if ( phase == ArchiverPhase.ARCHIVE )
+                {
+                    threads.add( Thread.currentThread().getName() );
+                }
+            }
+
+            public void phaseFinished( ArchiverPhase phase, long duration, PhaseCounters counters )
+            {
+            }
+        } );
+        batch.createArchives( getDummySession(), getDummyProject(), requests );
+        // the archives are created on the threads all archivers share
+        assertFalse( threads.isEmpty() );
+        for ( String thread : threads )
+        {
+            assertTrue( thread, thread.startsWith( "maven-archiver-worker-" ) );
+        }
+
+        String manifest = null;
+        for ( int i = 0; i < requests.size(); i++ )
+        {
+            JarFile jar = new JarFile( requests.get( i ).getOutputFile() );
+            try
+            {
+                assertEquals( i % 2 == 0 ? "a" : "class A {}",
+                              getContents( jar, i % 2 == 0 ? "org/apache/dummy/A.txt" : "org/apache/dummy/A.java" ) );
+                assertNotNull( getContents( jar, "META-INF/maven/org.apache.dummy/dummy/pom.properties" ) );
+                String classPath = jar.getManifest().getMainAttributes().getValue( "Class-Path" );
+                assertTrue( classPath, classPath.contains( "dummy1-1.0.jar" ) );
+                if ( manifest == null )
+                {
+                    manifest = classPath;
+                }
+                assertEquals( manifest, classPath );
+            }
+            finally
+            {
+                jar.close();
+            }
+        }
+        assertNull( requests.get( 0 ).getCompressionStatistics() );
+        assertNotNull( requests.get( 2 ).getCompressionStatistics() );
+
+        // the failure of one archive is reported once the others are done
+        JarArchiver failing = new JarArchiver();
+        failing.addDirectory( classes );
+        requests.add( new ArchiveRequest( new File( requests.get( 0 ).getOutputFile(), "nested.jar" ), failing,
+                                          new MavenArchiveConfiguration() ) );
+        try
+        {
+            getMavenArchiver( new JarArchiver() ).createArchives( getDummySession(), getDummyProject(), requests );
+            fail( "Archive below a file created" );
+        }
+        catch ( ArchiverException e )
+        {
+            // expected
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+    public void testCreateArchiveAsync()
+        throws Exception
+    {
+        File classes = new File( "target/test/async-classes" );
+        FileUtils.deleteDirectory( classes );
+        createFile( classes, "org/apache/dummy/A.txt", "a", System.currentTimeMillis() );
+
+        File jarFile = new File( "target/test/async.jar" );
+        jarFile.delete();
+        JarArchiver jarArchiver = new JarArchiver();
+        jarArchiver.addDirectory( classes );
+        MavenArchiver archiver = getMavenArchiver( jarArchiver );
+        archiver.setOutputFile( jarFile );
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setCompressionThreads( 2 );
+        Future<File> future = archiver.createArchiveAsync( getDummySession(), getDummyProject(), config );
+        assertEquals( jarFile, future.get() );
+        JarFile jar = new JarFile( jarFile );
+        try
+        {
+            assertEquals( "a", getContents( jar, "org/apache/dummy/A.txt" ) );
+            assertNotNull( getContents( jar, "META-INF/maven/org.apache.dummy/dummy/pom.properties" ) );
+        }
+        finally
+        {
+            jar.close();
+        }
+        assertNotNull( archiver.getCompressionStatistics() );
+
+        // or on the caller's executor
+        final List<Runnable> executed = new ArrayList<Runnable>();
+        Executor executor = new Executor()
+        {
+            public void execute( Runnable command )
+            {
+                executed.add( command );
+                command.run();
+            }
+        };
+        jarArchiver = new JarArchiver();
+        jarArchiver.addDirectory( classes );
+        archiver = getMavenArchiver( jarArchiver );
+        archiver.setOutputFile( jarFile );
+        future = archiver.createArchiveAsync( getDummySession(), getDummyProject(), config, executor );
+        assertEquals( 1, executed.size() );
+        assertTrue( future.isDone() );
+        assertEquals( jarFile, future.get() );
+
+        // failures are reported by the future
+        jarArchiver = new JarArchiver();
+        jarArchiver.addDirectory( classes );
+        archiver = getMavenArchiver( jarArchiver );
+        archiver.setOutputFile( new File( jarFile, "nested.jar" ) );
+        future = archiver.createArchiveAsync( getDummySession(), getDummyProject(), new MavenArchiveConfiguration() );
+        try
+        {
+            future.get();
+            fail( "Archive below a file created" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertTrue( String.valueOf( e.getCause() ), e.getCause() instanceof ArchiverException
+                || e.getCause() instanceof IOException );
+        }
+    }
+
+    public void testListener()
+        throws Exception
+    {
+        File classes = new File( "target/test/listener-classes" );
+        FileUtils.deleteDirectory( classes );
+        createFile( classes, "org/apache/dummy/A.txt", "a", System.currentTimeMillis() );
+        File jarFile = new File( "target/test/listener.jar" );
+        jarFile.delete();
+
+        final List<String> events = new ArrayList<String>();
+        final Map<ArchiverPhase, PhaseCounters> counters = new HashMap<ArchiverPhase, PhaseCounters>();
+        ArchiverListener listener = new ArchiverListener()
+        {
+            public void phaseStarted( ArchiverPhase phase )
+            {
+                events.add( "+" + phase );
+            }
+
+            public void phaseFinished( ArchiverPhase phase, long duration, PhaseCounters phaseCounters )
+            {
+                assertTrue( duration >= 0 );
+                events.add( "-" + phase );
+                counters.put( phase, phaseCounters );
+            }
+        };
+
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.getManifest().setAddClasspath( true );
+        config.setIndex( true );
+        config.setForced( false );
+        JarArchiver jarArchiver = new JarArchiver();
+        jarArchiver.addDirectory( classes );
+        MavenArchiver archiver = getMavenArchiver( jarArchiver );
+        archiver.setOutputFile( jarFile );
+        archiver.setListener( listener );
+        archiver.createArchive( getDummySession(), getDummyProject(), config );
+
+        assertEquals( Arrays.asList( "+ARCHIVE", "+MAVEN_DESCRIPTOR", "-MAVEN_DESCRIPTOR", "+CLASSPATH", "-CLASSPATH",
+                                     "+MANIFEST", "-MANIFEST", "+JOURNAL", "-JOURNAL", "+INDEX", "-INDEX", "+WRITE",
+                                     "-WRITE", "-ARCHIVE" ), events );
+        // the output directory and three artifacts
+        assertEquals( 4, counters.get( ArchiverPhase.CLASSPATH ).getClasspathElements() );
+        assertEquals( 4, counters.get( ArchiverPhase.MANIFEST ).getClasspathElements() );
+        PhaseCounters archive = counters.get( ArchiverPhase.ARCHIVE );
+        assertEquals( jarFile.length(), archive.getBytesOut() );
+        assertTrue( archive.getEntries() > 0 );
+        assertTrue( archive.getBytesIn() > 0 );
+        assertTrue( counters.get( ArchiverPhase.INDEX ).getBytesOut() > 0 );
+
+        // the archive is up to date the second time
+        events.clear();
+        jarArchiver = new JarArchiver();
+        jarArchiver.addDirectory( classes );
+        archiver.setArchiver( jarArchiver );
+        archiver.createArchive( getDummySession(), getDummyProject(), config );
+        assertEquals( Arrays.asList( "+ARCHIVE", "+MAVEN_DESCRIPTOR", "-MAVEN_DESCRIPTOR", "+CLASSPATH", "-CLASSPATH",
+                                     "+MANIFEST", "-MANIFEST", "+JOURNAL", "-JOURNAL", "-ARCHIVE" ), events );
+
+        events.clear();
+        archiver.getManifest( getDummySession(), getDummyProject(), config );
+        assertEquals( Arrays.asList( "+CLASSPATH", "-CLASSPATH", "+MANIFEST", "-MANIFEST" ), events );
+    }
+
+    static File createFile( File dir, String path, String contents, long lastModified )
+        throws IOException
+    {
+        File file = new File( dir, path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), contents );
+        file.setLastModified( lastModified );
+        return file;
+    }
+
+    static void createFile( File dir, String path, byte[] contents )
+        throws IOException
+    {
+        File file = new File( dir, path );
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( contents );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    static String getContents( File jarFile, String name )
+        throws IOException
+    {
+        JarFile jar = new JarFile( jarFile );
+        try
+        {
+            return getContents( jar, name );
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+
+    static String getContents( JarFile jar, String name )
+        throws IOException
+    {
+        ZipEntry entry = jar.getEntry( name );
+        assertNotNull( name, entry );
+        InputStream in = jar.getInputStream( entry );
+        try
+        {
+            return IOUtil.toString( in );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
     public void testNotGenerateImplementationVersionForMANIFESTMF()
         throws Exception
     {
@@ -323,7 +977,7 @@ public class MavenArchiverTest
         }
     }
 
-    private MavenArchiver getMavenArchiver( JarArchiver jarArchiver )
+    static MavenArchiver getMavenArchiver( JarArchiver jarArchiver )
     {
         MavenArchiver archiver = new MavenArchiver();
         archiver.setArchiver( jarArchiver );
@@ -572,6 +1226,50 @@ public class MavenArchiverTest
         assertEquals( "The value of the attribute is wrong.", "value", attribute );
     }
 
+    public void testWriteManifest()
+        throws Exception
+    {
+        MavenArchiver archiver = new MavenArchiver();
+
+        MavenSession session = getDummySession();
+        MavenProject project = getDummyProject();
+
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.getManifest().setAddClasspath( true );
+        config.getManifest().setAddExtensions( true );
+        config.getManifest().setAddDefaultImplementationEntries( true );
+        config.getManifest().setMainClass( "org.apache.maven.Foo" );
+        config.addManifestEntry( "Class-Path", "help/" );
+        config.addManifestEntry( "Built-By", "somebody" );
+        config.addManifestEntry( "Empty", "" );
+        config.addManifestEntry( "Long", StringUtils.repeat( "\u00e9t\u00e9 ", 40 ) );
+
+        ManifestSection manifestSection = new ManifestSection();
+        manifestSection.setName( "SectionOne" );
+        manifestSection.addManifestEntry( "key", "value" );
+        config.addManifestSection( manifestSection );
+
+        Manifest expected = new Manifest( archiver.getManifest( session, project, config ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archiver.writeManifest( session, project, config, out );
+        byte[] bytes = out.toByteArray();
+        Manifest actual = new Manifest( new ByteArrayInputStream( bytes ) );
+
+        assertEquals( expected.getMainAttributes(), actual.getMainAttributes() );
+        assertEquals( expected.getEntries(), actual.getEntries() );
+        assertEquals( "help/ dummy1-1.0.jar dummy2-1.5.jar dummy3-2.0.jar",
+                      actual.getMainAttributes().getValue( "Class-Path" ) );
+        assertEquals( "somebody", actual.getMainAttributes().getValue( "Built-By" ) );
+
+        String text = new String( bytes, "UTF-8" );
+        assertTrue( text.startsWith( "Manifest-Version: 1.0\r\n" ) );
+        for ( String line : text.split( "\r\n" ) )
+        {
+            assertTrue( line, line.getBytes( "UTF-8" ).length <= 72 );
+        }
+    }
+
     @SuppressWarnings( "ResultOfMethodCallIgnored" )
     public void testDefaultClassPathValue()
         throws Exception
@@ -601,7 +1299,7 @@ public class MavenArchiverTest
     }
 
     @SuppressWarnings( "ResultOfMethodCallIgnored" )
-    private void deleteAndAssertNotPresent( File jarFile )
+    static void deleteAndAssertNotPresent( File jarFile )
     {
         jarFile.delete();
         assertFalse( jarFile.exists() );
@@ -705,6 +1403,32 @@ public class MavenArchiverTest
         assertEquals( "org/apache/dummy/bar/dummy3/2.0/dummy3-2.0.jar", classPathEntries[2] );
     }
 
+    public void testMavenRepoClassPathValue_WithNonCanonicalElement()
+        throws Exception
+    {
+        MavenSession session = getDummySession();
+        final MockArtifact artifact1 = getMockArtifact1Release();
+        MavenProject project = new MavenProject( getDummyProject() )
+        {
+            public List getRuntimeClasspathElements()
+            {
+                File file = artifact1.getFile();
+                return Collections.singletonList( file.getParent() + "/./" + file.getName() );
+            }
+        };
+        project.setArtifacts( getArtifacts( artifact1, getMockArtifact2() ) );
+
+        MavenArchiver archiver = new MavenArchiver();
+
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.getManifest().setAddClasspath( true );
+        config.getManifest().setClasspathLayoutType( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_REPOSITORY );
+
+        Manifest manifest = archiver.getManifest( session, project, config );
+        assertEquals( "org/apache/dummy/dummy1/1.0/dummy1-1.0.jar",
+                      manifest.getMainAttributes().getValue( "Class-Path" ) );
+    }
+
     public void testCustomClassPathValue()
         throws Exception
     {
@@ -742,6 +1466,33 @@ public class MavenArchiverTest
         assertEquals( "org/apache/dummy/bar/dummy3/2.0/TEST-dummy3-2.0.jar", classPathEntries[2] );
     }
 
+    public void testCustomClassPathValue_WithReflectedExpressions()
+        throws Exception
+    {
+        MavenSession session = getDummySession();
+        MavenProject project = getDummyProject();
+        MockArtifact artifact1 = getMockArtifact1Release();
+        artifact1.setClassifier( "tests" );
+        project.setArtifacts( getArtifacts( artifact1 ) );
+
+        MavenArchiver archiver = new MavenArchiver();
+
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.getManifest().setAddClasspath( true );
+        config.getManifest().setClasspathLayoutType( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_CUSTOM );
+        config.getManifest().setCustomClasspathLayout(
+            "${artifact.artifactId}${dashClassifier}/${artifact.artifactHandler.extension}/${artifact.unknown}" );
+
+        Manifest manifest = archiver.getManifest( session, project, config );
+        assertEquals( "dummy1-tests/jar/${artifact.unknown}", manifest.getMainAttributes().getValue( "Class-Path" ) );
+
+        config.getManifest().setCustomClasspathLayout(
+            "${artifact.groupIdPath}/${artifact.classifier}/${artifact.artifactId}.${artifact.extension}" );
+
+        manifest = archiver.getManifest( session, project, config );
+        assertEquals( "org/apache/dummy/tests/dummy1.jar", manifest.getMainAttributes().getValue( "Class-Path" ) );
+    }
+
     public void testCustomClassPathValue_WithSnapshotResolvedVersion()
         throws Exception
     {
@@ -816,7 +1567,7 @@ public class MavenArchiverTest
         assertEquals( "org/apache/dummy/bar/dummy3/2.0/TEST-dummy3-2.0.jar", classPathEntries[2] );
     }
 
-    private JarArchiver getCleanJarArciver( File jarFile )
+    static JarArchiver getCleanJarArciver( File jarFile )
     {
         deleteAndAssertNotPresent( jarFile );
         JarArchiver jarArchiver = new JarArchiver();
@@ -828,7 +1579,7 @@ public class MavenArchiverTest
     // common methods for testing
     // ----------------------------------------
 
-    private MavenProject getDummyProject()
+    static MavenProject getDummyProject()
     {
         MavenProject project = getMavenProject();
         File pomFile = new File( "src/test/resources/pom.xml" );
@@ -856,7 +1607,7 @@ public class MavenArchiverTest
         return project;
     }
 
-    private MavenProject getMavenProject()
+    static MavenProject getMavenProject()
     {
         Model model = new Model();
         model.setGroupId( "org.apache.dummy" );
@@ -873,7 +1624,7 @@ public class MavenArchiverTest
     }
 
 
-    private MockArtifact getMockArtifact3()
+    static MockArtifact getMockArtifact3()
     {
         MockArtifact artifact3 = new MockArtifact();
         artifact3.setGroupId( "org.apache.dummy.bar" );
@@ -915,7 +1666,7 @@ public class MavenArchiverTest
         return project;
     }
 
-    private ArtifactHandler getMockArtifactHandler()
+    static ArtifactHandler getMockArtifactHandler()
     {
         return new ArtifactHandler()
         {
@@ -958,7 +1709,7 @@ public class MavenArchiverTest
         };
     }
 
-    private MockArtifact getMockArtifact2()
+    static MockArtifact getMockArtifact2()
     {
         MockArtifact artifact2 = new MockArtifact();
         artifact2.setGroupId( "org.apache.dummy.foo" );
@@ -994,7 +1745,7 @@ public class MavenArchiverTest
         return artifact1;
     }
 
-    private MockArtifact getMockArtifact1Release()
+    static MockArtifact getMockArtifact1Release()
     {
         MockArtifact artifact1 = new MockArtifact();
         artifact1.setGroupId( "org.apache.dummy" );
@@ -1006,7 +1757,7 @@ public class MavenArchiverTest
         return artifact1;
     }
 
-    private File getClasspathFile( String file )
+    static File getClasspathFile( String file )
     {
         URL resource = Thread.currentThread().getContextClassLoader().getResource( file );
         if ( resource == null )
@@ -1019,7 +1770,7 @@ public class MavenArchiverTest
         return new File( uri.getPath().replaceAll( "%20", " " ) );
     }
 
-    private MavenSession getDummySession()
+    static MavenSession getDummySession()
     {
         Properties executionProperties = new Properties();
         executionProperties.put( "maven.version", "3.0.4" );
@@ -1032,7 +1783,7 @@ public class MavenArchiverTest
         return getDummySession( new Properties() );
     }
 
-    private MavenSession getDummySession( Properties executionProperties )
+    static MavenSession getDummySession( Properties executionProperties )
     {
         PlexusContainer container = null;
         Settings settings = null;
@@ -1047,7 +1798,7 @@ public class MavenArchiverTest
                                  executionRootDir, executionProperties, startTime );
     }
 
-    private Set<Artifact> getArtifacts( Artifact... artifacts )
+    static Set<Artifact> getArtifacts( Artifact... artifacts )
     {
         final ArtifactHandler mockArtifactHandler = getMockArtifactHandler();
         Set<Artifact> result = new TreeSet<Artifact>( new ArtifactComparator() );
@@ -1059,7 +1810,7 @@ public class MavenArchiverTest
         return result;
     }
 
-    public Manifest getJarFileManifest( File jarFile )
+    public static Manifest getJarFileManifest( File jarFile )
         throws IOException
     {
         JarFile jar = null;
@@ -0,0 +1,101 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.jar.JarFile;
+
+public class PomPropertiesUtilTest
+    extends TestCase
+{
+    private static final String PROPERTIES_NAME = "META-INF/maven/org.apache.dummy/dummy/pom.properties";
+
+    public void testPomPropertiesInMemory()
+        throws Exception
+    {
+        File classes = new File( "target/test/in-memory-classes" );
+        FileUtils.deleteDirectory( classes );
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/A.txt", "a", System.currentTimeMillis() );
+        File pomPropertiesFile = new File( "target/maven-archiver/pom.properties" );
+
+        MavenSession session = MavenArchiverTest.getDummySession();
+        MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+        config.setPomPropertiesInMemory( true );
+        File jarFile = new File( "target/test/in-memory.jar" );
+
+        for ( boolean jarWriter : MavenArchiverTest.JAR_WRITERS )
+        {
+            pomPropertiesFile.delete();
+            jarFile.delete();
+            MavenArchiverTest.createArchive( session, config, jarFile, classes, jarWriter );
+            assertFalse( pomPropertiesFile.exists() );
+
+            JarFile jar = new JarFile( jarFile );
+            try
+            {
+                String properties = MavenArchiverTest.getContents( jar, PROPERTIES_NAME );
+                assertEquals( "#Generated by Maven\nartifactId=dummy\ngroupId=org.apache.dummy\nversion=0.1\n",
+                              properties );
+            }
+            finally
+            {
+                jar.close();
+            }
+        }
+
+        // the properties come from the model, which may change while the POM doesn't, as with -Drevision
+        config.setIncremental( true );
+        long pomLastModified = System.currentTimeMillis() - 60000L;
+        for ( String version : new String[]{ "0.1", "0.2" } )
+        {
+            MavenProject project = MavenArchiverTest.getDummyProject();
+            project.getModel().setVersion( version );
+            project.getFile().setLastModified( pomLastModified );
+            JarArchiver jarArchiver = new JarArchiver();
+            jarArchiver.setDestFile( jarFile );
+            jarArchiver.addDirectory( classes );
+            MavenArchiverTest.getMavenArchiver( jarArchiver ).createArchive( session, project, config );
+        }
+        JarFile jar = new JarFile( jarFile );
+        try
+        {
+            String properties = MavenArchiverTest.getContents( jar, PROPERTIES_NAME );
+            assertTrue( properties, properties.contains( "version=0.2" ) );
+        }
+        finally
+        {
+            jar.close();
+        }
+        config.setIncremental( false );
+
+        // a file changed behind our back is written again, though its stamp was taken before
+        config.setPomPropertiesInMemory( false );
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        FileUtils.fileWrite( pomPropertiesFile.getPath(), "version=0.2\n" );
+        MavenArchiverTest.createArchive( session, config, jarFile, classes );
+        assertTrue( FileUtils.fileRead( pomPropertiesFile ).contains( "version=0.1" ) );
+    }
+}
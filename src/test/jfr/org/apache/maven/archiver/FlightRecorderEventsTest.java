@@ -0,0 +1,115 @@
+package org.apache.maven.archiver;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Checks the flight recorder events, which need Java 8u262, so this test is compiled from its own source root.
+ */
+public class FlightRecorderEventsTest
+    extends TestCase
+{
+    public void testFlightRecorderEvents()
+        throws Exception
+    {
+        if ( !( ArchiverEvents.getInstance() instanceof FlightRecorderEvents ) )
+        {
+            // no flight recorder in this JVM
+            return;
+        }
+        File classes = new File( "target/test/jfr-classes" );
+        FileUtils.deleteDirectory( classes );
+        MavenArchiverTest.createFile( classes, "org/apache/dummy/A.txt", "a", System.currentTimeMillis() );
+        File jarFile = new File( "target/test/jfr.jar" );
+        jarFile.delete();
+
+        Recording recording = new Recording();
+        recording.enable( "org.apache.maven.archiver.Archive" );
+        recording.enable( "org.apache.maven.archiver.Manifest" );
+        recording.enable( "org.apache.maven.archiver.Entry" ).withThreshold( Duration.ZERO );
+        recording.start();
+        try
+        {
+            MavenArchiveConfiguration config = new MavenArchiveConfiguration();
+            config.getManifest().setAddClasspath( true );
+            config.setCompressionThreads( 2 );
+            JarArchiver jarArchiver = new JarArchiver();
+            jarArchiver.addDirectory( classes );
+            MavenArchiver archiver = MavenArchiverTest.getMavenArchiver( jarArchiver );
+            archiver.setOutputFile( jarFile );
+            archiver.createArchive( MavenArchiverTest.getDummySession(), MavenArchiverTest.getDummyProject(),
+                                     config );
+        }
+        finally
+        {
+            recording.stop();
+        }
+        File dump = new File( "target/test/archiver.jfr" );
+        recording.dump( dump.toPath() );
+        recording.close();
+
+        Map<String, List<RecordedEvent>> events = new HashMap<String, List<RecordedEvent>>();
+        for ( RecordedEvent event : RecordingFile.readAllEvents( dump.toPath() ) )
+        {
+            String name = event.getEventType().getName();
+            if ( !events.containsKey( name ) )
+            {
+                events.put( name, new ArrayList<RecordedEvent>() );
+            }
+            events.get( name ).add( event );
+        }
+
+        List<RecordedEvent> archives = events.get( "org.apache.maven.archiver.Archive" );
+        assertEquals( 1, archives.size() );
+        RecordedEvent archive = archives.get( 0 );
+        assertEquals( jarFile.getPath(), archive.getString( "file" ) );
+        assertEquals( "org.apache.dummy:dummy:jar:0.1", archive.getString( "project" ) );
+        assertTrue( archive.getLong( "entries" ) > 0 );
+        assertEquals( jarFile.length(), archive.getLong( "compressedSize" ) );
+        assertTrue( archive.getBoolean( "forced" ) );
+        assertFalse( archive.getBoolean( "upToDate" ) );
+
+        RecordedEvent manifest = events.get( "org.apache.maven.archiver.Manifest" ).get( 0 );
+        assertEquals( 4, manifest.getInt( "classpathElements" ) );
+        assertEquals( ManifestConfiguration.CLASSPATH_LAYOUT_TYPE_SIMPLE, manifest.getString( "layoutType" ) );
+
+        Set<String> entries = new TreeSet<String>();
+        for ( RecordedEvent entry : events.get( "org.apache.maven.archiver.Entry" ) )
+        {
+            entries.add( entry.getString( "name" ) );
+        }
+        assertTrue( entries.toString(), entries.contains( "org/apache/dummy/A.txt" ) );
+    }
+}